@@ -28,8 +28,13 @@ import ca.cmput301f13t03.adventure_datetime.model.Bookmark;
 import ca.cmput301f13t03.adventure_datetime.model.Choice;
 import ca.cmput301f13t03.adventure_datetime.model.Comment;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStoryModelDirector;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -115,13 +120,87 @@ public class UserController {
 		m_storyDirector.download();
 	}
 	
+    /**
+     * Gets one page of the local story catalogue without blocking
+     *
+     * @param filter Which stories to include
+     * @param sort The order of the stories
+     * @param offset Number of stories to skip
+     * @param limit Maximum number of stories in the page
+     * @param callback Given the page, empty past the last story, off the UI thread
+     */
+	public void getStorySummaries(StorySummary.Filter filter, StorySummary.Sort sort, int offset, int limit,
+	                              IStorageCallback<ArrayList<StorySummary>> callback) {
+		m_storyDirector.getStorySummaries(filter, sort, offset, limit, callback);
+	}
+
+    /**
+     * Searches the stories stored on the device without blocking. Page through the results
+     * with {@link #getStorySummaries(List, IStorageCallback)}.
+     *
+     * @param query The words to search for
+     * @param filter Which stories to include
+     * @param callback Given the ids of every matching story, most relevant first, off the UI thread
+     */
+	public void searchLocal(String query, StorySummary.Filter filter, IStorageCallback<ArrayList<UUID>> callback) {
+		m_storyDirector.searchLocal(query, filter, callback);
+	}
+
+    /**
+     * Gets the summaries of stories stored on the device without blocking
+     *
+     * @param storyIds The stories, such as a page of search results
+     * @param callback Given the summaries in the order of the ids, off the UI thread
+     */
+	public void getStorySummaries(List<UUID> storyIds, IStorageCallback<ArrayList<StorySummary>> callback) {
+		m_storyDirector.getStorySummaries(storyIds, callback);
+	}
+
 	public void search(String searchTerm) {
 		m_storyDirector.search(searchTerm);
 	}
 
+	/**
+	 * Loads another page of online stories, call as the list of them nears its end
+	 */
+	public void loadMoreOnlineStories() {
+		m_storyDirector.loadMoreOnlineStories();
+	}
+
 	public void deleteBookmark() {
 		m_storyDirector.deleteBookmark();
 		
 	}
 
+    /**
+     * Writes the choices made so far, call when the reader leaves the story
+     */
+	public void flushReadingTrail() {
+		m_storyDirector.flushReadingTrail();
+	}
+
+	public List<Bookmark> getReadingTrail(UUID storyId) {
+		return m_storyDirector.getReadingTrail(storyId);
+	}
+
+    /**
+     * Saves a story with everything it needs to a single file that can be moved to another device
+     *
+     * @param storyId The story to save
+     * @param bundle The file to write
+     * @param callback Told whether it worked, may be null
+     */
+	public void ExportStory(UUID storyId, File bundle, IStorageCallback<Boolean> callback) {
+		m_storyDirector.exportStory(storyId, bundle, callback);
+	}
+
+    /**
+     * Adds the story in a bundle file to the local stories
+     *
+     * @param bundle The file written by {@link #ExportStory}
+     */
+	public void ImportStory(File bundle) {
+		m_storyDirector.importStory(bundle);
+	}
+
 }
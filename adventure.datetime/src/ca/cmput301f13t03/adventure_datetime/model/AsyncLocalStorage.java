@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.util.Log;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ILocalStorage} operations off the calling thread.
+ *
+ * Writes are queued on one writer thread, so they reach the database one at a time and in the
+ * order they were made. Reads run on a small pool next to the writer, which write-ahead logging
+ * allows without blocking. Every operation returns a Future, and can also report its result to an
+ * {@link IStorageCallback} on the thread that ran it.
+ *
+ * A read does not wait for writes queued before it, call {@link #flush()} first when it must see them.
+ */
+public class AsyncLocalStorage {
+
+	private static final String TAG = "AsyncLocalStorage";
+	private static final int READER_THREADS = 2;
+
+	private final ILocalStorage mStorage;
+	private final ExecutorService mWriter;
+	private final ExecutorService mReaders;
+
+	public AsyncLocalStorage(ILocalStorage storage) {
+		mStorage = storage;
+		mWriter = Executors.newSingleThreadExecutor(new StorageThreadFactory("StorageWriter"));
+		mReaders = Executors.newFixedThreadPool(READER_THREADS, new StorageThreadFactory("StorageReader"));
+	}
+
+	/**
+	 * Gets the storage the operations run against, for callers that need a result immediately
+	 *
+	 * @return The wrapped storage
+	 */
+	public ILocalStorage getStorage() {
+		return mStorage;
+	}
+
+	/**
+	 * Runs a read on the reader pool
+	 *
+	 * @param operation The read, given the wrapped storage
+	 * @param callback Told the result once the read completes, may be null
+	 *
+	 * @return A Future of the result
+	 */
+	public <T> Future<T> read(Operation<T> operation, IStorageCallback<T> callback) {
+		return submit(mReaders, operation, callback);
+	}
+
+	/**
+	 * Queues a write on the writer thread, after every write queued before it
+	 *
+	 * @param operation The write, given the wrapped storage
+	 * @param callback Told the result once the write completes, may be null
+	 *
+	 * @return A Future of the result
+	 */
+	public <T> Future<T> write(Operation<T> operation, IStorageCallback<T> callback) {
+		return submit(mWriter, operation, callback);
+	}
+
+	/**
+	 * Gets a Future that completes once every write queued so far has completed
+	 *
+	 * @return A Future of true
+	 */
+	public Future<Boolean> flush() {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return true;
+			}
+		}, null);
+	}
+
+	/**
+	 * Stops accepting operations. Queued writes still complete.
+	 */
+	public void shutdown() {
+		mWriter.shutdown();
+		mReaders.shutdown();
+	}
+
+	public Future<Story> getStory(final UUID id, IStorageCallback<Story> callback) {
+		return read(new Operation<Story>() {
+			@Override
+			public Story run(ILocalStorage storage) {
+				return storage.getStory(id);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<Story>> getStories(IStorageCallback<ArrayList<Story>> callback) {
+		return read(new Operation<ArrayList<Story>>() {
+			@Override
+			public ArrayList<Story> run(ILocalStorage storage) {
+				return storage.getStories();
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<Story>> getStoriesAuthoredBy(final String author,
+	                                                     IStorageCallback<ArrayList<Story>> callback) {
+		return read(new Operation<ArrayList<Story>>() {
+			@Override
+			public ArrayList<Story> run(ILocalStorage storage) {
+				return storage.getStoriesAuthoredBy(author);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<StorySummary>> getStorySummaries(final StorySummary.Filter filter,
+	                                                         final StorySummary.Sort sort, final int offset,
+	                                                         final int limit,
+	                                                         IStorageCallback<ArrayList<StorySummary>> callback) {
+		return read(new Operation<ArrayList<StorySummary>>() {
+			@Override
+			public ArrayList<StorySummary> run(ILocalStorage storage) {
+				return storage.getStorySummaries(filter, sort, offset, limit);
+			}
+		}, callback);
+	}
+
+	public Future<Integer> getStorySummaryCount(final StorySummary.Filter filter, IStorageCallback<Integer> callback) {
+		return read(new Operation<Integer>() {
+			@Override
+			public Integer run(ILocalStorage storage) {
+				return storage.getStorySummaryCount(filter);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<UUID>> searchStories(final String query, final StorySummary.Filter filter,
+	                                             IStorageCallback<ArrayList<UUID>> callback) {
+		return read(new Operation<ArrayList<UUID>>() {
+			@Override
+			public ArrayList<UUID> run(ILocalStorage storage) {
+				return storage.searchStories(query, filter);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<StorySummary>> getStorySummaries(final List<UUID> storyIds,
+	                                                         IStorageCallback<ArrayList<StorySummary>> callback) {
+		return read(new Operation<ArrayList<StorySummary>>() {
+			@Override
+			public ArrayList<StorySummary> run(ILocalStorage storage) {
+				return storage.getStorySummaries(storyIds);
+			}
+		}, callback);
+	}
+
+	public Future<StoryFragment> getStoryFragment(final UUID id, IStorageCallback<StoryFragment> callback) {
+		return read(new Operation<StoryFragment>() {
+			@Override
+			public StoryFragment run(ILocalStorage storage) {
+				return storage.getStoryFragment(id);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<StoryFragment>> getStoryFragments(final UUID storyId,
+	                                                          IStorageCallback<ArrayList<StoryFragment>> callback) {
+		return read(new Operation<ArrayList<StoryFragment>>() {
+			@Override
+			public ArrayList<StoryFragment> run(ILocalStorage storage) {
+				return storage.getStoryFragments(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<Bookmark> getBookmark(final UUID storyId, IStorageCallback<Bookmark> callback) {
+		return read(new Operation<Bookmark>() {
+			@Override
+			public Bookmark run(ILocalStorage storage) {
+				return storage.getBookmark(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<Bookmark>> getAllBookmarks(IStorageCallback<ArrayList<Bookmark>> callback) {
+		return read(new Operation<ArrayList<Bookmark>>() {
+			@Override
+			public ArrayList<Bookmark> run(ILocalStorage storage) {
+				return storage.getAllBookmarks();
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> getAuthoredStory(final UUID storyId, IStorageCallback<Boolean> callback) {
+		return read(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.getAuthoredStory(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<UUID>> getAuthoredStories(IStorageCallback<ArrayList<UUID>> callback) {
+		return read(new Operation<ArrayList<UUID>>() {
+			@Override
+			public ArrayList<UUID> run(ILocalStorage storage) {
+				return storage.getAuthoredStories();
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> setBookmark(final Bookmark bookmark, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.setBookmark(bookmark);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> setStory(final Story story, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.setStory(story);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> setStoryFragment(final StoryFragment fragment, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.setStoryFragment(fragment);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> setStoryWithFragments(final Story story, final Collection<StoryFragment> fragments,
+	                                             IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.setStoryWithFragments(story, fragments);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Exports a story to a bundle file. Queued on the writer like an import, since the story, its
+	 * fragments and its image files are read separately and no write may land between them.
+	 */
+	public Future<Boolean> exportStory(final UUID storyId, final File bundle, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				try {
+					OutputStream out = new FileOutputStream(bundle);
+					try {
+						return storage.exportStory(storyId, out);
+					} finally {
+						out.close();
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "Error writing " + bundle, e);
+					return false;
+				}
+			}
+		}, callback);
+	}
+
+	public Future<Story> importStory(final File bundle, IStorageCallback<Story> callback) {
+		return write(new Operation<Story>() {
+			@Override
+			public Story run(ILocalStorage storage) {
+				try {
+					InputStream in = new FileInputStream(bundle);
+					try {
+						return storage.importStory(in);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "Error reading " + bundle, e);
+					return null;
+				}
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> setAuthoredStory(final Story story, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.setAuthoredStory(story);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteStory(final UUID id, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteStory(id);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteStoryFragments(final UUID storyId, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteStoryFragments(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteImage(final UUID imageId, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteImage(imageId);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteStoryFragment(final UUID fragmentId, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteStoryFragment(fragmentId);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteBookmarkByStory(final UUID storyId, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteBookmarkByStory(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteBookmarkByFragment(final UUID fragmentId, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteBookmarkByFragment(fragmentId);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> deleteAuthoredStory(final UUID storyId, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.deleteAuthoredStory(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> appendReadingTrail(final Collection<Bookmark> entries, IStorageCallback<Boolean> callback) {
+		return write(new Operation<Boolean>() {
+			@Override
+			public Boolean run(ILocalStorage storage) {
+				return storage.appendReadingTrail(entries);
+			}
+		}, callback);
+	}
+
+	public Future<ArrayList<Bookmark>> getReadingTrail(final UUID storyId,
+	                                                   IStorageCallback<ArrayList<Bookmark>> callback) {
+		return read(new Operation<ArrayList<Bookmark>>() {
+			@Override
+			public ArrayList<Bookmark> run(ILocalStorage storage) {
+				return storage.getReadingTrail(storyId);
+			}
+		}, callback);
+	}
+
+	public Future<MaintenanceReport> collectGarbage(final long timeBudgetMillis,
+	                                                IStorageCallback<MaintenanceReport> callback) {
+		return write(new Operation<MaintenanceReport>() {
+			@Override
+			public MaintenanceReport run(ILocalStorage storage) {
+				return storage.collectGarbage(timeBudgetMillis);
+			}
+		}, callback);
+	}
+
+	private <T> Future<T> submit(ExecutorService executor, final Operation<T> operation,
+	                             final IStorageCallback<T> callback) {
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				T result;
+				try {
+					result = operation.run(mStorage);
+				}
+				catch(RuntimeException e) {
+					Log.e(TAG, "Storage operation failed", e);
+					throw e;
+				}
+				if(callback != null)
+					callback.OnStorageResult(result);
+				return result;
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * A storage operation to run asynchronously
+	 */
+	public interface Operation<T> {
+		T run(ILocalStorage storage);
+	}
+
+	private static class StorageThreadFactory implements ThreadFactory {
+		private final String mName;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		StorageThreadFactory(String name) {
+			mName = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary copy of the local story catalogue and bookmark list, read at startup so the
+ * lists can be drawn before the database has been loaded.
+ *
+ * Stories keep only what the catalogue shows: their header and the hash of their thumbnail, which
+ * is read from the {@link ImageStore} when it is drawn. The snapshot is never authoritative, a
+ * missing, old or damaged file is simply ignored until it is written again.
+ */
+public class CatalogueSnapshot {
+
+	private static final String TAG = "CatalogueSnapshot";
+	private static final String STORIES_FILE = "stories.snapshot";
+	private static final String BOOKMARKS_FILE = "bookmarks.snapshot";
+	private static final int STORIES_MAGIC = 0x53544f52;
+	private static final int BOOKMARKS_MAGIC = 0x424f4f4b;
+	private static final int VERSION = 1;
+	/**
+	 * Bounds on what a damaged file can make the reader allocate
+	 */
+	private static final int MAX_ENTRIES = 100000;
+	private static final int MAX_STRING_BYTES = 1 << 20;
+
+	private final File mDirectory;
+	private final ImageStore mImageStore;
+
+	public CatalogueSnapshot(Context context, ImageStore imageStore) {
+		this(context.getFilesDir(), imageStore);
+	}
+
+	public CatalogueSnapshot(File directory, ImageStore imageStore) {
+		mDirectory = directory;
+		mImageStore = imageStore;
+	}
+
+	/**
+	 * Reads the stories in the snapshot
+	 *
+	 * @return The stories by id, or null if there is no usable snapshot
+	 */
+	public synchronized Map<UUID, Story> readStories() {
+		DataInputStream in = open(STORIES_FILE, STORIES_MAGIC);
+		if(in == null)
+			return null;
+
+		try {
+			int count = readCount(in);
+			Map<UUID, Story> stories = new HashMap<UUID, Story>(count * 2);
+			for(int i = 0; i < count; i++) {
+				UUID id = readId(in);
+				UUID headFragmentId = readId(in);
+				String title = readString(in);
+				String author = readString(in);
+				String synopsis = readString(in);
+				long timestamp = in.readLong();
+				UUID thumbnailId = readId(in);
+				String thumbnailHash = readString(in);
+
+				Image thumbnail = null;
+				if(thumbnailId != null && thumbnailHash != null)
+					thumbnail = new Image(thumbnailId, mImageStore, thumbnailHash);
+				Story story = new Story(headFragmentId, id, author, timestamp, synopsis, thumbnail, title);
+				story.markSaved();
+				stories.put(id, story);
+			}
+			Log.v(TAG, count + " stories read from snapshot");
+			return stories;
+		} catch (IOException e) {
+			Log.w(TAG, "Ignoring unreadable story snapshot", e);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Replaces the stories in the snapshot
+	 */
+	public synchronized void writeStories(Collection<Story> stories) {
+		File temp = new File(mDirectory, STORIES_FILE + ".tmp");
+		try {
+			DataOutputStream out = create(temp, STORIES_MAGIC);
+			try {
+				out.writeInt(stories.size());
+				for(Story story : stories) {
+					Image thumbnail = story.getThumbnail();
+					writeId(out, story.getId());
+					writeId(out, story.getHeadFragmentId());
+					writeString(out, story.getTitle());
+					writeString(out, story.getAuthor());
+					writeString(out, story.getSynopsis());
+					out.writeLong(story.getTimestamp());
+					// Thumbnails that aren't in the image store yet are left out
+					writeId(out, thumbnail == null ? null : thumbnail.getId());
+					writeString(out, thumbnail == null ? null : thumbnail.getStoredHash(mImageStore));
+				}
+			} finally {
+				out.close();
+			}
+			replace(temp, STORIES_FILE);
+		} catch (IOException e) {
+			Log.e(TAG, "Error writing story snapshot", e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Reads the bookmarks in the snapshot
+	 *
+	 * @return The bookmarks by story id, or null if there is no usable snapshot
+	 */
+	public synchronized Map<UUID, Bookmark> readBookmarks() {
+		DataInputStream in = open(BOOKMARKS_FILE, BOOKMARKS_MAGIC);
+		if(in == null)
+			return null;
+
+		try {
+			int count = readCount(in);
+			Map<UUID, Bookmark> bookmarks = new HashMap<UUID, Bookmark>(count * 2);
+			for(int i = 0; i < count; i++) {
+				UUID storyId = readId(in);
+				UUID fragmentId = readId(in);
+				Date date = new Date(in.readLong());
+				bookmarks.put(storyId, new Bookmark(fragmentId, storyId, date));
+			}
+			return bookmarks;
+		} catch (IOException e) {
+			Log.w(TAG, "Ignoring unreadable bookmark snapshot", e);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Replaces the bookmarks in the snapshot
+	 */
+	public synchronized void writeBookmarks(Collection<Bookmark> bookmarks) {
+		File temp = new File(mDirectory, BOOKMARKS_FILE + ".tmp");
+		try {
+			DataOutputStream out = create(temp, BOOKMARKS_MAGIC);
+			try {
+				out.writeInt(bookmarks.size());
+				for(Bookmark bookmark : bookmarks) {
+					writeId(out, bookmark.getStoryID());
+					writeId(out, bookmark.getFragmentID());
+					out.writeLong(bookmark.getTimestamp());
+				}
+			} finally {
+				out.close();
+			}
+			replace(temp, BOOKMARKS_FILE);
+		} catch (IOException e) {
+			Log.e(TAG, "Error writing bookmark snapshot", e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Opens a snapshot file and checks its header
+	 *
+	 * @return The stream positioned after the header, or null if the file is missing or not this version
+	 */
+	private DataInputStream open(String name, int magic) {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(mDirectory, name))));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+
+		try {
+			if(in.readInt() == magic && in.readInt() == VERSION)
+				return in;
+			Log.v(TAG, "Ignoring snapshot " + name + " from another version");
+		} catch (IOException e) {
+			Log.w(TAG, "Ignoring unreadable snapshot " + name, e);
+		}
+		close(in);
+		return null;
+	}
+
+	private static DataOutputStream create(File file, int magic) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(magic);
+		out.writeInt(VERSION);
+		return out;
+	}
+
+	/**
+	 * Moves a fully written temporary file over the snapshot, so a crash never leaves half a snapshot
+	 */
+	private void replace(File temp, String name) throws IOException {
+		if(!temp.renameTo(new File(mDirectory, name)))
+			throw new IOException("Could not replace snapshot " + name);
+	}
+
+	private static void writeId(DataOutputStream out, UUID id) throws IOException {
+		out.writeBoolean(id != null);
+		if(id != null) {
+			out.writeLong(id.getMostSignificantBits());
+			out.writeLong(id.getLeastSignificantBits());
+		}
+	}
+
+	private static UUID readId(DataInputStream in) throws IOException {
+		if(!in.readBoolean())
+			return null;
+		return new UUID(in.readLong(), in.readLong());
+	}
+
+	private static int readCount(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if(count < 0 || count > MAX_ENTRIES)
+			throw new IOException("Snapshot of " + count + " entries");
+		return count;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if(value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0)
+			return null;
+		if(length > MAX_STRING_BYTES)
+			throw new IOException("String of " + length + " bytes");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void close(DataInputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Error closing snapshot", e);
+		}
+	}
+}
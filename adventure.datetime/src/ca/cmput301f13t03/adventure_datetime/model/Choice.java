@@ -41,6 +41,10 @@ public class Choice {
 	 * The UUID of the target fragment
 	 */
 	private UUID target;
+	/**
+	 * Whether the text or target changed since the owning fragment was last saved
+	 */
+	private transient boolean changed;
 
     /**
      * Constructs a new Choice
@@ -68,6 +72,8 @@ public class Choice {
      * @param text The text to set
      */
 	public void setText(String text) {
+		if(this.text == null ? text != null : !this.text.equals(text))
+			changed = true;
 		this.text = text;
 	}
 
@@ -88,9 +94,41 @@ public class Choice {
 	public void setTarget(UUID target) {
 		if(target == null)
 			return;
+		if(!target.equals(this.target))
+			changed = true;
 		this.target = target;
 	}
 
+    /**
+     * Checks whether the Choice changed since its fragment was last loaded or saved
+     *
+     * @return True if the text or target changed
+     */
+	public boolean isChanged() {
+		return changed;
+	}
+
+	void markSaved() {
+		changed = false;
+	}
+
+	/**
+	 * Copies the choice, changed or not, for a write on another thread
+	 */
+	Choice copy() {
+		Choice copy = new Choice(text, target);
+		copy.changed = changed;
+		return copy;
+	}
+
+	/**
+	 * Checks whether another choice has the same text and target
+	 */
+	boolean sameAs(Choice other) {
+		return (text == null ? other.text == null : text.equals(other.text))
+				&& (target == null ? other.target == null : target.equals(other.target));
+	}
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Least recently used cache of StoryFragments, bounded by an estimate of the memory they hold.
+ *
+ * A fragment is measured by its text, its choices and whatever image data it has in memory.
+ * Images decode their bitmaps lazily, so a fragment is measured again every time it is read.
+ * Fragments of the pinned story are never evicted and don't count against the limit, which keeps
+ * the story being read or edited whole without squeezing out everything else when it alone is over.
+ */
+public class FragmentCache {
+
+	private static final String TAG = "FragmentCache";
+	/**
+	 * Rough overhead of a fragment, its lists and its UUIDs
+	 */
+	private static final long FRAGMENT_OVERHEAD = 256;
+	private static final long CHOICE_OVERHEAD = 64;
+
+	private final LinkedHashMap<UUID, Entry> mEntries = new LinkedHashMap<UUID, Entry>(32, 0.75f, true);
+	private long mMaxSize;
+	private long mSize;
+	/**
+	 * The part of mSize held by fragments of the pinned story, which the limit doesn't apply to
+	 */
+	private long mPinnedSize;
+	private UUID mPinnedStory;
+
+	private long mHits;
+	private long mMisses;
+	private long mEvictions;
+
+	private static class Entry {
+		final StoryFragment fragment;
+		long size;
+		boolean pinned;
+
+		Entry(StoryFragment fragment, long size) {
+			this.fragment = fragment;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * @param maxSize Approximate number of bytes the unpinned fragments may hold
+	 */
+	public FragmentCache(long maxSize) {
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * Gets a cached fragment and marks it as recently used
+	 *
+	 * @return The fragment, or null if it isn't cached
+	 */
+	public synchronized StoryFragment get(UUID id) {
+		Entry entry = mEntries.get(id);
+		if(entry == null) {
+			mMisses++;
+			return null;
+		}
+
+		mHits++;
+		remeasure(entry);
+		return entry.fragment;
+	}
+
+	/**
+	 * Gets a cached fragment without counting a hit or miss, for lookups made on the reader's behalf
+	 *
+	 * @return The fragment, or null if it isn't cached
+	 */
+	public synchronized StoryFragment peek(UUID id) {
+		Entry entry = mEntries.get(id);
+		return entry != null ? entry.fragment : null;
+	}
+
+	/**
+	 * Checks for a fragment without counting a hit or miss or changing its place
+	 */
+	public synchronized boolean contains(UUID id) {
+		return mEntries.containsKey(id);
+	}
+
+	/**
+	 * Caches a fragment, replacing any other with its id
+	 */
+	public synchronized void put(StoryFragment fragment) {
+		Entry entry = new Entry(fragment, sizeOf(fragment));
+		Entry previous = mEntries.put(fragment.getFragmentID(), entry);
+		if(previous != null)
+			forget(previous);
+		entry.pinned = isPinned(fragment);
+		mSize += entry.size;
+		if(entry.pinned)
+			mPinnedSize += entry.size;
+		trimToSize(mMaxSize);
+	}
+
+	/**
+	 * Caches a fragment unless one with its id is already cached
+	 *
+	 * @return The fragment already cached, or null if the given one was added
+	 */
+	public synchronized StoryFragment putIfAbsent(StoryFragment fragment) {
+		Entry entry = mEntries.get(fragment.getFragmentID());
+		if(entry != null)
+			return entry.fragment;
+		put(fragment);
+		return null;
+	}
+
+	/**
+	 * Drops a fragment from the cache
+	 *
+	 * @return The fragment, or null if it wasn't cached
+	 */
+	public synchronized StoryFragment remove(UUID id) {
+		Entry entry = mEntries.remove(id);
+		if(entry == null)
+			return null;
+		forget(entry);
+		return entry.fragment;
+	}
+
+	/**
+	 * Drops every cached fragment of a story, for when the story is replaced in the database
+	 *
+	 * @return How many fragments were dropped
+	 */
+	public synchronized int removeStory(UUID storyId) {
+		int removed = 0;
+		Iterator<Entry> entries = mEntries.values().iterator();
+		while(entries.hasNext()) {
+			Entry entry = entries.next();
+			if(storyId.equals(entry.fragment.getStoryID())) {
+				entries.remove();
+				forget(entry);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Lists the cached fragments, least recently used first
+	 */
+	public synchronized List<StoryFragment> values() {
+		List<StoryFragment> fragments = new ArrayList<StoryFragment>(mEntries.size());
+		for(Entry entry : mEntries.values()) {
+			fragments.add(entry.fragment);
+		}
+		return fragments;
+	}
+
+	/**
+	 * Keeps every fragment of a story, cached now or later, from being evicted. Only one story is
+	 * pinned at a time, pinning another releases the previous one.
+	 *
+	 * @param storyId The story to pin, or null to pin nothing
+	 */
+	public synchronized void pinStory(UUID storyId) {
+		mPinnedStory = storyId;
+		mPinnedSize = 0;
+		for(Entry entry : mEntries.values()) {
+			entry.pinned = isPinned(entry.fragment);
+			if(entry.pinned)
+				mPinnedSize += entry.size;
+		}
+		trimToSize(mMaxSize);
+	}
+
+	/**
+	 * Evicts least recently used fragments until the unpinned ones fit in the given size
+	 *
+	 * @param maxSize Size in bytes to trim to, 0 to drop everything that isn't pinned
+	 */
+	public synchronized void trimToSize(long maxSize) {
+		if(mSize - mPinnedSize <= maxSize)
+			return;
+
+		int evicted = 0;
+		Iterator<Entry> entries = mEntries.values().iterator();
+		while(mSize - mPinnedSize > maxSize && entries.hasNext()) {
+			Entry entry = entries.next();
+			if(entry.pinned)
+				continue;
+			entries.remove();
+			mSize -= entry.size;
+			evicted++;
+		}
+		mEvictions += evicted;
+		if(evicted > 0)
+			Log.v(TAG, "Evicted " + evicted + " fragments, " + this);
+	}
+
+	/**
+	 * Changes the size the cache is bounded by, evicting if it shrank
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		mMaxSize = maxSize;
+		trimToSize(maxSize);
+	}
+
+	public synchronized long size() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the part of {@link #size()} held by the pinned story
+	 */
+	public synchronized long pinnedSize() {
+		return mPinnedSize;
+	}
+
+	public synchronized long maxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized long hitCount() {
+		return mHits;
+	}
+
+	public synchronized long missCount() {
+		return mMisses;
+	}
+
+	public synchronized long evictionCount() {
+		return mEvictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return mEntries.size() + " fragments in " + mSize + " bytes, " + mPinnedSize + " pinned, of "
+				+ mMaxSize + " bytes, " + mHits + " hits, "
+				+ mMisses + " misses, " + mEvictions + " evictions";
+	}
+
+	private boolean isPinned(StoryFragment fragment) {
+		return mPinnedStory != null && mPinnedStory.equals(fragment.getStoryID());
+	}
+
+	private void remeasure(Entry entry) {
+		long size = sizeOf(entry.fragment);
+		if(size == entry.size)
+			return;
+		mSize += size - entry.size;
+		if(entry.pinned)
+			mPinnedSize += size - entry.size;
+		entry.size = size;
+		trimToSize(mMaxSize);
+	}
+
+	private void forget(Entry entry) {
+		mSize -= entry.size;
+		if(entry.pinned)
+			mPinnedSize -= entry.size;
+	}
+
+	/**
+	 * Estimates the heap held by a fragment
+	 *
+	 * @return Approximate size in bytes
+	 */
+	static long sizeOf(StoryFragment fragment) {
+		long size = FRAGMENT_OVERHEAD;
+		if(fragment.getStoryText() != null)
+			size += fragment.getStoryText().length() * 2L;
+		if(fragment.getChoices() != null) {
+			for(Choice choice : fragment.getChoices()) {
+				size += CHOICE_OVERHEAD;
+				if(choice != null && choice.getText() != null)
+					size += choice.getText().length() * 2L;
+			}
+		}
+		if(fragment.getStoryMedia() != null) {
+			for(Image image : fragment.getStoryMedia()) {
+				size += image.getMemorySize();
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.os.Process;
+import android.util.Log;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IWebStorage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the fragments a reader can reach from the current one into the fragment cache ahead of time.
+ *
+ * Starting from a fragment, the targets of its choices are loaded breadth first down to the given
+ * depth, from the database or else from the web. Their images are left to decode when shown, since
+ * fragments of the current story are pinned in the cache and a decoded bitmap there is never evicted.
+ * Choices are read from the story graph where it has the fragment, so fragments being edited are never
+ * touched. The work runs on a single background priority thread. Starting again from another fragment
+ * cancels whatever is left of the previous walk, which stops between fragments.
+ */
+public class FragmentPrefetcher {
+	private static final String TAG = "FragmentPrefetcher";
+
+	private final ILocalStorage mStorage;
+	private final IWebStorage mWebStorage;
+	private final FragmentCache mCache;
+	private final ExecutorService mExecutor;
+	private final AtomicInteger mGeneration = new AtomicInteger();
+	private volatile int mDepth;
+	private Future<?> mPending;
+
+	/**
+	 * @param storage Database to load fragments from
+	 * @param webStorage Where fragments missing from the database are loaded from, or null for none
+	 * @param cache Cache to load fragments into
+	 * @param depth How many choices away from the current fragment to load
+	 */
+	public FragmentPrefetcher(ILocalStorage storage, IWebStorage webStorage, FragmentCache cache, int depth) {
+		mStorage = storage;
+		mWebStorage = webStorage;
+		mCache = cache;
+		mDepth = depth;
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, TAG);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Changes how many choices away from the current fragment are loaded. Takes effect from the
+	 * next call to {@link #prefetch(StoryFragment, StoryGraph)}
+	 *
+	 * @param depth Depth to load to, 0 to stop prefetching
+	 */
+	public void setDepth(int depth) {
+		mDepth = depth;
+	}
+
+	public int getDepth() {
+		return mDepth;
+	}
+
+	/**
+	 * Cancels the previous walk and starts loading what can be reached from the given fragment
+	 *
+	 * @param from The fragment the reader is on
+	 * @param graph Snapshot of the story being read, or null to follow the fragments' own choices
+	 */
+	public synchronized void prefetch(final StoryFragment from, final StoryGraph graph) {
+		cancel();
+		final int generation = mGeneration.get();
+		final int depth = mDepth;
+		if(from == null || depth <= 0)
+			return;
+
+		mPending = mExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				walk(from, graph, depth, generation);
+			}
+		});
+	}
+
+	/**
+	 * Stops prefetching, leaving whatever was already loaded in the cache
+	 */
+	public synchronized void cancel() {
+		mGeneration.incrementAndGet();
+		if(mPending != null) {
+			mPending.cancel(false);
+			mPending = null;
+		}
+	}
+
+	/**
+	 * Cancels prefetching and stops the prefetch thread
+	 */
+	public void shutdown() {
+		cancel();
+		mExecutor.shutdown();
+	}
+
+	private void walk(StoryFragment from, StoryGraph graph, int depth, int generation) {
+		Set<UUID> visited = new HashSet<UUID>();
+		visited.add(from.getFragmentID());
+		List<StoryFragment> level = new ArrayList<StoryFragment>();
+		level.add(from);
+		int loaded = 0;
+
+		for(int i = 0; i < depth && !level.isEmpty(); i++) {
+			List<StoryFragment> next = new ArrayList<StoryFragment>();
+			for(StoryFragment fragment : level) {
+				for(UUID target : targetsOf(fragment, graph)) {
+					if(isCancelled(generation))
+						return;
+					if(target == null || !visited.add(target))
+						continue;
+
+					StoryFragment targetFragment = mCache.peek(target);
+					if(targetFragment == null) {
+						targetFragment = load(target);
+						if(targetFragment == null)
+							continue;
+						StoryFragment cached = mCache.putIfAbsent(targetFragment);
+						if(cached != null)
+							targetFragment = cached;
+						else
+							loaded++;
+					}
+					next.add(targetFragment);
+				}
+			}
+			level = next;
+		}
+		Log.v(TAG, "Prefetched " + loaded + " fragments from " + from.getFragmentID() + ", " + mCache);
+	}
+
+	private static List<UUID> targetsOf(StoryFragment fragment, StoryGraph graph) {
+		List<UUID> targets = new ArrayList<UUID>();
+		StoryGraph.Node node = graph != null ? graph.getNode(fragment.getFragmentID()) : null;
+		if(node != null) {
+			for(StoryGraph.Edge edge : node.getChoices()) {
+				targets.add(edge.getTarget());
+			}
+		} else if(fragment.getChoices() != null) {
+			for(Choice choice : fragment.getChoices()) {
+				targets.add(choice.getTarget());
+			}
+		}
+		return targets;
+	}
+
+	private StoryFragment load(UUID id) {
+		StoryFragment fragment = mStorage.getStoryFragment(id);
+		if(fragment == null && mWebStorage != null) {
+			try {
+				fragment = mWebStorage.getFragment(id);
+			} catch(Exception e) {
+				Log.w(TAG, "Failed to prefetch fragment " + id, e);
+			}
+		}
+		return fragment;
+	}
+
+	private boolean isCancelled(int generation) {
+		return mGeneration.get() != generation;
+	}
+}
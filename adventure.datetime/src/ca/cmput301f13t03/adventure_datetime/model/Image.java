@@ -31,18 +31,52 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.UUID;
 
+/**
+ * An image attached to a Story, StoryFragment or Comment.
+ *
+ * The image is carried as raw JPEG bytes. The Base64 form is only needed for JSON, so call
+ * {@link #updateEncodedBitmap()} before serializing and the bytes are decoded again lazily after
+ * deserializing. Images loaded from StoryDB hold only the hash of their file in the
+ * {@link ImageStore} and read it when first needed.
+ *
+ * An image is dirty until it is saved to the image store, and again after its bitmap or id
+ * changes.
+ */
 public class Image {
 	
 	private UUID _id;
+	/**
+	 * Base64 of the JPEG bytes. Only set when going to or coming from JSON.
+	 */
 	private String encodedBitmap;
+	private transient byte[] data;
 	private transient Bitmap bitmap;
+	/**
+	 * Whether the bitmap or id changed since the image was saved
+	 */
 	private transient boolean dirty;
+	private transient ImageStore store;
+	private transient String hash;
+	/**
+	 * Counts changes to the bitmap or id, so a copy can tell whether it still matches
+	 */
+	private transient int version;
 
     public static String compressBitmap(Bitmap bit, int qual) {
-        Bitmap bitmapex = bit;
+        return Base64.encodeToString(compressBitmapToBytes(bit, qual), Base64.DEFAULT);
+    }
+
+    public static byte[] compressBitmapToBytes(Bitmap bit, int qual) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bitmapex.compress(Bitmap.CompressFormat.JPEG, qual, baos);
-        return Base64.encodeToString(baos.toByteArray(), Base64.DEFAULT);
+        bit.compress(Bitmap.CompressFormat.JPEG, qual, baos);
+        byte[] bytes = baos.toByteArray();
+
+        try {
+            baos.close();
+        } catch (IOException e) {
+            Log.e("Image", "Error closing stream", e);
+        }
+        return bytes;
     }
 	
 	public Image(String bitmap) {
@@ -50,6 +84,11 @@ public class Image {
 		this.encodedBitmap = bitmap;
 	}
 	
+	public Image(byte[] data) {
+		this._id = UUID.randomUUID();
+		this.data = data;
+	}
+	
 	public Image(Bitmap bitmap) {
 		this._id = UUID.randomUUID();
 		encodeBitmap(bitmap);
@@ -60,10 +99,27 @@ public class Image {
 		this._id = id;
 	}
 	
+	public Image(UUID id, byte[] data) {
+		this(data);
+		this._id = id;
+	}
+	
 	public Image(UUID id, Bitmap bitmap) {
 		this(bitmap);
 		this._id = id;
 	}
+	
+	/**
+	 * Creates an image backed by a file in the image store. Nothing is read until it is needed.
+	 * @param id Id of the image
+	 * @param store Store holding the image
+	 * @param hash Hash the image is stored under
+	 */
+	Image(UUID id, ImageStore store, String hash) {
+		this._id = id;
+		this.store = store;
+		this.hash = hash;
+	}
 
 	public UUID getId() {
 		return _id;
@@ -71,42 +127,144 @@ public class Image {
 	
 	public void setId(UUID id) {
 		this._id = id;
+		this.dirty = true;
+		this.version++;
+	}
+	
+	/**
+	 * Checks whether the image has to be written to local storage
+	 * @return True if the image isn't saved or changed since it was
+	 */
+	public boolean isDirty() {
+		return dirty || store == null;
 	}
 	
+	/**
+	 * Gets the image as a Base64 string, encoding the bytes if needed. Prefer {@link #getBytes()}.
+	 * @return The Base64 encoded JPEG, or null if there is no image
+	 */
 	public String getEncodedBitmap() {
+		if (encodedBitmap == null) {
+			byte[] bytes = getBytes();
+			if (bytes != null)
+				return Base64.encodeToString(bytes, Base64.DEFAULT);
+		}
 		return encodedBitmap;
 	}
 	
+	/**
+	 * Updates the Base64 field from the bytes. Call this before serializing to JSON
+	 */
+	public void updateEncodedBitmap() {
+		this.encodedBitmap = getEncodedBitmap();
+	}
+	
+	/**
+	 * Gets the raw JPEG bytes, decoding them from Base64 if the image came from JSON. Images
+	 * backed by the image store are read from disk on every call and not kept in memory.
+	 * @return The JPEG bytes, or null if there is no image
+	 */
+	public byte[] getBytes() {
+		if (data == null && encodedBitmap != null) {
+			data = Base64.decode(encodedBitmap, Base64.DEFAULT);
+			encodedBitmap = null;
+		}
+		if (data == null && store != null)
+			return store.read(hash);
+		return data;
+	}
+	
+	/**
+	 * Gets the hash this image is stored under, if it came from the given store
+	 * @param store The image store
+	 * @return The hash, or null if the image isn't in that store unchanged
+	 */
+	String getStoredHash(ImageStore store) {
+		return this.store == store ? hash : null;
+	}
+	
+	/**
+	 * Marks the image as saved in the image store under the given hash
+	 * @param store The image store
+	 * @param hash The hash of the image
+	 */
+	void setStored(ImageStore store, String hash) {
+		this.store = store;
+		this.hash = hash;
+		this.dirty = false;
+	}
+	
+	/**
+	 * Copies the image for a write on another thread. A dirty image brings its bytes along,
+	 * a stored one only where it is stored.
+	 * @return A copy the image's setters don't touch
+	 */
+	Image copyForSave() {
+		Image copy = isDirty() ? new Image(_id, getBytes()) : new Image(_id, store, hash);
+		copy.dirty = dirty;
+		copy.version = version;
+		return copy;
+	}
+	
+	/**
+	 * Marks the image stored like a copy that was written, unless it changed since the copy was taken
+	 * @param written The copy from {@link #copyForSave()} after it was saved
+	 */
+	void markStored(Image written) {
+		if (version == written.version && !written.isDirty())
+			setStored(written.store, written.hash);
+	}
+	
 	public void setBitmap(String bitmap) {
 		this.dirty = true;
+		this.version++;
 		this.encodedBitmap = bitmap;
+		this.data = null;
+		this.bitmap = null;
+		this.store = null;
+		this.hash = null;
 	}
 	
 	public void setBitmap(Bitmap bitmap) {
 		this.dirty = true;
+		this.version++;
 		encodeBitmap(bitmap);
+		this.bitmap = null;
+		this.store = null;
+		this.hash = null;
+	}
+	
+	/**
+	 * Estimates the heap this image holds, counting whichever of its bytes, Base64 and decoded
+	 * bitmap are currently in memory. Images backed by the image store count nothing until decoded.
+	 * @return Approximate size in bytes
+	 */
+	long getMemorySize() {
+		long size = 0;
+		if (data != null)
+			size += data.length;
+		if (encodedBitmap != null)
+			size += encodedBitmap.length() * 2L;
+		if (bitmap != null)
+			size += bitmap.getByteCount();
+		return size;
 	}
 	
 	public Bitmap decodeBitmap() {
-		if (dirty || bitmap == null) {
-			byte[] decodedThumbnail = Base64.decode(this.encodedBitmap, 0);
-			this.bitmap = BitmapFactory.decodeByteArray(decodedThumbnail, 0, decodedThumbnail.length);
-			this.dirty = false;
+		if (bitmap == null) {
+			if (data == null && encodedBitmap == null && store != null) {
+				this.bitmap = store.decode(hash);
+			} else {
+				byte[] bytes = getBytes();
+				this.bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+			}
 		}
 		
 		return bitmap;
 	}
 	
 	private void encodeBitmap(Bitmap bitmap) {
-		Bitmap bitmapex = bitmap;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		bitmapex.compress(Bitmap.CompressFormat.JPEG, 100, baos);
-		this.encodedBitmap = Base64.encodeToString(baos.toByteArray(), Base64.DEFAULT);
-		
-		try {
-			baos.close();
-		} catch (IOException e) {
-			Log.e("Story", "Error closing stream", e);
-		}
+		this.data = compressBitmapToBytes(bitmap, 100);
+		this.encodedBitmap = null;
 	}
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Content-addressed store for image bytes under the app's files directory.
+ *
+ * Every image is written once to a file named by the SHA-1 of its bytes, so identical images used
+ * by several fragments or stories share one file. Reads memory-map the file and feed the mapping
+ * straight to the bitmap decoder. StoryDB only keeps the hash of each image.
+ */
+public class ImageStore {
+
+	private static final String TAG = "ImageStore";
+	private static final String DIRECTORY_NAME = "images";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File mDirectory;
+
+	public ImageStore(Context context) {
+		this(new File(context.getFilesDir(), DIRECTORY_NAME));
+	}
+
+	public ImageStore(File directory) {
+		mDirectory = directory;
+		if(!mDirectory.isDirectory() && !mDirectory.mkdirs())
+			Log.e(TAG, "Could not create image directory " + mDirectory);
+	}
+
+	/**
+	 * Stores the bytes of an image, unless an identical image is already stored
+	 *
+	 * @param data The JPEG bytes
+	 *
+	 * @return The hash the image is stored under
+	 *
+	 * @throws IOException If the file could not be written
+	 */
+	public String put(byte[] data) throws IOException {
+		String hash = hash(data);
+		File file = getFile(hash);
+		if(file.exists())
+			return hash;
+
+		// Write to a temporary file first so a crash never leaves a partial image under the hash
+		File temp = new File(mDirectory, hash + "." + UUID.randomUUID() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if(!temp.renameTo(file)) {
+			temp.delete();
+			if(!file.exists())
+				throw new IOException("Could not store image " + hash);
+		}
+		Log.v(TAG, "Stored " + data.length + " bytes as " + hash);
+		return hash;
+	}
+
+	/**
+	 * Stores an image as it is read, so its bytes are never held in memory
+	 *
+	 * @param in The JPEG bytes. Read to the end but not closed.
+	 *
+	 * @return The hash the image is stored under
+	 *
+	 * @throws IOException If the image could not be read or written
+	 */
+	public String put(InputStream in) throws IOException {
+		MessageDigest digest = newDigest();
+		File temp = new File(mDirectory, UUID.randomUUID() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		long size = 0;
+		boolean written = false;
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while((count = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, count);
+				out.write(buffer, 0, count);
+				size += count;
+			}
+			out.getFD().sync();
+			written = true;
+		} finally {
+			out.close();
+			if(!written)
+				temp.delete();
+		}
+
+		// The hash is only known once every byte is read, so the file is named afterwards
+		String hash = toHex(digest.digest());
+		File file = getFile(hash);
+		if(file.exists() || !temp.renameTo(file)) {
+			temp.delete();
+			if(!file.exists())
+				throw new IOException("Could not store image " + hash);
+		}
+		Log.v(TAG, "Stored " + size + " bytes as " + hash);
+		return hash;
+	}
+
+	/**
+	 * Opens a stored image for reading
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return A stream over the image bytes, to be closed by the caller
+	 *
+	 * @throws IOException If the image doesn't exist
+	 */
+	public InputStream open(String hash) throws IOException {
+		return new FileInputStream(getFile(hash));
+	}
+
+	/**
+	 * Checks if an image with the given hash is stored
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return Whether the image exists
+	 */
+	public boolean contains(String hash) {
+		return getFile(hash).exists();
+	}
+
+	/**
+	 * Memory-maps a stored image read-only
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return A buffer over the image bytes
+	 *
+	 * @throws IOException If the image doesn't exist or can't be mapped
+	 */
+	public ByteBuffer map(String hash) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(getFile(hash), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// The mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads a stored image into memory
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return The image bytes, or null if they couldn't be read
+	 */
+	public byte[] read(String hash) {
+		try {
+			ByteBuffer buffer = map(hash);
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			return data;
+		} catch (IOException e) {
+			Log.e(TAG, "Error reading image " + hash, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes a stored image directly from its memory mapping
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return The bitmap, or null if it couldn't be read
+	 */
+	public Bitmap decode(String hash) {
+		try {
+			return BitmapFactory.decodeStream(new ByteBufferInputStream(map(hash)));
+		} catch (IOException e) {
+			Log.e(TAG, "Error decoding image " + hash, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the size of a stored image
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return Size in bytes, 0 if it doesn't exist
+	 */
+	public long size(String hash) {
+		return getFile(hash).length();
+	}
+
+	/**
+	 * Gets when a stored image was written
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return Milliseconds since the epoch, 0 if it doesn't exist
+	 */
+	public long lastModified(String hash) {
+		return getFile(hash).lastModified();
+	}
+
+	/**
+	 * Deletes a stored image. Callers must make sure nothing references the hash anymore.
+	 *
+	 * @param hash Hash of the image
+	 *
+	 * @return Whether the file was deleted
+	 */
+	public boolean delete(String hash) {
+		return getFile(hash).delete();
+	}
+
+	/**
+	 * Lists the hashes of all stored images
+	 *
+	 * @return Set of hashes, empty if there are none
+	 */
+	public Set<String> list() {
+		Set<String> hashes = new HashSet<String>();
+		String[] names = mDirectory.list();
+		if(names == null)
+			return hashes;
+
+		for(String name : names) {
+			if(name.indexOf('.') == -1)
+				hashes.add(name);
+		}
+		return hashes;
+	}
+
+	private File getFile(String hash) {
+		return new File(mDirectory, hash);
+	}
+
+	private static String hash(byte[] data) {
+		return toHex(newDigest().digest(data));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 unavailable", e);
+		}
+	}
+
+	private static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for(byte b : digest) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Lets BitmapFactory read a mapped buffer without copying it to the heap first
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer mBuffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			mBuffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if(!mBuffer.hasRemaining())
+				return -1;
+			int count = Math.min(length, mBuffer.remaining());
+			mBuffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return mBuffer.remaining();
+		}
+	}
+}
@@ -35,7 +35,8 @@ import java.util.UUID;
 public interface IAllFragmentsListener 
 {
 	/**
-	 * Callback for when the fragment list changes
+	 * Callback for when the current story is replaced. Edits to it arrive as deltas
+	 * through IStoryChangeListener instead
 	 */
 	public void OnAllFragmentsChange(Map<UUID, StoryFragment> newFragments);
 }
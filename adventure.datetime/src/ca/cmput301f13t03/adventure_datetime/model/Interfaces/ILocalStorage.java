@@ -23,10 +23,17 @@
 package ca.cmput301f13t03.adventure_datetime.model.Interfaces;
 
 import ca.cmput301f13t03.adventure_datetime.model.Bookmark;
+import ca.cmput301f13t03.adventure_datetime.model.MaintenanceReport;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
+import ca.cmput301f13t03.adventure_datetime.model.StoryBundle;
 import ca.cmput301f13t03.adventure_datetime.model.StoryFragment;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 public interface ILocalStorage {
@@ -58,6 +65,51 @@ public interface ILocalStorage {
 	 */
 	public abstract ArrayList<Story> getStoriesAuthoredBy(String author);
 
+	/**
+	 * Retrieves one page of summaries of the stories on local storage. Summaries leave out
+	 * fragment ids and only read their thumbnail when it is drawn.
+	 *
+	 * @param filter Which stories to include
+	 * @param sort The order of the stories
+	 * @param offset Number of stories to skip
+	 * @param limit Maximum number of stories in the page
+	 *
+	 * @return The page of summaries, empty past the last story
+	 */
+	public abstract ArrayList<StorySummary> getStorySummaries(StorySummary.Filter filter, StorySummary.Sort sort,
+	                                                          int offset, int limit);
+
+	/**
+	 * Counts the stories on local storage matching a filter
+	 *
+	 * @param filter Which stories to count
+	 *
+	 * @return The number of stories
+	 */
+	public abstract int getStorySummaryCount(StorySummary.Filter filter);
+
+	/**
+	 * Searches the titles, authors and synopses of stories on local storage along with the
+	 * content of their fragments. Every typed word must prefix a word of the story. All matches
+	 * are ranked at once, so page through them with {@link #getStorySummaries(List)} rather
+	 * than searching again for every page.
+	 *
+	 * @param query The words to search for
+	 * @param filter Which stories to include
+	 *
+	 * @return The ids of every matching story, most relevant first
+	 */
+	public abstract ArrayList<UUID> searchStories(String query, StorySummary.Filter filter);
+
+	/**
+	 * Fetches the summaries of the given stories, such as a page of search results
+	 *
+	 * @param storyIds The stories
+	 *
+	 * @return The summaries in the order of the ids, without stories that are no longer stored
+	 */
+	public abstract ArrayList<StorySummary> getStorySummaries(List<UUID> storyIds);
+
 	/**
 	 * Retrieves story fragments by specific ID from local storage
 	 *
@@ -135,6 +187,17 @@ public interface ILocalStorage {
 	 */
 	public abstract boolean setStoryFragment(StoryFragment frag);
 
+	/**
+	 * Inserts or updates a Story, its fragments and all of their images in a single transaction.
+	 * Only the entities and columns changed since they were last loaded or saved are written.
+	 *
+	 * @param story The story to push into the Database
+	 * @param fragments The fragments of the story to push with it
+	 *
+	 * @return True if everything was written, false if nothing was
+	 */
+	public abstract boolean setStoryWithFragments(Story story, Collection<StoryFragment> fragments);
+
     /**
      * Inserts a Story id to AuthoredStories
      *
@@ -145,14 +208,66 @@ public interface ILocalStorage {
     public abstract boolean setAuthoredStory(Story story);
 	
     /**
-     * Deletes a story and all it's related things (StoryFragments, Bookmark) from the database
+     * Writes a story with all of its fragments and images as a {@link StoryBundle}, one fragment
+     * at a time. Nothing may be written while it runs, or the bundle could mix two versions of
+     * the story and miss image files released in between.
+     *
+     * @param storyId The UUID of the story
+     * @param out Where the bundle is written, left open
+     *
+     * @return True if successful, false if not
+     */
+    public boolean exportStory(UUID storyId, OutputStream out);
+
+    /**
+     * Reads a {@link StoryBundle} into the database in one transaction, replacing any copy of the
+     * story already there
+     *
+     * @param in The bundle, left open
+     *
+     * @return The imported story, or null if the bundle couldn't be read or written
+     */
+    public Story importStory(InputStream in);
+
+    /**
+     * Appends fragments read to the reading trail in one transaction. The latest entry for each
+     * story also becomes its bookmark, unless the stored bookmark is newer.
+     *
+     * @param entries The fragments read, in the order they were read
+     *
+     * @return True if successful, false if not
+     */
+    public boolean appendReadingTrail(Collection<Bookmark> entries);
+
+    /**
+     * Retrieves every fragment read in a story
+     *
+     * @param storyId The UUID of the story
+     *
+     * @return The trail in the order it was read, empty if the story was never read
+     */
+    public ArrayList<Bookmark> getReadingTrail(UUID storyId);
+
+    /**
+     * Deletes images no story or fragment refers to anymore, then vacuums the database
+     * once enough of it is free space. Stops early when it runs out of time.
+     *
+     * @param timeBudgetMillis Roughly how long the collection may take
+     *
+     * @return What was reclaimed
+     */
+    public MaintenanceReport collectGarbage(long timeBudgetMillis);
+
+    /**
+     * Deletes a story and all it's related things (StoryFragments, Bookmark, AuthoredStory and
+     * the images they use) from the database in a single transaction
      * @param id The UUID of the story
      * @return Roughly whether or not the story was deleted
      */
     public boolean deleteStory(UUID id);
 	
     /**
-     * Deletes all fragments with a specific storyID from the database
+     * Deletes all fragments with a specific storyID, with their bookmarks and images, from the database
      * @param storyID The UUID of the story
      * @return Roughly whether or not any fragments have been deleted
      */
@@ -161,7 +276,7 @@ public interface ILocalStorage {
     public boolean deleteImage(UUID imageId);
     
     /**
-     * Deletes a fragment with a specific fragment ID
+     * Deletes a fragment with a specific fragment ID, with its bookmarks and images
       * @param fragmentID The UUID of a fragment
      * @return Roughly whether or not a fragment was deleted
      */
@@ -0,0 +1,36 @@
+/*
+ *        Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ *         Evan DeGraff
+ *
+ *         Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *         this software and associated documentation files (the "Software"), to deal in
+ *         the Software without restriction, including without limitation the rights to
+ *         use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *         the Software, and to permit persons to whom the Software is furnished to do so,
+ *         subject to the following conditions:
+ *
+ *         The above copyright notice and this permission notice shall be included in all
+ *         copies or substantial portions of the Software.
+ *
+ *         THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *         IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *         FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *         COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *         IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *         CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model.Interfaces;
+
+/**
+ *   Interface for receiving the result of an asynchronous storage operation
+ */
+public interface IStorageCallback<T>
+{
+	/**
+	 * Callback for when the operation completes. Runs on the storage thread that
+	 * performed the operation, not the UI thread.
+	 * @param result What the operation returned
+	 */
+	void OnStorageResult(T result);
+}
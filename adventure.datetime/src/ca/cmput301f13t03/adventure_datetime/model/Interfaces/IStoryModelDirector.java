@@ -26,7 +26,11 @@ import ca.cmput301f13t03.adventure_datetime.model.Bookmark;
 import ca.cmput301f13t03.adventure_datetime.model.Comment;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
 import ca.cmput301f13t03.adventure_datetime.model.StoryFragment;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -51,8 +55,9 @@ public interface IStoryModelDirector
 	public void selectFragment(UUID fragmentId);
 
 	/**
-	 * Save a story in the database
-	 * @return Success value
+	 * Save a story in the database. The write is queued, so a write that fails later is only
+	 * logged, and the story stays unsaved until a later save lands.
+	 * @return False if there is no current story, true once the write is queued
 	 */
 	public boolean SaveStory();
 
@@ -72,9 +77,24 @@ public interface IStoryModelDirector
     public void deleteImage(UUID imageId);
 
 	/**
-	 * Save a fragment to the database
+	 * Writes a story with its fragments and images to a bundle file
+	 * @param storyId
+	 * @param bundle File to write
+	 * @param callback Told whether the export worked, may be null
+	 */
+	public void exportStory(UUID storyId, File bundle, IStorageCallback<Boolean> callback);
+
+	/**
+	 * Reads a bundle file into the database, replacing any copy of the story already there
+	 * @param bundle File to read
+	 */
+	public void importStory(File bundle);
+
+	/**
+	 * Save a fragment to the database, along with the current story. The write is queued, so a
+	 * write that fails later is only logged, and the fragment stays unsaved until a later save lands.
 	 * @param fragment
-	 * @return success value
+	 * @return False if there is no current story, true once the write is queued
 	 */
 	public boolean putFragment(StoryFragment fragment);
 
@@ -91,6 +111,33 @@ public interface IStoryModelDirector
 	 */
 	public Story getStory(UUID storyId);
 
+	/**
+	 * Fetch one page of summaries of the local stories on a storage reader
+	 * @param filter Which stories to include
+	 * @param sort The order of the stories
+	 * @param offset Number of stories to skip
+	 * @param limit Maximum number of stories in the page
+	 * @param callback Given the page, empty past the last story, on the reader thread
+	 */
+	public void getStorySummaries(StorySummary.Filter filter, StorySummary.Sort sort, int offset, int limit,
+	                              IStorageCallback<ArrayList<StorySummary>> callback);
+
+	/**
+	 * Search the local stories by title, author, synopsis and fragment content on a storage reader
+	 * @param query The words to search for
+	 * @param filter Which stories to include
+	 * @param callback Given the ids of every matching story, most relevant first, on the reader thread
+	 */
+	public void searchLocal(String query, StorySummary.Filter filter, IStorageCallback<ArrayList<UUID>> callback);
+
+	/**
+	 * Fetch the summaries of the given local stories on a storage reader
+	 * @param storyIds The stories, such as a page of search results
+	 * @param callback Given the summaries in the order of the ids, without stories no longer
+	 *                 stored, on the reader thread
+	 */
+	public void getStorySummaries(List<UUID> storyIds, IStorageCallback<ArrayList<StorySummary>> callback);
+
 	/**
 	 *	Save a bookmark to the database
 	 * @param uuid 
@@ -107,6 +154,19 @@ public interface IStoryModelDirector
 	 */
 	public Bookmark getBookmark(UUID bookmarkId);
 
+	/**
+	 * Writes any buffered reading trail entries, and the bookmarks they imply
+	 */
+	public void flushReadingTrail();
+
+	/**
+	 * Fetch every fragment read in a story
+	 * 
+	 * @param storyId
+	 * @return the fragments read, oldest first
+	 */
+	public List<Bookmark> getReadingTrail(UUID storyId);
+
 	/**
 	 * Uploads current story to the web storage
 	 */
@@ -130,7 +190,8 @@ public interface IStoryModelDirector
 	public void addComment(Comment comment);
 	
 	/**
-	 * Changes a downloaded story to author mode
+	 * Changes a downloaded story to author mode. The copy becomes the current story straight away,
+	 * it is saved in the background and the story listeners are told once it lands.
 	 * @param storyId The UUID of the story
      * @param username The new author name
 	 * @return new UUID for the story
@@ -144,8 +205,14 @@ public interface IStoryModelDirector
 	boolean isAuthored(UUID storyId);
 
 	/**
-	 * Sends a search for stories to the server
+	 * Sends a search for stories to the server. Only the first page of results is loaded.
 	 * @param searchTerm
 	 */
 	public void search(String searchTerm);
+
+	/**
+	 * Loads the next page of the online stories, or of the last search, if there is one
+	 * and it isn't already loading
+	 */
+	public void loadMoreOnlineStories();
 }
@@ -22,6 +22,8 @@
 
 package ca.cmput301f13t03.adventure_datetime.model.Interfaces;
 
+import ca.cmput301f13t03.adventure_datetime.model.StoryGraph;
+
 import java.util.UUID;
 
 /**
@@ -59,6 +61,22 @@ public interface IStoryModelPresenter
      */
     void Subscribe(IAllFragmentsListener allFragmentsListener);
     
+    /**
+     * Listens for edits to the current story as deltas. Nothing is sent on subscribing, so pair
+     * this with an IAllFragmentsListener to get the fragments it starts from.
+     */
+    void Subscribe(IStoryChangeListener storyChangeListener);
+    
+    /**
+     * Listens for new snapshots of the current story's graph
+     */
+    void Subscribe(IStoryGraphListener storyGraphListener);
+    
+    /**
+     * Listens for the progress of stories being downloaded
+     */
+    void Subscribe(IDownloadListener downloadListener);
+    
     /**
      * Listens for changes to the comments for the specified id
      */
@@ -90,6 +108,27 @@ public interface IStoryModelPresenter
      */
     void Unsubscribe(IAllFragmentsListener allFragmentsListener);
     
+    /**
+     * Stop listening for edits to the current story
+     */
+    void Unsubscribe(IStoryChangeListener storyChangeListener);
+    
+    /**
+     * Stop listening for snapshots of the current story's graph
+     */
+    void Unsubscribe(IStoryGraphListener storyGraphListener);
+    
+    /**
+     * Stop listening for the progress of downloads
+     */
+    void Unsubscribe(IDownloadListener downloadListener);
+    
+    /**
+     * Gets the latest snapshot of the current story's graph, safe to read from any thread
+     * @return The snapshot, or null if no story is selected
+     */
+    StoryGraph getStoryGraph();
+    
     /**
      * Stop listening for changes to the comments
      */
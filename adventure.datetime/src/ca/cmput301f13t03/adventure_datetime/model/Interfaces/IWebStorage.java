@@ -82,6 +82,25 @@ public interface IWebStorage {
 	public abstract List<StoryFragment> getFragmentsForStory(UUID storyId, int from, int size)
 			throws Exception;
 
+	/**
+	 * Gets fragments for a given story without their images.
+	 * Will return up to size fragments starting at from.
+	 * @param storyId ID of the story to retrieve fragments for
+	 * @param from the start index to return fragments from
+	 * @param size the amount of fragments to try to return
+	 * @return List of StoryFragments, call loadFragmentImages to fill in their media
+	 * @throws Exception, connection errors, etc. See JestClient
+	 */
+	public abstract List<StoryFragment> getFragmentPage(UUID storyId, int from, int size)
+			throws Exception;
+
+	/**
+	 * Loads the images of the fragments, asking for many at once.
+	 * @param fragments Fragments whose media ids should be resolved to images
+	 * @throws Exception, connection errors, etc. See JestClient
+	 */
+	public abstract void loadFragmentImages(List<StoryFragment> fragments) throws Exception;
+
 	/**
 	 * Gets comments for the targetId. May be a StoryId or FragmentId.
 	 * Will return up to size comments starting at from.
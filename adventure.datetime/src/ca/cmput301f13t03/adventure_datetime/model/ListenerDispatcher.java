@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delivers model notifications to listeners on the main thread, at most once per frame.
+ *
+ * Notifications can be dispatched from any thread. Until its frame comes, a listener keeps at
+ * most one notification of each kind, so a burst of changes costs one callback. Newer
+ * notifications replace older ones unless the event merges them. A listener that takes longer
+ * than a frame to handle its notifications sits out the following frames for as long as it took,
+ * while what is sent to it keeps merging.
+ */
+public class ListenerDispatcher {
+	private static final String TAG = "ListenerDispatcher";
+	static final long FRAME_MILLIS = 16;
+
+	/**
+	 * A notification for one kind of listener
+	 */
+	public static abstract class Event<L> {
+		/**
+		 * Calls the listener, on the main thread
+		 */
+		protected abstract void deliver(L listener);
+
+		/**
+		 * Combines this event with a newer one of the same kind for the same listener that
+		 * arrived before this one was delivered. By default the newer event wins.
+		 *
+		 * @return The event to deliver in place of both
+		 */
+		protected Event<L> merge(Event<L> newer) {
+			return newer;
+		}
+	}
+
+	private final Handler mHandler;
+	private final Object mLock = new Object();
+	/**
+	 * Events waiting for each listener by kind, listeners in the order they were first sent to
+	 */
+	private final Map<ListenerKey, LinkedHashMap<Object, Event<Object>>> mPending =
+			new LinkedHashMap<ListenerKey, LinkedHashMap<Object, Event<Object>>>();
+	/**
+	 * When listeners that ran over their frame may be called again
+	 */
+	private final Map<Object, Long> mResumeAt = new IdentityHashMap<Object, Long>();
+	/**
+	 * Listeners still to be called this frame, cancelling one takes it out
+	 */
+	private final Set<Object> mDelivering = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	private final List<Runnable> mFrameTasks = new ArrayList<Runnable>();
+	private boolean mScheduled;
+	private long mLastFrame;
+
+	private final Runnable mFrame = new Runnable() {
+		@Override
+		public void run() {
+			runFrame();
+		}
+	};
+
+	public ListenerDispatcher() {
+		this(Looper.getMainLooper());
+	}
+
+	ListenerDispatcher(Looper looper) {
+		mHandler = new Handler(looper);
+	}
+
+	/**
+	 * Sends an event to each of the listeners at the next frame
+	 *
+	 * @param listeners Listeners to call
+	 * @param kind What the event is about, events of the same kind for a listener are merged
+	 * @param event The event
+	 */
+	public <L> void dispatch(Iterable<? extends L> listeners, Object kind, Event<L> event) {
+		synchronized (mLock) {
+			for(L listener : listeners) {
+				enqueue(listener, kind, event);
+			}
+			schedule();
+		}
+	}
+
+	/**
+	 * Sends an event to one listener at the next frame
+	 *
+	 * @param listener Listener to call
+	 * @param kind What the event is about, events of the same kind for a listener are merged
+	 * @param event The event
+	 */
+	public <L> void dispatch(L listener, Object kind, Event<L> event) {
+		synchronized (mLock) {
+			enqueue(listener, kind, event);
+			schedule();
+		}
+	}
+
+	/**
+	 * Runs a task at the start of the next frame, before its events are delivered. Lets callers
+	 * that coalesce changes themselves dispatch them once per frame.
+	 */
+	public void runBeforeFrame(Runnable task) {
+		synchronized (mLock) {
+			mFrameTasks.add(task);
+			schedule();
+		}
+	}
+
+	/**
+	 * Drops everything waiting for a listener, for when it unsubscribes. Takes effect even in
+	 * the middle of a frame, so a listener is never called after this returns on the main thread.
+	 */
+	public void cancel(Object listener) {
+		synchronized (mLock) {
+			mPending.remove(new ListenerKey(listener));
+			mResumeAt.remove(listener);
+			mDelivering.remove(listener);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <L> void enqueue(L listener, Object kind, Event<L> event) {
+		ListenerKey key = new ListenerKey(listener);
+		LinkedHashMap<Object, Event<Object>> events = mPending.get(key);
+		if(events == null) {
+			events = new LinkedHashMap<Object, Event<Object>>();
+			mPending.put(key, events);
+		}
+		Event<Object> pending = events.get(kind);
+		Event<Object> newer = (Event<Object>) event;
+		events.put(kind, pending == null ? newer : pending.merge(newer));
+	}
+
+	private void schedule() {
+		if(mScheduled)
+			return;
+		mScheduled = true;
+		long delay = mLastFrame + FRAME_MILLIS - SystemClock.uptimeMillis();
+		mHandler.postDelayed(mFrame, Math.max(0, delay));
+	}
+
+	private void runFrame() {
+		long frameStart = SystemClock.uptimeMillis();
+		List<Runnable> tasks;
+		synchronized (mLock) {
+			mScheduled = false;
+			mLastFrame = frameStart;
+			tasks = new ArrayList<Runnable>(mFrameTasks);
+			mFrameTasks.clear();
+		}
+
+		for(Runnable task : tasks) {
+			task.run();
+		}
+
+		List<Object> listeners = new ArrayList<Object>();
+		List<LinkedHashMap<Object, Event<Object>>> due = new ArrayList<LinkedHashMap<Object, Event<Object>>>();
+		synchronized (mLock) {
+			Iterator<Map.Entry<ListenerKey, LinkedHashMap<Object, Event<Object>>>> entries = mPending.entrySet().iterator();
+			while(entries.hasNext()) {
+				Map.Entry<ListenerKey, LinkedHashMap<Object, Event<Object>>> entry = entries.next();
+				Object listener = entry.getKey().listener;
+				Long resumeAt = mResumeAt.get(listener);
+				if(resumeAt != null) {
+					if(resumeAt > frameStart)
+						continue;
+					mResumeAt.remove(listener);
+				}
+				listeners.add(listener);
+				due.add(entry.getValue());
+				mDelivering.add(listener);
+				entries.remove();
+			}
+			// forget listeners that are done sitting out but got nothing since
+			Iterator<Long> resumes = mResumeAt.values().iterator();
+			while(resumes.hasNext()) {
+				if(resumes.next() <= frameStart)
+					resumes.remove();
+			}
+		}
+
+		for(int i = 0; i < listeners.size(); i++) {
+			Object listener = listeners.get(i);
+			long start = SystemClock.uptimeMillis();
+			for(Event<Object> event : due.get(i).values()) {
+				// an earlier callback may have unsubscribed it
+				if(!isDelivering(listener))
+					break;
+				try {
+					event.deliver(listener);
+				} catch(RuntimeException e) {
+					Log.e(TAG, "Listener " + listener + " failed", e);
+				}
+			}
+			long elapsed = SystemClock.uptimeMillis() - start;
+			synchronized (mLock) {
+				if(mDelivering.remove(listener) && elapsed > FRAME_MILLIS)
+					mResumeAt.put(listener, start + 2 * elapsed);
+			}
+		}
+
+		synchronized (mLock) {
+			if(!mPending.isEmpty() || !mFrameTasks.isEmpty())
+				schedule();
+		}
+	}
+
+	private boolean isDelivering(Object listener) {
+		synchronized (mLock) {
+			return mDelivering.contains(listener);
+		}
+	}
+
+	/**
+	 * Keys listeners by identity, whatever their equals says
+	 */
+	private static final class ListenerKey {
+		final Object listener;
+
+		ListenerKey(Object listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(listener);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof ListenerKey && ((ListenerKey) other).listener == listener;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+/**
+ * What one run of {@link StoryDB#collectGarbage(long)} reclaimed
+ */
+public class MaintenanceReport {
+
+	int imagesDeleted;
+	int filesDeleted;
+	long bytesReclaimed;
+	boolean vacuumed;
+	boolean complete;
+
+	/**
+	 * @return Number of StoryImage rows no story or fragment referenced
+	 */
+	public int getImagesDeleted() {
+		return imagesDeleted;
+	}
+
+	/**
+	 * @return Number of image files deleted from the image store
+	 */
+	public int getFilesDeleted() {
+		return filesDeleted;
+	}
+
+	/**
+	 * @return Bytes freed on disk, from image files and from shrinking the database
+	 */
+	public long getBytesReclaimed() {
+		return bytesReclaimed;
+	}
+
+	/**
+	 * @return Whether the database was vacuumed
+	 */
+	public boolean isVacuumed() {
+		return vacuumed;
+	}
+
+	/**
+	 * @return Whether every step ran within the time budget
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	@Override
+	public String toString() {
+		return imagesDeleted + " images and " + filesDeleted + " files deleted, " + bytesReclaimed
+				+ " bytes reclaimed" + (vacuumed ? ", vacuumed" : "") + (complete ? "" : ", out of time");
+	}
+}
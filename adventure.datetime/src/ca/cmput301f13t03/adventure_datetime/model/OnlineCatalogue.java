@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.os.SystemClock;
+import android.util.Log;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IWebStorage;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The online stories, or the results of one search on the server, loaded a page at a time.
+ *
+ * Pages are only fetched when asked for, so a list can load the next one as it scrolls near its
+ * end. The page size follows how long pages take to arrive: quick pages grow it so fewer round
+ * trips are made, slow ones shrink it so the next stories show up sooner.
+ *
+ * Everything loaded so far is kept as an unmodifiable snapshot, replaced with every page, so it
+ * can be handed to listeners while more pages come in.
+ */
+public class OnlineCatalogue {
+	private static final String TAG = "OnlineCatalogue";
+	static final int INITIAL_PAGE_SIZE = 10;
+	static final int MIN_PAGE_SIZE = 5;
+	static final int MAX_PAGE_SIZE = 100;
+	/**
+	 * How long a page should take to arrive
+	 */
+	static final long TARGET_PAGE_MILLIS = 400;
+
+	private final IWebStorage mWebStorage;
+	private final String mQuery;
+	private final AtomicBoolean mLoading = new AtomicBoolean();
+	private volatile Map<UUID, Story> mStories;
+	private volatile boolean mExhausted;
+	private int mOffset;
+	private int mPageSize = INITIAL_PAGE_SIZE;
+
+	/**
+	 * @param webStorage Where the stories are fetched from
+	 * @param query Search to page through, or null for every story
+	 */
+	public OnlineCatalogue(IWebStorage webStorage, String query) {
+		mWebStorage = webStorage;
+		mQuery = query;
+	}
+
+	/**
+	 * Fetches the next page, blocking until it arrives. Does nothing if another page is still
+	 * being fetched or the last one was already loaded.
+	 *
+	 * @return True if a page was fetched
+	 * @throws Exception If the server couldn't be reached, the page can be asked for again
+	 */
+	public boolean loadNextPage() throws Exception {
+		if(mExhausted || !mLoading.compareAndSet(false, true))
+			return false;
+
+		try {
+			int size = mPageSize;
+			long start = SystemClock.uptimeMillis();
+			List<Story> page = mQuery != null
+					? mWebStorage.queryStories(mQuery, mOffset, size)
+					: mWebStorage.getStories(mOffset, size);
+			long elapsed = SystemClock.uptimeMillis() - start;
+
+			Map<UUID, Story> stories = mStories != null
+					? new LinkedHashMap<UUID, Story>(mStories)
+					: new LinkedHashMap<UUID, Story>();
+			for(Story story : page) {
+				stories.put(story.getId(), story);
+			}
+			mStories = Collections.unmodifiableMap(stories);
+			mOffset += page.size();
+			mExhausted = page.size() < size;
+			mPageSize = adaptPageSize(size, elapsed);
+			Log.v(TAG, page.size() + " stories in " + elapsed + "ms, next page " + mPageSize);
+			return true;
+		} finally {
+			// a failed first page still leaves something to show
+			if(mStories == null)
+				mStories = Collections.emptyMap();
+			mLoading.set(false);
+		}
+	}
+
+	/**
+	 * Picks the size of the next page from how long the last one took
+	 *
+	 * @param size Size of the last page
+	 * @param elapsedMillis How long it took to arrive
+	 * @return The size of the next page
+	 */
+	static int adaptPageSize(int size, long elapsedMillis) {
+		if(elapsedMillis < TARGET_PAGE_MILLIS / 2)
+			size *= 2;
+		else if(elapsedMillis > TARGET_PAGE_MILLIS)
+			size /= 2;
+		return Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, size));
+	}
+
+	/**
+	 * Gets the stories loaded so far, in the order the server sent them
+	 *
+	 * @return Unmodifiable snapshot of the stories, or null until the first page is done
+	 */
+	public Map<UUID, Story> getStories() {
+		return mStories;
+	}
+
+	/**
+	 * @return The search being paged through, or null for every story
+	 */
+	public String getQuery() {
+		return mQuery;
+	}
+
+	public boolean isExhausted() {
+		return mExhausted;
+	}
+
+	public boolean isLoading() {
+		return mLoading.get();
+	}
+
+	public int getPageSize() {
+		return mPageSize;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Collects the fragments a reader walks through and writes them to the reading trail in batches.
+ *
+ * Choices only touch memory. The buffer is flushed on a timer after the first unwritten entry, or
+ * straight away through {@link #flush()} when the reader leaves.
+ */
+public class ReadingTrailBuffer {
+	private static final String TAG = "ReadingTrailBuffer";
+	private static final long FLUSH_DELAY_MILLIS = 5000;
+
+	private final AsyncLocalStorage mStorage;
+	private final Handler mHandler;
+	private final Object mLock = new Object();
+	private List<Bookmark> mPending = new ArrayList<Bookmark>();
+
+	private final Runnable mFlush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	public ReadingTrailBuffer(AsyncLocalStorage storage) {
+		mStorage = storage;
+		mHandler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Adds an entry to the trail, scheduling a flush if none is pending
+	 */
+	public void record(Bookmark entry) {
+		synchronized(mLock) {
+			mPending.add(entry);
+			if(mPending.size() == 1)
+				mHandler.postDelayed(mFlush, FLUSH_DELAY_MILLIS);
+		}
+	}
+
+	/**
+	 * Queues every unwritten entry on the storage writer as one transaction
+	 */
+	public void flush() {
+		final List<Bookmark> batch;
+		synchronized(mLock) {
+			mHandler.removeCallbacks(mFlush);
+			if(mPending.isEmpty())
+				return;
+			batch = mPending;
+			mPending = new ArrayList<Bookmark>();
+		}
+
+		mStorage.appendReadingTrail(batch, new IStorageCallback<Boolean>() {
+			@Override
+			public void OnStorageResult(Boolean result) {
+				if(!result)
+					Log.w(TAG, "Failed to write " + batch.size() + " reading trail entries");
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the unwritten entries for a story, in the order they were read
+	 */
+	public List<Bookmark> getPending(UUID storyId) {
+		List<Bookmark> pending = new ArrayList<Bookmark>();
+		synchronized(mLock) {
+			for(Bookmark entry : mPending) {
+				if(entry.getStoryID().equals(storyId))
+					pending.add(entry);
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Drops the unwritten entries for a story so a later flush can't bring its bookmark back
+	 */
+	public void discard(UUID storyId) {
+		synchronized(mLock) {
+			Iterator<Bookmark> entries = mPending.iterator();
+			while(entries.hasNext()) {
+				if(entries.next().getStoryID().equals(storyId))
+					entries.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
+
+/**
+ * Runs the storage garbage collector once the UI goes idle, at most once a day.
+ *
+ * The collection itself runs on the storage writer so no save can land while images are being
+ * marked. It is given a time budget and the next launch simply tries again if it runs out.
+ */
+public class StorageMaintenance implements MessageQueue.IdleHandler {
+
+	private static final String TAG = "StorageMaintenance";
+	private static final String PREFERENCES_NAME = "StorageMaintenance";
+	private static final String PREFERENCE_LAST_RUN = "LastRun";
+
+	private static final long INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+	private static final long TIME_BUDGET_MILLIS = 2000;
+
+	private final SharedPreferences mPreferences;
+	private final AsyncLocalStorage mStorage;
+
+	public StorageMaintenance(Context context, AsyncLocalStorage storage) {
+		mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+		mStorage = storage;
+	}
+
+	/**
+	 * Waits for the main thread to go idle, then queues a collection if one is due
+	 */
+	public void scheduleWhenIdle() {
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				Looper.myQueue().addIdleHandler(StorageMaintenance.this);
+			}
+		});
+	}
+
+	@Override
+	public boolean queueIdle() {
+		if(System.currentTimeMillis() - mPreferences.getLong(PREFERENCE_LAST_RUN, 0) < INTERVAL_MILLIS)
+			return false;
+
+		mStorage.collectGarbage(TIME_BUDGET_MILLIS, new IStorageCallback<MaintenanceReport>() {
+			@Override
+			public void OnStorageResult(MaintenanceReport report) {
+				Log.i(TAG, "Storage maintenance: " + report);
+				if(report.isComplete())
+					mPreferences.edit().putLong(PREFERENCE_LAST_RUN, System.currentTimeMillis()).commit();
+			}
+		});
+		// Only needed once per launch
+		return false;
+	}
+}
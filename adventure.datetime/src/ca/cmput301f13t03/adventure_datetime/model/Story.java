@@ -37,6 +37,16 @@ import java.util.UUID;
  */
 public class Story {
 
+	/**
+	 * Bits of {@link #getChanges()}, one for each column of the Story that can change
+	 */
+	public static final int CHANGED_TITLE = 1;
+	public static final int CHANGED_AUTHOR = 1 << 1;
+	public static final int CHANGED_SYNOPSIS = 1 << 2;
+	public static final int CHANGED_HEAD_FRAGMENT = 1 << 3;
+	public static final int CHANGED_TIMESTAMP = 1 << 4;
+	public static final int CHANGED_THUMBNAIL = 1 << 5;
+
 	/**
 	 * The GUID of the head fragment of the Story
 	 */
@@ -75,6 +85,14 @@ public class Story {
 	 * The collection of fragment _GUIDs attached to the story
 	 */
 	private HashSet<UUID> fragmentIDs;
+	/**
+	 * Whether the Story matches a row in the local database. False for new and downloaded stories.
+	 */
+	private transient boolean saved;
+	/**
+	 * The CHANGED_ bits of every field set since the Story was last loaded or saved
+	 */
+	private transient int changes;
 
     /**
      * Creates a new Story, used by @link{StoryDB}
@@ -227,6 +245,7 @@ public class Story {
      */
 	public void setId(UUID storyId) {
 		this.id = storyId;
+		this.saved = false;
 	}
 
     /**
@@ -244,6 +263,8 @@ public class Story {
      * @param title New title of the Story
      */
 	public void setTitle(String title) {
+		if(!equal(this.title, title))
+			changes |= CHANGED_TITLE;
 		this.title = title;
 	}
 
@@ -262,6 +283,8 @@ public class Story {
      * @param synopsis The new synopsis
      */
 	public void setSynopsis(String synopsis) {
+		if(!equal(this.synopsis, synopsis))
+			changes |= CHANGED_SYNOPSIS;
 		this.synopsis = synopsis;
 	}
 
@@ -279,6 +302,8 @@ public class Story {
      * @param headFragmentId New UUID of the head StoryFragment
      */
 	public void setHeadFragmentId(UUID headFragmentId) {
+		if(!equal(this.headFragmentId, headFragmentId))
+			changes |= CHANGED_HEAD_FRAGMENT;
 		this.headFragmentId = headFragmentId;
 		addFragment(headFragmentId);
 	}
@@ -306,9 +331,9 @@ public class Story {
 	 */
 	public void setThumbnail(String bitmap) {
 		if (bitmap == null)
-			this.thumbnail = null;
+			removeThumbnail();
 		else if (this.thumbnail == null)
-			this.thumbnail = new Image(this.id, bitmap);
+			replaceThumbnail(new Image(this.id, bitmap));
 		else
 			this.thumbnail.setBitmap(bitmap);
 	}
@@ -319,12 +344,23 @@ public class Story {
 	 */
 	public void setThumbnail(Bitmap bitmap) {
 		if (bitmap == null)
-			this.thumbnail = null;
+			removeThumbnail();
 		else if (this.thumbnail == null)
-			this.thumbnail = new Image(this.id, bitmap);
+			replaceThumbnail(new Image(this.id, bitmap));
 		else
 			this.thumbnail.setBitmap(bitmap);
 	}
+
+	private void removeThumbnail() {
+		if (this.thumbnail != null)
+			changes |= CHANGED_THUMBNAIL;
+		this.thumbnail = null;
+	}
+
+	private void replaceThumbnail(Image thumbnail) {
+		changes |= CHANGED_THUMBNAIL;
+		this.thumbnail = thumbnail;
+	}
 	
 	/**
 	 * Gets the thumbnail image object
@@ -374,8 +410,10 @@ public class Story {
      * @param id UUID of new StoryFragment
      */
 	public void addFragment(UUID id) {
-		if (this.fragmentIDs.isEmpty())
+		if (this.fragmentIDs.isEmpty() && !equal(this.headFragmentId, id)) {
+			changes |= CHANGED_HEAD_FRAGMENT;
 			this.headFragmentId = id;
+		}
 		this.fragmentIDs.add(id);
 	}
 
@@ -384,9 +422,7 @@ public class Story {
      * @param frag StoryFragment to add to set
      */
 	public void addFragment(StoryFragment frag) {
-		if (this.fragmentIDs.isEmpty())
-			this.headFragmentId = frag.getFragmentID();
-		this.fragmentIDs.add(frag.getFragmentID());
+		addFragment(frag.getFragmentID());
 	}
 
     /**
@@ -428,6 +464,8 @@ public class Story {
      * @param timestamp the new timestamp in Unix time
      */
 	public void setTimestamp(long timestamp) {
+		if(this.timestamp != timestamp)
+			changes |= CHANGED_TIMESTAMP;
 		this.timestamp = timestamp;
 	}
 
@@ -435,7 +473,7 @@ public class Story {
      * Updates the timestamp to right now
      */
 	public void updateTimestamp() {
-		this.timestamp = Calendar.getInstance().getTimeInMillis()/1000;
+		setTimestamp(Calendar.getInstance().getTimeInMillis()/1000);
 	}
 
     /**
@@ -461,9 +499,101 @@ public class Story {
      * @param author The new Story
      */
 	public void setAuthor(String author) {
+		if(!equal(this.author, author))
+			changes |= CHANGED_AUTHOR;
 		this.author = author;
 	}
 
+    /**
+     * Checks whether the Story or its thumbnail has to be written to the local database
+     *
+     * @return True if the Story is new, downloaded, or changed since it was last loaded or saved
+     */
+	public boolean isDirty() {
+		return !saved || changes != 0 || (thumbnail != null && thumbnail.isDirty());
+	}
+
+    /**
+     * Checks whether the Story has a row in the local database
+     *
+     * @return True if the Story was loaded from or saved to the local database
+     */
+	public boolean isSaved() {
+		return saved;
+	}
+
+    /**
+     * Gets the columns changed since the Story was last loaded or saved
+     *
+     * @return The CHANGED_ bits of the changed columns
+     */
+	public int getChanges() {
+		return changes;
+	}
+
+    /**
+     * Marks the Story as matching its row in the local database, used by @link{StoryDB}
+     */
+	public void markSaved() {
+		this.saved = true;
+		this.changes = 0;
+	}
+
+    /**
+     * Copies the row, change bits and thumbnail of the Story for a write on another thread,
+     * used by @link{StoryManager}
+     *
+     * @return A copy that shares nothing the Story's setters change
+     */
+	Story copyForSave() {
+		Story copy = new Story();
+		copy.headFragmentId = headFragmentId;
+		copy.id = id;
+		copy.timestamp = timestamp;
+		copy.author = author;
+		copy.title = title;
+		copy.synopsis = synopsis;
+		copy.thumbnail = thumbnail == null ? null : thumbnail.copyForSave();
+		copy.tags = tags == null ? null : new HashSet<String>(tags);
+		copy.fragmentIDs = fragmentIDs == null ? null : new HashSet<UUID>(fragmentIDs);
+		copy.saved = saved;
+		copy.changes = changes;
+		return copy;
+	}
+
+    /**
+     * Marks the Story saved up to a copy that @link{StoryDB} wrote. Columns set again since
+     * the copy was taken keep their change bits.
+     *
+     * @param written The copy from {@link #copyForSave()} after it was saved
+     */
+	void markSaved(Story written) {
+		if (!written.saved || !equal(id, written.id))
+			return;
+		this.saved = true;
+		if (equal(title, written.title))
+			changes &= ~CHANGED_TITLE;
+		if (equal(author, written.author))
+			changes &= ~CHANGED_AUTHOR;
+		if (equal(synopsis, written.synopsis))
+			changes &= ~CHANGED_SYNOPSIS;
+		if (equal(headFragmentId, written.headFragmentId))
+			changes &= ~CHANGED_HEAD_FRAGMENT;
+		if (timestamp == written.timestamp)
+			changes &= ~CHANGED_TIMESTAMP;
+		if (thumbnail == null || written.thumbnail == null) {
+			if (thumbnail == written.thumbnail)
+				changes &= ~CHANGED_THUMBNAIL;
+		} else if (thumbnail.getId().equals(written.thumbnail.getId())) {
+			changes &= ~CHANGED_THUMBNAIL;
+			thumbnail.markStored(written.thumbnail);
+		}
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
     @Override
     public boolean equals(Object o) {
         if (this == o) 
@@ -497,7 +627,7 @@ public class Story {
     }
 
 	public Story newId() {
-		this.id = UUID.randomUUID();
+		setId(UUID.randomUUID());
 		getThumbnail().setId(UUID.randomUUID());
 		return this;
 	}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Archive format for moving a whole story, with its fragments and images, between devices.
+ *
+ * A bundle is a ZIP archive. It starts with the story header, and every image comes before the
+ * first fragment that uses it, so both sides work through it one entry at a time and never hold
+ * more than one fragment in memory. Images are stored as their raw JPEG bytes.
+ */
+public final class StoryBundle {
+
+	public static final String FILE_EXTENSION = ".adventure";
+
+	private static final int FORMAT_VERSION = 1;
+	private static final String HEADER_ENTRY = "story.json";
+	private static final String IMAGE_PREFIX = "images/";
+	private static final String FRAGMENT_PREFIX = "fragments/";
+	private static final String FRAGMENT_SUFFIX = ".json";
+	private static final String CHARSET = "UTF-8";
+
+	private StoryBundle() {
+	}
+
+	/**
+	 * The first entry of every bundle
+	 */
+	private static class Header {
+		int version;
+		Story story;
+		UUID thumbnail;
+	}
+
+	/**
+	 * Writes a bundle entry by entry. The stream given to it is left open.
+	 */
+	public static class Writer {
+
+		private final ZipOutputStream mZip;
+		private final Gson mGson = new Gson();
+		private final Set<UUID> mImages = new HashSet<UUID>();
+
+		public Writer(OutputStream out) {
+			mZip = new ZipOutputStream(new BufferedOutputStream(out));
+		}
+
+		/**
+		 * Writes the story header. Must be written first.
+		 */
+		public void writeStory(Story story) throws IOException {
+			Header header = new Header();
+			header.version = FORMAT_VERSION;
+			header.story = story;
+			header.thumbnail = story.getThumbnail() == null ? null : story.getThumbnail().getId();
+
+			mZip.setLevel(Deflater.DEFAULT_COMPRESSION);
+			mZip.putNextEntry(new ZipEntry(HEADER_ENTRY));
+			writeJson(header);
+		}
+
+		/**
+		 * Checks if an image was already written, since fragments can share images
+		 */
+		public boolean hasImage(UUID id) {
+			return mImages.contains(id);
+		}
+
+		/**
+		 * Copies the bytes of an image into the bundle
+		 *
+		 * @param id The id of the image
+		 * @param in The JPEG bytes, read to the end but not closed
+		 */
+		public void writeImage(UUID id, InputStream in) throws IOException {
+			// JPEG doesn't deflate any further, so don't spend time trying
+			mZip.setLevel(Deflater.NO_COMPRESSION);
+			mZip.putNextEntry(new ZipEntry(IMAGE_PREFIX + id));
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = in.read(buffer)) != -1) {
+				mZip.write(buffer, 0, count);
+			}
+			mZip.closeEntry();
+			mImages.add(id);
+		}
+
+		/**
+		 * Writes a fragment. Its images have to be written before it.
+		 */
+		public void writeFragment(StoryFragment fragment) throws IOException {
+			fragment.updateMediaIds();
+			mZip.setLevel(Deflater.DEFAULT_COMPRESSION);
+			mZip.putNextEntry(new ZipEntry(FRAGMENT_PREFIX + fragment.getFragmentID() + FRAGMENT_SUFFIX));
+			writeJson(fragment);
+		}
+
+		/**
+		 * Finishes the archive and flushes it, without closing the underlying stream
+		 */
+		public void finish() throws IOException {
+			mZip.finish();
+			mZip.flush();
+		}
+
+		private void writeJson(Object object) throws IOException {
+			OutputStreamWriter writer = new OutputStreamWriter(mZip, CHARSET);
+			mGson.toJson(object, writer);
+			writer.flush();
+			mZip.closeEntry();
+		}
+	}
+
+	/**
+	 * Reads a bundle entry by entry. The stream given to it is left open.
+	 */
+	public static class Reader {
+
+		private final ZipInputStream mZip;
+		private final Gson mGson = new Gson();
+		private UUID mThumbnailId;
+		private UUID mImageId;
+		private boolean mImage;
+
+		public Reader(InputStream in) {
+			mZip = new ZipInputStream(new BufferedInputStream(in));
+		}
+
+		/**
+		 * Reads the story header, which has to be the first entry
+		 *
+		 * @return The story without its thumbnail or fragments, which follow it
+		 *
+		 * @throws IOException If the stream isn't a bundle this version can read
+		 */
+		public Story readStory() throws IOException {
+			ZipEntry entry = mZip.getNextEntry();
+			if(entry == null || !HEADER_ENTRY.equals(entry.getName()))
+				throw new IOException("Not a story bundle");
+
+			Header header = readJson(Header.class);
+			if(header == null || header.story == null)
+				throw new IOException("Story bundle has no story");
+			if(header.version > FORMAT_VERSION)
+				throw new IOException("Story bundle version " + header.version + " is newer than "
+						+ FORMAT_VERSION);
+			mThumbnailId = header.thumbnail;
+			return header.story;
+		}
+
+		/**
+		 * Gets the id of the story's thumbnail, which is one of the images in the bundle
+		 *
+		 * @return The image id, or null if the story has no thumbnail
+		 */
+		public UUID getThumbnailId() {
+			return mThumbnailId;
+		}
+
+		/**
+		 * Moves to the next image or fragment, skipping entries this version doesn't know
+		 *
+		 * @return False once the bundle is finished
+		 */
+		public boolean next() throws IOException {
+			ZipEntry entry;
+			while((entry = mZip.getNextEntry()) != null) {
+				String name = entry.getName();
+				mImage = name.startsWith(IMAGE_PREFIX);
+				if(mImage) {
+					mImageId = parseId(name.substring(IMAGE_PREFIX.length()));
+					return true;
+				}
+				if(name.startsWith(FRAGMENT_PREFIX) && name.endsWith(FRAGMENT_SUFFIX))
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Checks whether the current entry is an image or a fragment
+		 */
+		public boolean isImage() {
+			return mImage;
+		}
+
+		/**
+		 * Gets the id of the current image
+		 */
+		public UUID getImageId() {
+			return mImageId;
+		}
+
+		/**
+		 * Gets the bytes of the current image. The stream ends with the entry and shouldn't be closed.
+		 */
+		public InputStream getImage() {
+			return mZip;
+		}
+
+		/**
+		 * Reads the current fragment
+		 *
+		 * @return The fragment, with the ids of its images but not the images themselves
+		 */
+		public StoryFragment readFragment() throws IOException {
+			StoryFragment fragment = readJson(StoryFragment.class);
+			if(fragment == null || fragment.getFragmentID() == null)
+				throw new IOException("Story bundle has an empty fragment");
+			return fragment;
+		}
+
+		private <T> T readJson(Class<T> type) throws IOException {
+			try {
+				return mGson.fromJson(new InputStreamReader(mZip, CHARSET), type);
+			} catch (JsonParseException e) {
+				throw new IOException("Malformed story bundle", e);
+			}
+		}
+
+		private static UUID parseId(String id) throws IOException {
+			try {
+				return UUID.fromString(id);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Malformed story bundle entry " + id, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The changes made to one story, coalesced so each fragment and choice appears at most once.
+ *
+ * A fragment added and then removed is dropped, one added and then updated is only added, and a
+ * choice added and then removed cancels out. Choices are copied when recorded, so a choice whose
+ * target or text changed shows up as the old one removed and the new one added.
+ *
+ * StoryManager fills a set as changes happen and hands it to listeners once per frame, after which
+ * it is never changed again. Sets a listener hasn't received yet are merged into a new one.
+ */
+public class StoryChangeSet {
+
+	private final UUID mStoryId;
+	private final Map<UUID, StoryFragment> mAdded = new LinkedHashMap<UUID, StoryFragment>();
+	private final Map<UUID, StoryFragment> mUpdated = new LinkedHashMap<UUID, StoryFragment>();
+	private final Set<UUID> mRemoved = new LinkedHashSet<UUID>();
+	private final List<ChoiceChange> mAddedChoices = new ArrayList<ChoiceChange>();
+	private final List<ChoiceChange> mRemovedChoices = new ArrayList<ChoiceChange>();
+	private boolean mStoryChanged;
+
+	/**
+	 * A choice added to or removed from a fragment
+	 */
+	public static final class ChoiceChange {
+		private final UUID mOrigin;
+		private final Choice mChoice;
+
+		ChoiceChange(UUID origin, Choice choice) {
+			mOrigin = origin;
+			mChoice = new Choice(choice.getText(), choice.getTarget());
+		}
+
+		/**
+		 * @return Id of the fragment the choice belongs to
+		 */
+		public UUID getOrigin() {
+			return mOrigin;
+		}
+
+		/**
+		 * @return Copy of the choice as it was when the change was recorded
+		 */
+		public Choice getChoice() {
+			return mChoice;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof ChoiceChange)) return false;
+			ChoiceChange other = (ChoiceChange) o;
+			return mOrigin.equals(other.mOrigin)
+					&& equal(mChoice.getTarget(), other.mChoice.getTarget())
+					&& equal(mChoice.getText(), other.mChoice.getText());
+		}
+
+		@Override
+		public int hashCode() {
+			int result = mOrigin.hashCode();
+			result = 31 * result + (mChoice.getTarget() != null ? mChoice.getTarget().hashCode() : 0);
+			result = 31 * result + (mChoice.getText() != null ? mChoice.getText().hashCode() : 0);
+			return result;
+		}
+
+		private static boolean equal(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	public StoryChangeSet(UUID storyId) {
+		mStoryId = storyId;
+	}
+
+	public UUID getStoryId() {
+		return mStoryId;
+	}
+
+	public Collection<StoryFragment> getAddedFragments() {
+		return Collections.unmodifiableCollection(mAdded.values());
+	}
+
+	public Collection<StoryFragment> getUpdatedFragments() {
+		return Collections.unmodifiableCollection(mUpdated.values());
+	}
+
+	public Set<UUID> getRemovedFragmentIds() {
+		return Collections.unmodifiableSet(mRemoved);
+	}
+
+	public List<ChoiceChange> getAddedChoices() {
+		return Collections.unmodifiableList(mAddedChoices);
+	}
+
+	public List<ChoiceChange> getRemovedChoices() {
+		return Collections.unmodifiableList(mRemovedChoices);
+	}
+
+	/**
+	 * @return True if the story's own details, such as its title or head fragment, changed
+	 */
+	public boolean isStoryChanged() {
+		return mStoryChanged;
+	}
+
+	/**
+	 * @return True if fragments were added or removed, which changes the shape of the story
+	 */
+	public boolean isFragmentSetChanged() {
+		return !mAdded.isEmpty() || !mRemoved.isEmpty();
+	}
+
+	public boolean isEmpty() {
+		return !mStoryChanged && mAdded.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty()
+				&& mAddedChoices.isEmpty() && mRemovedChoices.isEmpty();
+	}
+
+	void fragmentAdded(StoryFragment fragment) {
+		UUID id = fragment.getFragmentID();
+		if(mRemoved.remove(id))
+			mUpdated.put(id, fragment);
+		else
+			mAdded.put(id, fragment);
+	}
+
+	void fragmentUpdated(StoryFragment fragment) {
+		UUID id = fragment.getFragmentID();
+		if(mAdded.containsKey(id))
+			mAdded.put(id, fragment);
+		else
+			mUpdated.put(id, fragment);
+	}
+
+	void fragmentRemoved(UUID id) {
+		removeChoicesFrom(mAddedChoices, id);
+		removeChoicesFrom(mRemovedChoices, id);
+		mUpdated.remove(id);
+		if(mAdded.remove(id) == null)
+			mRemoved.add(id);
+	}
+
+	void choiceAdded(UUID origin, Choice choice) {
+		ChoiceChange change = new ChoiceChange(origin, choice);
+		if(!mRemovedChoices.remove(change))
+			mAddedChoices.add(change);
+	}
+
+	void choiceRemoved(UUID origin, Choice choice) {
+		ChoiceChange change = new ChoiceChange(origin, choice);
+		if(!mAddedChoices.remove(change))
+			mRemovedChoices.add(change);
+	}
+
+	void storyChanged() {
+		mStoryChanged = true;
+	}
+
+	/**
+	 * Combines this set with changes made after it, for a listener that hasn't seen either yet.
+	 * Neither set is changed.
+	 *
+	 * @return The changes of both, or just the newer ones if they are for another story
+	 */
+	StoryChangeSet merge(StoryChangeSet newer) {
+		if(!mStoryId.equals(newer.mStoryId))
+			return newer;
+		StoryChangeSet merged = new StoryChangeSet(mStoryId);
+		merged.replay(this);
+		merged.replay(newer);
+		return merged;
+	}
+
+	private void replay(StoryChangeSet changes) {
+		for(ChoiceChange change : changes.mRemovedChoices) {
+			choiceRemoved(change.getOrigin(), change.getChoice());
+		}
+		for(UUID id : changes.mRemoved) {
+			fragmentRemoved(id);
+		}
+		for(StoryFragment fragment : changes.mAdded.values()) {
+			fragmentAdded(fragment);
+		}
+		for(StoryFragment fragment : changes.mUpdated.values()) {
+			fragmentUpdated(fragment);
+		}
+		for(ChoiceChange change : changes.mAddedChoices) {
+			choiceAdded(change.getOrigin(), change.getChoice());
+		}
+		if(changes.mStoryChanged)
+			storyChanged();
+	}
+
+	private static void removeChoicesFrom(List<ChoiceChange> changes, UUID origin) {
+		Iterator<ChoiceChange> iterator = changes.iterator();
+		while(iterator.hasNext()) {
+			if(iterator.next().getOrigin().equals(origin))
+				iterator.remove();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StoryChangeSet{" + mStoryId + ": " + mAdded.size() + " added, " + mUpdated.size() + " updated, "
+				+ mRemoved.size() + " removed, " + mAddedChoices.size() + " choices added, "
+				+ mRemovedChoices.size() + " choices removed" + (mStoryChanged ? ", story changed}" : "}");
+	}
+}
@@ -25,22 +25,37 @@ package ca.cmput301f13t03.adventure_datetime.model;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
+import android.util.Base64;
 import android.util.Log;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.*;
 
 /**
  * The local database containing all stories, fragments, bookmarks, and subscriptions
  *
+ * All methods share one long-lived connection through {@link StoryDBConnection}, so sessions
+ * obtained here must never be closed. Image bytes live in an {@link ImageStore}, the StoryImage
+ * table only maps image ids to the hash of their file.
+ *
  * @author Andrew Fontaine
  * @version 1.0
  * @since 28/10/13
@@ -72,13 +87,98 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 
     public static final String AUTHORED_STORY_TABLE_NAME = "AuthoredStory";
 
+	public static final String READING_TRAIL_TABLE_NAME = "ReadingTrail";
+
     public static final String STORY_IMAGE_TABLE_NAME = "StoryImage";
     public static final String STORY_IMAGE_COLUMN_IMAGE = "Image";
+    public static final String STORY_IMAGE_COLUMN_HASH = "Hash";
+    public static final String STORY_IMAGE_COLUMN_SIZE = "Size";
+
+	public static final String SEARCH_TABLE_NAME = "StorySearch";
+	public static final String SEARCH_DOCUMENT_TABLE_NAME = "StorySearchDocument";
+	public static final String SEARCH_DOCUMENT_COLUMN_STORYID = "StoryID";
+
+	private static final String UPSERT_BOOKMARK =
+			"INSERT OR REPLACE INTO " + BOOKMARK_TABLE_NAME + " ("
+			+ BOOKMARK_COLUMN_STORYID + ", " + BOOKMARK_COLUMN_FRAGMENTID + ", " + BOOKMARK_COLUMN_DATE + ") "
+			+ "SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM " + BOOKMARK_TABLE_NAME
+			+ " WHERE " + BOOKMARK_COLUMN_STORYID + " = ? AND " + BOOKMARK_COLUMN_DATE + " > ?)";
+
+	private static final String INSERT_READING_TRAIL =
+			"INSERT INTO " + READING_TRAIL_TABLE_NAME + " (" + BOOKMARK_COLUMN_STORYID + ", "
+			+ BOOKMARK_COLUMN_FRAGMENTID + ", " + BOOKMARK_COLUMN_DATE + ") VALUES (?, ?, ?)";
+
+	/**
+	 * SQLite's default SQLITE_MAX_VARIABLE_NUMBER
+	 */
+	private static final int MAX_SQL_VARIABLES = 999;
+
+	private static final String UPSERT_STORY =
+			"INSERT OR REPLACE INTO " + STORY_TABLE_NAME + " (" + COLUMN_GUID + ", " + STORY_COLUMN_TITLE + ", "
+			+ STORY_COLUMN_AUTHOR + ", " + STORY_COLUMN_HEAD_FRAGMENT + ", " + STORY_COLUMN_SYNOPSIS + ", "
+			+ STORY_COLUMN_TIMESTAMP + ", " + STORY_COLUMN_THUMBNAIL + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String UPSERT_STORYFRAGMENT =
+			"INSERT OR REPLACE INTO " + STORYFRAGMENT_TABLE_NAME + " (" + COLUMN_GUID + ", "
+			+ STORYFRAGMENT_COLUMN_STORYID + ", " + STORYFRAGMENT_COLUMN_CONTENT + ", " + STORYFRAGMENT_COLUMN_CHOICES
+			+ ", " + STORYFRAGMENT_COLUMN_IMAGES + ") VALUES (?, ?, ?, ?, ?)";
+
+	private static final String UPSERT_STORY_IMAGE =
+			"INSERT OR REPLACE INTO " + STORY_IMAGE_TABLE_NAME + " (" + COLUMN_GUID + ", "
+			+ STORY_IMAGE_COLUMN_HASH + ", " + STORY_IMAGE_COLUMN_SIZE + ") VALUES (?, ?, ?)";
+
+	private static final String STORY_COLUMN_THUMBNAIL_HASH = "ThumbnailHash";
+	private static final String STORY_COLUMN_FRAGMENT_COUNT = "FragmentCount";
+
+	private static final String SELECT_STORY_SUMMARIES =
+			"SELECT s." + COLUMN_GUID + ", s." + STORY_COLUMN_TITLE + ", s." + STORY_COLUMN_AUTHOR + ", s."
+			+ STORY_COLUMN_TIMESTAMP + ", s." + STORY_COLUMN_THUMBNAIL + ", i." + STORY_IMAGE_COLUMN_HASH + " AS "
+			+ STORY_COLUMN_THUMBNAIL_HASH + ", (SELECT COUNT(*) FROM " + STORYFRAGMENT_TABLE_NAME + " f WHERE f."
+			+ STORYFRAGMENT_COLUMN_STORYID + " = s." + COLUMN_GUID + ") AS " + STORY_COLUMN_FRAGMENT_COUNT
+			+ " FROM " + STORY_TABLE_NAME + " s LEFT JOIN " + STORY_IMAGE_TABLE_NAME + " i ON i." + COLUMN_GUID
+			+ " = s." + STORY_COLUMN_THUMBNAIL;
+
+	private static final String SELECT_STORIES_WITH_THUMBNAILS =
+			"SELECT s." + COLUMN_GUID + ", s." + STORY_COLUMN_TITLE + ", s." + STORY_COLUMN_AUTHOR + ", s."
+			+ STORY_COLUMN_HEAD_FRAGMENT + ", s." + STORY_COLUMN_SYNOPSIS + ", s." + STORY_COLUMN_TIMESTAMP + ", s."
+			+ STORY_COLUMN_THUMBNAIL + ", i." + STORY_IMAGE_COLUMN_HASH + " AS " + STORY_COLUMN_THUMBNAIL_HASH
+			+ " FROM " + STORY_TABLE_NAME + " s LEFT JOIN " + STORY_IMAGE_TABLE_NAME + " i ON i." + COLUMN_GUID
+			+ " = s." + STORY_COLUMN_THUMBNAIL;
+
+	/**
+	 * Relevance of a hit in the Title, Author, Synopsis and Content columns of the search index
+	 */
+	private static final double[] SEARCH_COLUMN_WEIGHTS = {4.0, 2.0, 2.0, 1.0};
+
+	private static final String SELECT_SEARCH_MATCHES =
+			"SELECT d." + SEARCH_DOCUMENT_COLUMN_STORYID + ", matchinfo(" + SEARCH_TABLE_NAME + ", 'pcx') FROM "
+			+ SEARCH_TABLE_NAME + " JOIN " + SEARCH_DOCUMENT_TABLE_NAME + " d ON d.docid = " + SEARCH_TABLE_NAME
+			+ ".docid JOIN " + STORY_TABLE_NAME + " s ON s." + COLUMN_GUID + " = d." + SEARCH_DOCUMENT_COLUMN_STORYID
+			+ " WHERE " + SEARCH_TABLE_NAME + " MATCH ?";
+
+	/**
+	 * The database is vacuumed once more than this share of its pages are free
+	 */
+	private static final double VACUUM_FREE_PAGE_RATIO = 0.25;
 
-	private StoryDBHelper mDbHelper;
+	/**
+	 * Image files younger than this are never swept, a write may be about to reference them
+	 */
+	private static final long IMAGE_FILE_GRACE_MILLIS = 60 * 60 * 1000;
+
+	private StoryDBConnection mConnection;
+	private ImageStore mImageStore;
 
 	public StoryDB(Context context) {
-		mDbHelper = new StoryDBHelper(context);
+		mImageStore = new ImageStore(context);
+		mConnection = new StoryDBConnection(new StoryDBHelper(context));
+	}
+
+	/**
+	 * Gets the store holding the bytes of every image in this database
+	 */
+	ImageStore getImageStore() {
+		return mImageStore;
 	}
 
 	/* (non-Javadoc)
@@ -86,32 +186,15 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
 	@Override
 	public Story getStory(UUID id) {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
-
-		Cursor cursor = db.query(STORY_TABLE_NAME,
-				new String[]{_ID, COLUMN_GUID, STORY_COLUMN_TITLE, STORY_COLUMN_AUTHOR, STORY_COLUMN_TITLE,
-						STORY_COLUMN_HEAD_FRAGMENT, STORY_COLUMN_SYNOPSIS, STORY_COLUMN_TIMESTAMP, STORY_COLUMN_THUMBNAIL},
-				COLUMN_GUID + " = ?",
-				new String[] {id.toString()},
-				null,
-				null,
-				null,
-				"1");
+		ArrayList<Story> stories = queryStories("s." + COLUMN_GUID + " = ?", new String[] {id.toString()});
 
-		Story story;
-
-		if (cursor.moveToFirst()) {
-            Log.v(TAG, "Story with UUID " + id + " retrieved");
-			story = createStory(cursor);
-		}
-		else {
-			story = null;
+		if(stories.isEmpty()) {
             Log.v(TAG, "No story found");
-        }
+			return null;
+		}
 
-		cursor.close();
-		db.close();
-		return story;
+        Log.v(TAG, "Story with UUID " + id + " retrieved");
+		return stories.get(0);
 	}
 
 	/* (non-Javadoc)
@@ -119,60 +202,246 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
 	@Override
 	public ArrayList<Story> getStories() {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
+		return queryStories(null, null);
+	}
 
-		Cursor cursor = db.query(STORY_TABLE_NAME,
-				new String[] {_ID, COLUMN_GUID, STORY_COLUMN_AUTHOR, STORY_COLUMN_TITLE,
-						STORY_COLUMN_HEAD_FRAGMENT, STORY_COLUMN_SYNOPSIS, STORY_COLUMN_TIMESTAMP, STORY_COLUMN_THUMBNAIL},
-				null,
-				null,
-				null,
-				null,
-				null);
-		ArrayList<Story> stories = new ArrayList<Story>();
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#getStoriesAuthoredBy(java.lang.String)
+	 */
+	@Override
+	public ArrayList<Story> getStoriesAuthoredBy(String author) {
+		return queryStories("s." + STORY_COLUMN_AUTHOR + " = ?", new String[] {author});
+	}
 
-		if(cursor.moveToFirst()) {
-			do {
-                Log.v(TAG, "Story with id " + cursor.getString(cursor.getColumnIndex(COLUMN_GUID)) + " retrieved");
-				stories.add(createStory(cursor));
-			} while(cursor.moveToNext());
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#getStorySummaries(ca.cmput301f13t03.adventure_datetime.model.StorySummary.Filter, ca.cmput301f13t03.adventure_datetime.model.StorySummary.Sort, int, int)
+	 */
+	@Override
+	public ArrayList<StorySummary> getStorySummaries(StorySummary.Filter filter, StorySummary.Sort sort,
+	                                                 int offset, int limit) {
+		SQLiteDatabase db = mConnection.getReadSession();
+		Cursor cursor = db.rawQuery(SELECT_STORY_SUMMARIES + getFilterClause(filter) + getSortClause(sort)
+				+ " LIMIT " + limit + " OFFSET " + offset, null);
+
+		ArrayList<StorySummary> summaries = new ArrayList<StorySummary>(cursor.getCount());
+		while(cursor.moveToNext()) {
+			summaries.add(createStorySummary(cursor));
 		}
+		cursor.close();
 
-        Log.v(TAG, stories.size() + " stories retrieved");
+		Log.v(TAG, summaries.size() + " story summaries retrieved from " + offset);
+		return summaries;
+	}
 
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#getStorySummaryCount(ca.cmput301f13t03.adventure_datetime.model.StorySummary.Filter)
+	 */
+	@Override
+	public int getStorySummaryCount(StorySummary.Filter filter) {
+		SQLiteDatabase db = mConnection.getReadSession();
+		return (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + STORY_TABLE_NAME + " s"
+				+ getFilterClause(filter), null);
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#searchStories(java.lang.String, ca.cmput301f13t03.adventure_datetime.model.StorySummary.Filter)
+	 */
+	@Override
+	public ArrayList<UUID> searchStories(String query, StorySummary.Filter filter) {
+		ArrayList<UUID> ranked = new ArrayList<UUID>();
+		String match = toMatchExpression(query);
+		if(match == null)
+			return ranked;
+
+		// Only stories with a row that passes the filter are ranked, so every id has a summary
+		String condition = getFilterCondition(filter);
+		SQLiteDatabase db = mConnection.getReadSession();
+		final Map<String, Double> scores = new HashMap<String, Double>();
+		Cursor cursor = db.rawQuery(SELECT_SEARCH_MATCHES + (condition.length() > 0 ? " AND " + condition : ""),
+				new String[] {match});
+		while(cursor.moveToNext()) {
+			String storyId = cursor.getString(0);
+			Double score = scores.get(storyId);
+			double matchScore = rankMatch(cursor.getBlob(1));
+			scores.put(storyId, score == null ? matchScore : score + matchScore);
+		}
 		cursor.close();
-		db.close();
-		return stories;
+
+		List<String> ids = new ArrayList<String>(scores.keySet());
+		Collections.sort(ids, new Comparator<String>() {
+			@Override
+			public int compare(String lhs, String rhs) {
+				int order = scores.get(rhs).compareTo(scores.get(lhs));
+				return order != 0 ? order : lhs.compareTo(rhs);
+			}
+		});
+		for(String storyId : ids) {
+			ranked.add(UUID.fromString(storyId));
+		}
+
+		Log.v(TAG, ranked.size() + " stories matching \"" + query + "\" ranked");
+		return ranked;
 	}
 
 	/* (non-Javadoc)
-	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#getStoriesAuthoredBy(java.lang.String)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#getStorySummaries(java.util.List)
 	 */
 	@Override
-	public ArrayList<Story> getStoriesAuthoredBy(String author) {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
+	public ArrayList<StorySummary> getStorySummaries(List<UUID> storyIds) {
+		SQLiteDatabase db = mConnection.getReadSession();
+		Map<UUID, StorySummary> found = new HashMap<UUID, StorySummary>();
+		for(int start = 0; start < storyIds.size(); start += MAX_SQL_VARIABLES) {
+			List<UUID> chunk = storyIds.subList(start, Math.min(storyIds.size(), start + MAX_SQL_VARIABLES));
+			String[] args = new String[chunk.size()];
+			for(int i = 0; i < args.length; i++) {
+				args[i] = chunk.get(i).toString();
+			}
+			Cursor cursor = db.rawQuery(SELECT_STORY_SUMMARIES + " WHERE s." + COLUMN_GUID + " IN ("
+					+ makePlaceholders(args.length) + ")", args);
+			while(cursor.moveToNext()) {
+				StorySummary summary = createStorySummary(cursor);
+				found.put(summary.getId(), summary);
+			}
+			cursor.close();
+		}
+
+		ArrayList<StorySummary> summaries = new ArrayList<StorySummary>(found.size());
+		for(UUID storyId : storyIds) {
+			StorySummary summary = found.get(storyId);
+			if(summary != null)
+				summaries.add(summary);
+		}
+		return summaries;
+	}
+
+	/**
+	 * Turns what the user typed into an FTS query that matches stories containing a word
+	 * starting with each of the typed words. Everything but letters and digits is dropped so
+	 * user input can never be parsed as query syntax.
+	 *
+	 * @return The MATCH expression, or null if nothing searchable was typed
+	 */
+	private static String toMatchExpression(String query) {
+		if(query == null)
+			return null;
+
+		StringBuilder match = new StringBuilder();
+		for(String word : query.split("[^\\p{L}\\p{N}]+")) {
+			if(word.length() == 0)
+				continue;
+			if(match.length() > 0)
+				match.append(' ');
+			match.append(word).append('*');
+		}
+
+		return match.length() == 0 ? null : match.toString();
+	}
+
+	/**
+	 * Scores one matching row of the search index from its matchinfo 'pcx' blob. Each phrase
+	 * hit counts for more the rarer it is across the index, weighted by the column it hit.
+	 */
+	private static double rankMatch(byte[] matchinfo) {
+		IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+		int phrases = info.get(0);
+		int columns = info.get(1);
+		double score = 0;
+
+		for(int phrase = 0; phrase < phrases; phrase++) {
+			for(int column = 0; column < columns && column < SEARCH_COLUMN_WEIGHTS.length; column++) {
+				int hit = 2 + 3 * (phrase * columns + column);
+				int rowHits = info.get(hit);
+				int allHits = info.get(hit + 1);
+				if(rowHits > 0)
+					score += SEARCH_COLUMN_WEIGHTS[column] * rowHits / allHits;
+			}
+		}
+
+		return score;
+	}
+
+	private static String getFilterClause(StorySummary.Filter filter) {
+		String condition = getFilterCondition(filter);
+		return condition.length() > 0 ? " WHERE " + condition : "";
+	}
+
+	/**
+	 * The condition on the Story row s of the filter, empty if it lets every story through
+	 */
+	private static String getFilterCondition(StorySummary.Filter filter) {
+		switch(filter) {
+			case AUTHORED:
+				return "s." + COLUMN_GUID + " IN (SELECT " + COLUMN_GUID + " FROM " + AUTHORED_STORY_TABLE_NAME + ")";
+			case NOT_AUTHORED:
+				return "s." + COLUMN_GUID + " NOT IN (SELECT " + COLUMN_GUID + " FROM " + AUTHORED_STORY_TABLE_NAME + ")";
+			case BOOKMARKED:
+				return "s." + COLUMN_GUID + " IN (SELECT " + BOOKMARK_COLUMN_STORYID + " FROM " + BOOKMARK_TABLE_NAME + ")";
+			default:
+				return "";
+		}
+	}
+
+	/**
+	 * The row id breaks ties so pages never overlap, and the Story indexes cover each order
+	 */
+	private static String getSortClause(StorySummary.Sort sort) {
+		switch(sort) {
+			case TITLE:
+				return " ORDER BY s." + STORY_COLUMN_TITLE + " COLLATE NOCASE, s." + _ID;
+			case AUTHOR:
+				return " ORDER BY s." + STORY_COLUMN_AUTHOR + " COLLATE NOCASE, s." + _ID;
+			default:
+				return " ORDER BY s." + STORY_COLUMN_TIMESTAMP + " DESC, s." + _ID + " DESC";
+		}
+	}
+
+	/**
+	 * Loads every story matching the selection in two queries, no matter how many stories match.
+	 * The first joins each story with its thumbnail, the second fetches the fragment ids of all the
+	 * matched stories at once, and both results are attached to the stories in a single pass.
+	 *
+	 * @param selection WHERE clause on the Story table aliased as "s", or null for all stories
+	 * @param selectionArgs Arguments for the selection
+	 *
+	 * @return The matching stories, empty if there are none
+	 */
+	private ArrayList<Story> queryStories(String selection, String[] selectionArgs) {
+		SQLiteDatabase db = mConnection.getReadSession();
+		String where = selection == null ? "" : " WHERE " + selection;
+
+		Cursor cursor = db.rawQuery(SELECT_STORIES_WITH_THUMBNAILS + where, selectionArgs);
 
-		Cursor cursor = db.query(STORY_TABLE_NAME,
-				new String[]{_ID, COLUMN_GUID, STORY_COLUMN_AUTHOR,
-						STORY_COLUMN_HEAD_FRAGMENT, STORY_COLUMN_SYNOPSIS, STORY_COLUMN_TIMESTAMP, STORY_COLUMN_THUMBNAIL},
-				STORY_COLUMN_AUTHOR + " = ?",
-				new String[] {author},
-				null,
-				null,
-				null);
 		ArrayList<Story> stories = new ArrayList<Story>();
+		Map<String, Story> storiesById = new HashMap<String, Story>();
 
-        if(cursor.moveToFirst()) {
-            do {
-                Log.v(TAG, "Story with id " + cursor.getString(cursor.getColumnIndex(COLUMN_GUID)) + " retrieved");
-                stories.add(createStory(cursor));
-            } while(cursor.moveToNext());
-        }
+		if(cursor.moveToFirst()) {
+			do {
+				Story story = createStory(cursor);
+				stories.add(story);
+				storiesById.put(story.getId().toString(), story);
+			} while(cursor.moveToNext());
+		}
+		cursor.close();
 
-        Log.v(TAG, stories.size() + " stories retrieved");
+		if(stories.isEmpty())
+			return stories;
+
+		cursor = db.rawQuery("SELECT f." + STORYFRAGMENT_COLUMN_STORYID + ", f." + COLUMN_GUID
+				+ " FROM " + STORYFRAGMENT_TABLE_NAME + " f"
+				+ (selection == null ? "" : " WHERE f." + STORYFRAGMENT_COLUMN_STORYID
+						+ " IN (SELECT s." + COLUMN_GUID + " FROM " + STORY_TABLE_NAME + " s" + where + ")"),
+				selectionArgs);
 
+		if(cursor.moveToFirst()) {
+			do {
+				Story story = storiesById.get(cursor.getString(0));
+				if(story != null)
+					story.addFragment(UUID.fromString(cursor.getString(1)));
+			} while(cursor.moveToNext());
+		}
 		cursor.close();
-		db.close();
+
+        Log.v(TAG, stories.size() + " stories retrieved");
 		return stories;
 	}
 
@@ -181,7 +450,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
 	@Override
 	public StoryFragment getStoryFragment(UUID id) {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
+		SQLiteDatabase db = mConnection.getReadSession();
 
 		Cursor cursor = db.query(STORYFRAGMENT_TABLE_NAME,
 				new String[] {_ID, COLUMN_GUID, STORYFRAGMENT_COLUMN_STORYID, STORYFRAGMENT_COLUMN_CHOICES, STORYFRAGMENT_COLUMN_CONTENT, STORYFRAGMENT_COLUMN_IMAGES},
@@ -194,14 +463,13 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 		StoryFragment frag;
 		if(cursor.moveToFirst()) {
             Log.v(TAG, "StoryFragment " + id + " retrieved");
-			frag = createStoryFragment(cursor);
+			frag = createStoryFragment(cursor, getImagesById(getFragmentImageIds(cursor)));
         }
 		else {
 			frag = null;
             Log.v(TAG, "No fragment found");
         }
 		cursor.close();
-		db.close();
 		return frag;
 	}
 
@@ -210,7 +478,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
 	@Override
 	public ArrayList<StoryFragment> getStoryFragments(UUID storyid) {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
+		SQLiteDatabase db = mConnection.getReadSession();
 
 		Cursor cursor = db.query(STORYFRAGMENT_TABLE_NAME,
 				new String[]{_ID, COLUMN_GUID, STORYFRAGMENT_COLUMN_STORYID, STORYFRAGMENT_COLUMN_CHOICES, STORYFRAGMENT_COLUMN_CONTENT, STORYFRAGMENT_COLUMN_IMAGES},
@@ -222,55 +490,35 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 
 		ArrayList<StoryFragment> fragments = new ArrayList<StoryFragment>();
 
+		// Resolve the images of every fragment in the story at once, then build the fragments
+		Set<UUID> imageIds = new HashSet<UUID>();
+		if(cursor.moveToFirst()) {
+			do {
+				imageIds.addAll(getFragmentImageIds(cursor));
+			} while(cursor.moveToNext());
+		}
+		Map<UUID, Image> images = getImagesById(imageIds);
+
 		if(cursor.moveToFirst()) {
 			do {
                 Log.v(TAG, "StoryFragment with id " + cursor.getString(cursor.getColumnIndex(COLUMN_GUID))
                         + " retrieved");
-				fragments.add(createStoryFragment(cursor));
+				fragments.add(createStoryFragment(cursor, images));
 			} while(cursor.moveToNext());
 		}
 
         Log.v(TAG, fragments.size() + " StoryFragments retrieved");
 
 		cursor.close();
-		db.close();
 		return fragments;
 	}
 
-    private ArrayList<UUID> getStoryFragmentIDs(UUID storyID) {
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
-
-        Cursor cursor = db.query(STORYFRAGMENT_TABLE_NAME,
-                new String[]{COLUMN_GUID},
-                STORYFRAGMENT_COLUMN_STORYID + " = ?",
-                new String[]{storyID.toString()},
-                null,
-                null,
-                null);
-
-        ArrayList<UUID> fragmentIDs = new ArrayList<UUID>();
-
-        if(cursor.moveToFirst()) {
-            do {
-                Log.v(TAG, "StoryFragment with id " + cursor.getString(cursor.getColumnIndex(COLUMN_GUID))
-                        + " retrieved");
-                fragmentIDs.add(UUID.fromString(cursor.getString(cursor.getColumnIndex(COLUMN_GUID))));
-            } while(cursor.moveToNext());
-        }
-
-        Log.v(TAG, fragmentIDs.size() + " StoryFragments retrieved");
-
-        cursor.close();
-        db.close();
-        return fragmentIDs;
-    }
-
 	/* (non-Javadoc)
 	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#getBookmark(java.util.UUID)
 	 */
 	@Override
 	public Bookmark getBookmark(UUID storyid) {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
+		SQLiteDatabase db = mConnection.getReadSession();
 
 		Cursor cursor = db.query(BOOKMARK_TABLE_NAME,
 				new String[] {_ID, BOOKMARK_COLUMN_STORYID, BOOKMARK_COLUMN_FRAGMENTID, BOOKMARK_COLUMN_DATE},
@@ -293,7 +541,6 @@ public class StoryDB implements BaseColumns, ILocalStorage {
         }
 
 		cursor.close();
-		db.close();
 		return bookmark;
 	}
 
@@ -302,7 +549,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
 	@Override
 	public ArrayList<Bookmark> getAllBookmarks() {
-		SQLiteDatabase db = mDbHelper.getReadableDatabase();
+		SQLiteDatabase db = mConnection.getReadSession();
 		Cursor cursor = db.query(BOOKMARK_TABLE_NAME,
 				new String[] {BOOKMARK_COLUMN_STORYID, BOOKMARK_COLUMN_FRAGMENTID, BOOKMARK_COLUMN_DATE},
 				null,
@@ -322,12 +569,13 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 
         Log.v(TAG, bookmarks.size() + " bookmarks retrieved");
 
+		cursor.close();
 		return bookmarks;
 	}
 
     @Override
     public boolean getAuthoredStory(UUID storyId) {
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        SQLiteDatabase db = mConnection.getReadSession();
         Cursor cursor = db.query(AUTHORED_STORY_TABLE_NAME,
                 new String[] {COLUMN_GUID},
                 COLUMN_GUID + " = ?",
@@ -338,14 +586,13 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 
         boolean authoredStory = cursor.moveToFirst();
         cursor.close();
-        db.close();
 
         return authoredStory;
     }
 
     @Override
     public ArrayList<UUID> getAuthoredStories() {
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        SQLiteDatabase db = mConnection.getReadSession();
         Cursor cursor = db.query(AUTHORED_STORY_TABLE_NAME,
                 new String[] {COLUMN_GUID},
                 null,
@@ -362,95 +609,177 @@ public class StoryDB implements BaseColumns, ILocalStorage {
             } while(cursor.moveToNext());
         }
         cursor.close();
-        db.close();
 
         return authoredStories;
     }
 
     public Image getImage(UUID imageID) {
-        Cursor cursor = getImageCursor(imageID);
-
-        Image image;
-        if(cursor.moveToFirst()) {
-            image = createImage(cursor);
-        }
-        else {
-            image = null;
-        }
-
-        cursor.close();
-        return image;
-    }
-
-    private Cursor getImageCursor(UUID imageID) {
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
-        return db.query(STORY_IMAGE_TABLE_NAME,
-                new String[] {COLUMN_GUID, STORY_IMAGE_COLUMN_IMAGE},
-                COLUMN_GUID + " = ?",
-                new String[] {imageID.toString()},
-                null,
-                null,
-                null);
+        return getImagesById(Collections.singleton(imageID)).get(imageID);
     }
 
+    /**
+     * Gets images in the order of the given ids. Ids with no stored image are skipped.
+     *
+     * @param imageIDs UUIDs of the images
+     *
+     * @return The images that were found
+     */
     public ArrayList<Image> getImages(ArrayList<UUID> imageIDs) {
         ArrayList<Image> images = new ArrayList<Image>();
         if(imageIDs == null)
             return images;
-        Cursor cursor;
 
+        Map<UUID, Image> found = getImagesById(imageIDs);
         for(UUID imageID : imageIDs) {
-            cursor = getImageCursor(imageID);
-            if(cursor.moveToFirst())
-                images.add(createImage(cursor));
+            Image image = found.get(imageID);
+            if(image != null)
+                images.add(image);
+        }
+
+        return images;
+    }
+
+    /**
+     * Resolves any number of images using IN (...) queries, split into chunks that stay under
+     * SQLite's limit on bound variables.
+     *
+     * @param imageIDs UUIDs of the images
+     *
+     * @return The images that were found, keyed by UUID
+     */
+    public Map<UUID, Image> getImagesById(Collection<UUID> imageIDs) {
+        Map<UUID, Image> images = new HashMap<UUID, Image>();
+        if(imageIDs == null || imageIDs.isEmpty())
+            return images;
+
+        SQLiteDatabase db = mConnection.getReadSession();
+        List<String> ids = new ArrayList<String>(imageIDs.size());
+        for(UUID imageID : imageIDs) {
+            ids.add(imageID.toString());
+        }
+
+        for(int from = 0; from < ids.size(); from += MAX_SQL_VARIABLES) {
+            List<String> chunk = ids.subList(from, Math.min(from + MAX_SQL_VARIABLES, ids.size()));
+            Cursor cursor = db.query(STORY_IMAGE_TABLE_NAME,
+                    new String[] {COLUMN_GUID, STORY_IMAGE_COLUMN_HASH},
+                    COLUMN_GUID + " IN (" + makePlaceholders(chunk.size()) + ")",
+                    chunk.toArray(new String[chunk.size()]),
+                    null,
+                    null,
+                    null);
+
+            if(cursor.moveToFirst()) {
+                do {
+                    Image image = createImage(cursor);
+                    images.put(image.getId(), image);
+                } while(cursor.moveToNext());
+            }
             cursor.close();
         }
 
+        Log.v(TAG, images.size() + " of " + ids.size() + " images retrieved");
         return images;
     }
 
+    private static String makePlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder(count * 2);
+        for(int i = 0; i < count; i++) {
+            if(i > 0)
+                placeholders.append(',');
+            placeholders.append('?');
+        }
+        return placeholders.toString();
+    }
+
 	/* (non-Javadoc)
 	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#setBookmark(ca.cmput301f13t03.adventure_datetime.model.Bookmark)
 	 */
 	@Override
 	public boolean setBookmark(Bookmark bookmark) {
-		SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		SQLiteDatabase db = mConnection.getWriteSession();
+
+		// Only replaces the stored bookmark if it isn't newer than this one
+		SQLiteStatement upsert = db.compileStatement(UPSERT_BOOKMARK);
+		long inserted = upsertBookmark(upsert, bookmark);
+		upsert.close();
+        Log.v(TAG, (inserted == -1 ? "No" : "1") + " Bookmark upserted");
+		return inserted != -1;
+	}
 
-		Cursor cursor = db.query(BOOKMARK_TABLE_NAME,
-				new String[] {_ID, BOOKMARK_COLUMN_FRAGMENTID, BOOKMARK_COLUMN_STORYID, BOOKMARK_COLUMN_DATE},
+	private static long upsertBookmark(SQLiteStatement upsert, Bookmark bookmark) {
+		String storyId = bookmark.getStoryID().toString();
+		long date = bookmark.getTimestamp() / 1000;
+		upsert.clearBindings();
+		upsert.bindString(1, storyId);
+		upsert.bindString(2, bookmark.getFragmentID().toString());
+		upsert.bindLong(3, date);
+		upsert.bindString(4, storyId);
+		upsert.bindLong(5, date);
+		return upsert.executeInsert();
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#appendReadingTrail(java.util.Collection)
+	 */
+	@Override
+	public boolean appendReadingTrail(Collection<Bookmark> entries) {
+		if(entries.isEmpty())
+			return true;
+
+		Map<UUID, Bookmark> latest = new HashMap<UUID, Bookmark>();
+		boolean successful = false;
+		SQLiteDatabase db = mConnection.beginWrite();
+		SQLiteStatement insert = db.compileStatement(INSERT_READING_TRAIL);
+		SQLiteStatement upsert = db.compileStatement(UPSERT_BOOKMARK);
+		try {
+			for(Bookmark entry : entries) {
+				insert.bindString(1, entry.getStoryID().toString());
+				insert.bindString(2, entry.getFragmentID().toString());
+				insert.bindLong(3, entry.getTimestamp() / 1000);
+				if(insert.executeInsert() == -1)
+					return false;
+
+				Bookmark previous = latest.get(entry.getStoryID());
+				if(previous == null || previous.getTimestamp() <= entry.getTimestamp())
+					latest.put(entry.getStoryID(), entry);
+			}
+
+			// The last step through each story becomes its bookmark
+			for(Bookmark bookmark : latest.values()) {
+				upsertBookmark(upsert, bookmark);
+			}
+			successful = true;
+		}
+		finally {
+			insert.close();
+			upsert.close();
+			mConnection.endWrite(successful);
+		}
+
+		Log.v(TAG, entries.size() + " reading trail entries appended");
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#getReadingTrail(java.util.UUID)
+	 */
+	@Override
+	public ArrayList<Bookmark> getReadingTrail(UUID storyId) {
+		SQLiteDatabase db = mConnection.getReadSession();
+		Cursor cursor = db.query(READING_TRAIL_TABLE_NAME,
+				new String[] {BOOKMARK_COLUMN_STORYID, BOOKMARK_COLUMN_FRAGMENTID, BOOKMARK_COLUMN_DATE},
 				BOOKMARK_COLUMN_STORYID + " = ?",
-				new String[] {bookmark.getStoryID().toString()},
+				new String[] {storyId.toString()},
 				null,
 				null,
-				null);
-
-		ContentValues values = new ContentValues();
-
-		values.put(BOOKMARK_COLUMN_STORYID, bookmark.getStoryID().toString());
-		values.put(BOOKMARK_COLUMN_FRAGMENTID, bookmark.getFragmentID().toString());
-		values.put(BOOKMARK_COLUMN_DATE, bookmark.getTimestamp() / 1000);
+				_ID);
 
-		long updated;
-		if(cursor.moveToFirst()) {
-			Bookmark bookmark1 = createBookmark(cursor);
-			if(bookmark.getTimestamp() > bookmark1.getTimestamp()) {
-				updated = db.update(BOOKMARK_TABLE_NAME,values,BOOKMARK_COLUMN_STORYID + " = ?",
-						new String[] {BOOKMARK_COLUMN_STORYID});
-                Log.v(TAG, updated + " Bookmarks updated");
-				cursor.close();
-				db.close();
-				return updated == 1;
-			}
-            Log.v(TAG, "No Bookmarks updated");
-			cursor.close();
-			db.close();
-			return false;
+		ArrayList<Bookmark> trail = new ArrayList<Bookmark>(cursor.getCount());
+		while(cursor.moveToNext()) {
+			trail.add(createBookmark(cursor));
 		}
-		updated = db.insert(BOOKMARK_TABLE_NAME, null, values);
-        Log.v(TAG, updated + " Bookmark inserted");
 		cursor.close();
-		db.close();
-		return updated != -1;
+		return trail;
 	}
 
 	/* (non-Javadoc)
@@ -459,7 +788,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	@Override
 	public boolean setStory(Story story) {
 
-		SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		SQLiteDatabase db = mConnection.getWriteSession();
 		ContentValues values = new ContentValues();
 		values.put(STORY_COLUMN_TITLE, story.getTitle());
 		values.put(STORY_COLUMN_AUTHOR, story.getAuthor());
@@ -469,28 +798,12 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 		values.put(STORY_COLUMN_THUMBNAIL, (story.getThumbnail() == null ? null : story.getThumbnail().getId().toString()));
 		values.put(COLUMN_GUID, story.getId().toString());
 
-		Cursor cursor = db.query(STORY_TABLE_NAME,
-				new String[] {_ID},
-				COLUMN_GUID + " = ?",
-				new String[] {story.getId().toString()},
-				null,
-				null,
-				null);
-		if(cursor.moveToFirst()) {
-			int updated;
-			updated = db.update(STORY_TABLE_NAME, values, COLUMN_GUID + " = ?",
-					new String [] {story.getId().toString()});
-            Log.v(TAG, updated + " stories updated");
-			cursor.close();
-			db.close();
-			return updated == 1 && setImage(story.getThumbnail());
-		}
-		cursor.close();
-		long inserted;
-		inserted = db.insert(STORY_TABLE_NAME, null, values);
-        Log.v(TAG, inserted + " story inserted");
-		db.close();
-		return inserted != -1 && setImage(story.getThumbnail());
+		long upserted = db.insertWithOnConflict(STORY_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        Log.v(TAG, "Story upserted as row " + upserted);
+		if(upserted == -1 || (story.getThumbnail() != null && !setImage(story.getThumbnail())))
+			return false;
+		story.markSaved();
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -498,7 +811,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
 	@Override
 	public boolean setStoryFragment(StoryFragment frag) {
-		SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		SQLiteDatabase db = mConnection.getWriteSession();
 		ContentValues values = new ContentValues();
 		values.put(STORYFRAGMENT_COLUMN_STORYID, frag.getStoryID().toString());
 		values.put(STORYFRAGMENT_COLUMN_CONTENT, frag.getStoryText());
@@ -506,28 +819,316 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 		values.put(COLUMN_GUID, frag.getFragmentID().toString());
         values.put(STORYFRAGMENT_COLUMN_IMAGES, frag.getStoryMediaInJson());
 
+		long upserted = db.insertWithOnConflict(STORYFRAGMENT_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        Log.v(TAG, "Fragment upserted as row " + upserted);
+		if(upserted == -1 || !setImages(frag.getStoryMedia()))
+			return false;
+		frag.markSaved();
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#setStoryWithFragments(ca.cmput301f13t03.adventure_datetime.model.Story, java.util.Collection)
+	 */
+	@Override
+	public boolean setStoryWithFragments(Story story, Collection<StoryFragment> fragments) {
+		// Only images changed since they were saved are written, and their files go to the
+		// image store before the transaction so it only covers the rows
+		Map<UUID, Image> images = new LinkedHashMap<UUID, Image>();
+		if(story.getThumbnail() != null && story.getThumbnail().isDirty())
+			images.put(story.getThumbnail().getId(), story.getThumbnail());
+		for(StoryFragment frag : fragments) {
+			for(Image image : frag.getStoryMedia()) {
+				if(image.isDirty())
+					images.put(image.getId(), image);
+			}
+		}
+
+		Map<UUID, String> hashes = new HashMap<UUID, String>();
+		for(Image image : images.values()) {
+			String hash = image.getStoredHash(mImageStore);
+			if(hash == null) {
+				hash = storeImage(image);
+				if(hash == null)
+					return false;
+			}
+			hashes.put(image.getId(), hash);
+		}
+		Map<UUID, Image> previousImages = getImagesById(images.keySet());
+
+		SQLiteDatabase db = mConnection.beginWrite();
+		SQLiteStatement upsertStory = db.compileStatement(UPSERT_STORY);
+		SQLiteStatement upsertFragment = db.compileStatement(UPSERT_STORYFRAGMENT);
+		SQLiteStatement upsertImage = db.compileStatement(UPSERT_STORY_IMAGE);
+		boolean successful = false;
+		int fragmentsWritten = 0;
+		try {
+			if(!writeStory(db, upsertStory, story))
+				return false;
+
+			for(StoryFragment frag : fragments) {
+				if(frag.isSaved() && frag.getChanges() == 0)
+					continue;
+				if(!writeStoryFragment(db, upsertFragment, frag))
+					return false;
+				fragmentsWritten++;
+			}
+
+			for(Map.Entry<UUID, String> hash : hashes.entrySet()) {
+				upsertImage.bindString(1, hash.getKey().toString());
+				upsertImage.bindString(2, hash.getValue());
+				upsertImage.bindLong(3, mImageStore.size(hash.getValue()));
+				if(upsertImage.executeInsert() == -1)
+					return false;
+				upsertImage.clearBindings();
+			}
+			successful = true;
+		} finally {
+			upsertStory.close();
+			upsertFragment.close();
+			upsertImage.close();
+			mConnection.endWrite(successful);
+		}
+
+		story.markSaved();
+		for(StoryFragment frag : fragments) {
+			frag.markSaved();
+		}
+		for(Image image : images.values()) {
+			image.setStored(mImageStore, hashes.get(image.getId()));
+		}
+		for(Image previous : previousImages.values()) {
+			String previousHash = previous.getStoredHash(mImageStore);
+			if(previousHash != null && !previousHash.equals(hashes.get(previous.getId())))
+				releaseImageFile(db, previousHash);
+		}
+		Log.v(TAG, "Story saved with " + fragmentsWritten + " of " + fragments.size() + " fragments and "
+				+ hashes.size() + " images written");
+		return true;
+	}
+
+	/**
+	 * Writes only the changed columns of a saved Story, or the whole row of a new one
+	 */
+	private boolean writeStory(SQLiteDatabase db, SQLiteStatement upsert, Story story) {
+		if(story.isSaved()) {
+			int changes = story.getChanges();
+			if(changes == 0)
+				return true;
+
+			ContentValues values = new ContentValues();
+			if((changes & Story.CHANGED_TITLE) != 0)
+				values.put(STORY_COLUMN_TITLE, story.getTitle());
+			if((changes & Story.CHANGED_AUTHOR) != 0)
+				values.put(STORY_COLUMN_AUTHOR, story.getAuthor());
+			if((changes & Story.CHANGED_SYNOPSIS) != 0)
+				values.put(STORY_COLUMN_SYNOPSIS, story.getSynopsis());
+			if((changes & Story.CHANGED_HEAD_FRAGMENT) != 0)
+				values.put(STORY_COLUMN_HEAD_FRAGMENT, story.getHeadFragmentId().toString());
+			if((changes & Story.CHANGED_TIMESTAMP) != 0)
+				values.put(STORY_COLUMN_TIMESTAMP, story.getTimestamp());
+			if((changes & Story.CHANGED_THUMBNAIL) != 0)
+				values.put(STORY_COLUMN_THUMBNAIL,
+						story.getThumbnail() == null ? null : story.getThumbnail().getId().toString());
+
+			// Falls through to writing the whole row if it was deleted since it was loaded
+			if(db.update(STORY_TABLE_NAME, values, COLUMN_GUID + " = ?", new String[] {story.getId().toString()}) > 0)
+				return true;
+		}
+
+		upsert.bindString(1, story.getId().toString());
+		bindNullableString(upsert, 2, story.getTitle());
+		bindNullableString(upsert, 3, story.getAuthor());
+		upsert.bindString(4, story.getHeadFragmentId().toString());
+		bindNullableString(upsert, 5, story.getSynopsis());
+		upsert.bindLong(6, story.getTimestamp());
+		bindNullableString(upsert, 7, story.getThumbnail() == null ? null : story.getThumbnail().getId().toString());
+		return upsert.executeInsert() != -1;
+	}
+
+	/**
+	 * Writes only the changed columns of a saved StoryFragment, or the whole row of a new one
+	 */
+	private boolean writeStoryFragment(SQLiteDatabase db, SQLiteStatement upsert, StoryFragment frag) {
+		if(frag.isSaved()) {
+			int changes = frag.getChanges();
+			ContentValues values = new ContentValues();
+			if((changes & StoryFragment.CHANGED_STORY) != 0)
+				values.put(STORYFRAGMENT_COLUMN_STORYID, frag.getStoryID().toString());
+			if((changes & StoryFragment.CHANGED_TEXT) != 0)
+				values.put(STORYFRAGMENT_COLUMN_CONTENT, frag.getStoryText());
+			if((changes & StoryFragment.CHANGED_CHOICES) != 0)
+				values.put(STORYFRAGMENT_COLUMN_CHOICES, frag.getChoicesInJson());
+			if((changes & StoryFragment.CHANGED_MEDIA) != 0)
+				values.put(STORYFRAGMENT_COLUMN_IMAGES, frag.getStoryMediaInJson());
+
+			if(db.update(STORYFRAGMENT_TABLE_NAME, values, COLUMN_GUID + " = ?",
+					new String[] {frag.getFragmentID().toString()}) > 0)
+				return true;
+		}
+
+		upsert.bindString(1, frag.getFragmentID().toString());
+		upsert.bindString(2, frag.getStoryID().toString());
+		bindNullableString(upsert, 3, frag.getStoryText());
+		bindNullableString(upsert, 4, frag.getChoicesInJson());
+		bindNullableString(upsert, 5, frag.getStoryMediaInJson());
+		boolean upserted = upsert.executeInsert() != -1;
+		upsert.clearBindings();
+		return upserted;
+	}
+
+	private static void bindNullableString(SQLiteStatement statement, int index, String value) {
+		if(value == null)
+			statement.bindNull(index);
+		else
+			statement.bindString(index, value);
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#exportStory(java.util.UUID, java.io.OutputStream)
+	 */
+	@Override
+	public boolean exportStory(UUID storyId, OutputStream out) {
+		Story story = getStory(storyId);
+		if(story == null) {
+			Log.v(TAG, "No story to export");
+			return false;
+		}
+
+		SQLiteDatabase db = mConnection.getReadSession();
 		Cursor cursor = db.query(STORYFRAGMENT_TABLE_NAME,
-				new String[] {_ID, STORYFRAGMENT_COLUMN_STORYID},
-				COLUMN_GUID + " = ? AND " + STORYFRAGMENT_COLUMN_STORYID + " = ?",
-				new String[] {frag.getFragmentID().toString(), frag.getStoryID().toString()},
+				new String[]{_ID, COLUMN_GUID, STORYFRAGMENT_COLUMN_STORYID, STORYFRAGMENT_COLUMN_CHOICES, STORYFRAGMENT_COLUMN_CONTENT, STORYFRAGMENT_COLUMN_IMAGES},
+				STORYFRAGMENT_COLUMN_STORYID + " = ?",
+				new String[]{storyId.toString()},
 				null,
 				null,
 				null);
-		if(cursor.moveToFirst()) {
-			int updated;
-			updated = db.update(STORYFRAGMENT_TABLE_NAME, values, COLUMN_GUID + " = ? AND " + STORYFRAGMENT_COLUMN_STORYID + " = ?",
-					new String[] {frag.getFragmentID().toString(), frag.getStoryID().toString()});
-            Log.v(TAG, updated + " fragments updated");
+
+		StoryBundle.Writer bundle = new StoryBundle.Writer(out);
+		int fragments = 0;
+		try {
+			bundle.writeStory(story);
+			if(story.getThumbnail() != null)
+				writeBundleImage(bundle, story.getThumbnail());
+
+			// Fragments are built one row at a time, images are copied straight from their files
+			while(cursor.moveToNext()) {
+				StoryFragment frag = createStoryFragment(cursor, getImagesById(getFragmentImageIds(cursor)));
+				for(Image image : frag.getStoryMedia()) {
+					writeBundleImage(bundle, image);
+				}
+				bundle.writeFragment(frag);
+				fragments++;
+			}
+			bundle.finish();
+		} catch (IOException e) {
+			Log.e(TAG, "Error exporting story " + storyId, e);
+			return false;
+		} finally {
 			cursor.close();
-			db.close();
-			return updated == 1 && setImages(frag.getStoryMedia());
 		}
-		long inserted;
-		inserted = db.insert(STORYFRAGMENT_TABLE_NAME, null, values);
-        Log.v(TAG, inserted + " fragment inserted");
-		db.close();
-		return inserted != -1 && setImages(frag.getStoryMedia());
 
+		Log.v(TAG, "Story exported with " + fragments + " fragments");
+		return true;
+	}
+
+	private void writeBundleImage(StoryBundle.Writer bundle, Image image) throws IOException {
+		String hash = image.getStoredHash(mImageStore);
+		if(hash == null || bundle.hasImage(image.getId()))
+			return;
+
+		InputStream in = mImageStore.open(hash);
+		try {
+			bundle.writeImage(image.getId(), in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#importStory(java.io.InputStream)
+	 */
+	@Override
+	public Story importStory(InputStream in) {
+		StoryBundle.Reader bundle = new StoryBundle.Reader(in);
+		Story header;
+		try {
+			header = bundle.readStory();
+		} catch (IOException e) {
+			Log.e(TAG, "Error reading story bundle", e);
+			return null;
+		}
+
+		Map<UUID, String> hashes = new HashMap<UUID, String>();
+		List<UUID> fragmentIds = new ArrayList<UUID>();
+		Story story;
+		boolean successful = false;
+		SQLiteDatabase db = mConnection.beginWrite();
+		SQLiteStatement upsertStory = db.compileStatement(UPSERT_STORY);
+		SQLiteStatement upsertFragment = db.compileStatement(UPSERT_STORYFRAGMENT);
+		SQLiteStatement upsertImage = db.compileStatement(UPSERT_STORY_IMAGE);
+		try {
+			// The bundle replaces any copy already here. Images only the old copy used are left to collectGarbage.
+			db.delete(STORYFRAGMENT_TABLE_NAME, STORYFRAGMENT_COLUMN_STORYID + " = ?",
+					new String[] {header.getId().toString()});
+
+			while(bundle.next()) {
+				if(bundle.isImage()) {
+					// Files are stored as they stream in, if the import fails collectGarbage removes them
+					String hash = mImageStore.put(bundle.getImage());
+					hashes.put(bundle.getImageId(), hash);
+					upsertImage.bindString(1, bundle.getImageId().toString());
+					upsertImage.bindString(2, hash);
+					upsertImage.bindLong(3, mImageStore.size(hash));
+					if(upsertImage.executeInsert() == -1)
+						return null;
+					upsertImage.clearBindings();
+					continue;
+				}
+
+				StoryFragment frag = bundle.readFragment();
+				if(!header.getId().equals(frag.getStoryID()))
+					throw new IOException("Fragment " + frag.getFragmentID() + " is not part of the story");
+
+				ArrayList<Image> media = new ArrayList<Image>();
+				if(frag.getMediaIds() != null) {
+					for(UUID imageId : frag.getMediaIds()) {
+						String hash = hashes.get(imageId);
+						if(hash != null)
+							media.add(new Image(imageId, mImageStore, hash));
+					}
+				}
+				frag.setStoryMedia(media);
+				if(!writeStoryFragment(db, upsertFragment, frag))
+					return null;
+				fragmentIds.add(frag.getFragmentID());
+			}
+
+			Image thumbnail = null;
+			UUID thumbnailId = bundle.getThumbnailId();
+			if(thumbnailId != null && hashes.containsKey(thumbnailId))
+				thumbnail = new Image(thumbnailId, mImageStore, hashes.get(thumbnailId));
+			story = new Story(header.getHeadFragmentId(), header.getId(), header.getAuthor(), header.getTimestamp(),
+					header.getSynopsis(), thumbnail, header.getTitle());
+			for(UUID fragmentId : fragmentIds) {
+				story.addFragment(fragmentId);
+			}
+			if(!writeStory(db, upsertStory, story))
+				return null;
+			successful = true;
+		} catch (IOException e) {
+			Log.e(TAG, "Error importing story bundle", e);
+			return null;
+		} finally {
+			upsertStory.close();
+			upsertFragment.close();
+			upsertImage.close();
+			mConnection.endWrite(successful);
+		}
+
+		story.markSaved();
+		Log.v(TAG, "Story imported with " + fragmentIds.size() + " fragments and " + hashes.size() + " images");
+		return story;
 	}
 
     @Override
@@ -544,7 +1145,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
             return true;
         }
 
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteDatabase db = mConnection.getWriteSession();
 
         ContentValues values = new ContentValues();
 
@@ -552,29 +1153,220 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 
         long insert = db.insert(AUTHORED_STORY_TABLE_NAME, null, values);
 
-        db.close();
 
         return insert != -1;
     }
 
+    /**
+     * Writes the image to the image store, unless it is already there, and points its row at the
+     * stored file. The file the row pointed to before is removed if nothing else uses it.
+     *
+     * @param image The image to save
+     *
+     * @return Whether the image was saved
+     */
     public boolean setImage(Image image) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        Image image2 = getImage(image.getId());
+        String hash = image.getStoredHash(mImageStore);
+        if(hash == null) {
+            hash = storeImage(image);
+            if(hash == null)
+                return false;
+        }
+
+        SQLiteDatabase db = mConnection.getWriteSession();
+        String previousHash = getImageHash(db, image.getId());
         ContentValues values = new ContentValues();
         values.put(COLUMN_GUID, image.getId().toString());
-        values.put(STORY_IMAGE_COLUMN_IMAGE, image.getEncodedBitmap());
-        long inserted;
-        if(image2 == null) {
-            inserted = db.insert(STORY_IMAGE_TABLE_NAME, null, values);
-            db.close();
-            return inserted != -1;
+        values.put(STORY_IMAGE_COLUMN_HASH, hash);
+        values.put(STORY_IMAGE_COLUMN_SIZE, mImageStore.size(hash));
+        boolean upserted = db.insertWithOnConflict(STORY_IMAGE_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE) != -1;
+
+        if(!upserted)
+            return false;
+        image.setStored(mImageStore, hash);
+        if(previousHash != null && !previousHash.equals(hash))
+            releaseImageFile(db, previousHash);
+        return true;
+    }
+
+    /**
+     * Writes the bytes of an image to the image store
+     *
+     * @param image The image to store
+     *
+     * @return The hash of the stored file, or null if it couldn't be stored
+     */
+    private String storeImage(Image image) {
+        byte[] bytes = image.getBytes();
+        if(bytes == null) {
+            Log.e(TAG, "Image " + image.getId() + " has no data");
+            return null;
+        }
+
+        try {
+            return mImageStore.put(bytes);
+        } catch (IOException e) {
+            Log.e(TAG, "Error storing image " + image.getId(), e);
+            return null;
+        }
+    }
+
+    private String getImageHash(SQLiteDatabase db, UUID id) {
+        Cursor cursor = db.query(STORY_IMAGE_TABLE_NAME,
+                new String[] {STORY_IMAGE_COLUMN_HASH},
+                COLUMN_GUID + " = ?",
+                new String[] {id.toString()},
+                null,
+                null,
+                null);
+        String hash = cursor.moveToFirst() ? cursor.getString(0) : null;
+        cursor.close();
+        return hash;
+    }
+
+    /**
+     * Deletes an image file once no StoryImage row refers to it anymore
+     *
+     * @return Whether the file was deleted
+     */
+    private boolean releaseImageFile(SQLiteDatabase db, String hash) {
+        long references = DatabaseUtils.queryNumEntries(db, STORY_IMAGE_TABLE_NAME,
+                STORY_IMAGE_COLUMN_HASH + " = ?", new String[] {hash});
+        if(references == 0 && mImageStore.delete(hash)) {
+            Log.v(TAG, "Image file " + hash + " deleted");
+            return true;
+        }
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage#collectGarbage(long)
+     */
+    @Override
+    public MaintenanceReport collectGarbage(long timeBudgetMillis) {
+        long deadline = SystemClock.uptimeMillis() + timeBudgetMillis;
+        MaintenanceReport report = new MaintenanceReport();
+        Set<String> hashes = new HashSet<String>();
+        boolean successful = false;
+
+        // Marking and sweeping rows share one write transaction so no save lands in between
+        SQLiteDatabase db = mConnection.beginWrite();
+        try {
+            Set<UUID> marked = markImages(db, deadline);
+            if(marked == null) {
+                Log.v(TAG, "Out of time marking images");
+                return report;
+            }
+
+            List<UUID> orphans = new ArrayList<UUID>();
+            Cursor cursor = db.query(STORY_IMAGE_TABLE_NAME, new String[] {COLUMN_GUID}, null, null, null, null, null);
+            while(cursor.moveToNext()) {
+                UUID imageId = UUID.fromString(cursor.getString(0));
+                if(!marked.contains(imageId))
+                    orphans.add(imageId);
+            }
+            cursor.close();
+
+            deleteImageRows(db, orphans, hashes);
+            report.imagesDeleted = orphans.size();
+            successful = true;
+        }
+        finally {
+            mConnection.endWrite(successful);
+        }
+
+        db = mConnection.getWriteSession();
+        for(String hash : hashes) {
+            long size = mImageStore.size(hash);
+            if(releaseImageFile(db, hash)) {
+                report.filesDeleted++;
+                report.bytesReclaimed += size;
+            }
+        }
+        if(SystemClock.uptimeMillis() > deadline)
+            return report;
+
+        sweepImageFiles(db, report);
+        if(SystemClock.uptimeMillis() > deadline)
+            return report;
+
+        compact(db, report);
+        report.complete = true;
+        Log.v(TAG, "Garbage collected: " + report);
+        return report;
+    }
+
+    /**
+     * Collects the ids of every image a story thumbnail or fragment refers to
+     *
+     * @return The referenced image ids, or null if the deadline passed first
+     */
+    private Set<UUID> markImages(SQLiteDatabase db, long deadline) {
+        Set<UUID> marked = new HashSet<UUID>();
+        Cursor cursor = db.query(STORY_TABLE_NAME, new String[] {STORY_COLUMN_THUMBNAIL},
+                STORY_COLUMN_THUMBNAIL + " IS NOT NULL", null, null, null, null);
+        while(cursor.moveToNext()) {
+            marked.add(UUID.fromString(cursor.getString(0)));
         }
-        else {
-            inserted = db.update(STORY_IMAGE_TABLE_NAME, values, COLUMN_GUID + " = ?",
-                    new String[] {image.getId().toString()});
-            db.close();
-            return inserted == 1;
+        cursor.close();
+
+        cursor = db.query(STORYFRAGMENT_TABLE_NAME, new String[] {STORYFRAGMENT_COLUMN_IMAGES}, null, null,
+                null, null, null);
+        try {
+            while(cursor.moveToNext()) {
+                if(SystemClock.uptimeMillis() > deadline)
+                    return null;
+                marked.addAll(getFragmentImageIds(cursor));
+            }
         }
+        finally {
+            cursor.close();
+        }
+        return marked;
+    }
+
+    /**
+     * Deletes image files no StoryImage row refers to, like those left by a crash between
+     * storing an image and committing its row
+     */
+    private void sweepImageFiles(SQLiteDatabase db, MaintenanceReport report) {
+        Set<String> referenced = new HashSet<String>();
+        Cursor cursor = db.query(true, STORY_IMAGE_TABLE_NAME, new String[] {STORY_IMAGE_COLUMN_HASH},
+                STORY_IMAGE_COLUMN_HASH + " IS NOT NULL", null, null, null, null, null);
+        while(cursor.moveToNext()) {
+            referenced.add(cursor.getString(0));
+        }
+        cursor.close();
+
+        long graceEnd = System.currentTimeMillis() - IMAGE_FILE_GRACE_MILLIS;
+        for(String hash : mImageStore.list()) {
+            if(referenced.contains(hash) || mImageStore.lastModified(hash) > graceEnd)
+                continue;
+            long size = mImageStore.size(hash);
+            if(mImageStore.delete(hash)) {
+                report.filesDeleted++;
+                report.bytesReclaimed += size;
+            }
+        }
+    }
+
+    /**
+     * Vacuums and analyzes the database once enough of its pages are free
+     */
+    private void compact(SQLiteDatabase db, MaintenanceReport report) {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if(pageCount == 0 || freePages < pageCount * VACUUM_FREE_PAGE_RATIO)
+            return;
+
+        Log.v(TAG, "Vacuuming DB, " + freePages + " of " + pageCount + " pages free");
+        db.execSQL("VACUUM");
+        db.execSQL("ANALYZE");
+        long vacuumedPageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        report.bytesReclaimed += Math.max(0, pageCount - vacuumedPageCount) * pageSize;
+        report.vacuumed = true;
     }
 
     public boolean setImages(ArrayList<Image> images) {
@@ -590,29 +1382,64 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#deleteStory(java.util.UUID)
 	 */
     public boolean deleteStory(UUID id) {
-        boolean fragments;
-        fragments = deleteStoryFragments(id);
-        deleteBookmarkByStory(id);
-        deleteAuthoredStory(id);
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        int story;
-        story = db.delete(STORY_TABLE_NAME, COLUMN_GUID + " = ?", new String[] {id.toString()});
-        Log.v(TAG, story + " deleted, had UUID " + id);
-        db.close();
-        return story == 1 && fragments;
+        String[] storyId = {id.toString()};
+        Set<String> hashes = new HashSet<String>();
+        int story, fragments;
+        boolean successful = false;
+
+        // the story, its fragments, bookmark, authored marker and images go in one commit
+        SQLiteDatabase db = mConnection.beginWrite();
+        try {
+            Set<UUID> imageIds = getFragmentImageIds(db, STORYFRAGMENT_COLUMN_STORYID + " = ?", storyId);
+            Cursor cursor = db.query(STORY_TABLE_NAME, new String[] {STORY_COLUMN_THUMBNAIL}, COLUMN_GUID + " = ?",
+                    storyId, null, null, null);
+            while(cursor.moveToNext()) {
+                if(!cursor.isNull(0))
+                    imageIds.add(UUID.fromString(cursor.getString(0)));
+            }
+            cursor.close();
+
+            fragments = db.delete(STORYFRAGMENT_TABLE_NAME, STORYFRAGMENT_COLUMN_STORYID + " = ?", storyId);
+            db.delete(BOOKMARK_TABLE_NAME, BOOKMARK_COLUMN_STORYID + " = ?", storyId);
+            db.delete(READING_TRAIL_TABLE_NAME, BOOKMARK_COLUMN_STORYID + " = ?", storyId);
+            db.delete(AUTHORED_STORY_TABLE_NAME, COLUMN_GUID + " = ?", storyId);
+            story = db.delete(STORY_TABLE_NAME, COLUMN_GUID + " = ?", storyId);
+            deleteImageRows(db, imageIds, hashes);
+            successful = true;
+        }
+        finally {
+            mConnection.endWrite(successful);
+        }
+
+        releaseImageFiles(hashes);
+        Log.v(TAG, story + " deleted with " + fragments + " fragments and " + hashes.size()
+                + " images, had UUID " + id);
+        return story == 1 && fragments > 0;
     }
 
 	/* (non-Javadoc)
 	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#deleteStoryFragments(java.util.UUID)
 	 */
     public boolean deleteStoryFragments(UUID storyID) {
+        String[] storyId = {storyID.toString()};
+        Set<String> hashes = new HashSet<String>();
         int fragments;
-        deleteBookmarkByStory(storyID);
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        fragments = db.delete(STORYFRAGMENT_TABLE_NAME, STORYFRAGMENT_COLUMN_STORYID + " = ?", new String[] {storyID.toString()});
-        Log.v(TAG, fragments + " deleted from DB, all with StoryID " + storyID);
-        db.close();
+        boolean successful = false;
+
+        SQLiteDatabase db = mConnection.beginWrite();
+        try {
+            Set<UUID> imageIds = getFragmentImageIds(db, STORYFRAGMENT_COLUMN_STORYID + " = ?", storyId);
+            db.delete(BOOKMARK_TABLE_NAME, BOOKMARK_COLUMN_STORYID + " = ?", storyId);
+            fragments = db.delete(STORYFRAGMENT_TABLE_NAME, STORYFRAGMENT_COLUMN_STORYID + " = ?", storyId);
+            deleteImageRows(db, imageIds, hashes);
+            successful = true;
+        }
+        finally {
+            mConnection.endWrite(successful);
+        }
 
+        releaseImageFiles(hashes);
+        Log.v(TAG, fragments + " deleted from DB, all with StoryID " + storyID);
         return fragments > 0;
     }
 
@@ -620,25 +1447,85 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#deleteStoryFragment(java.util.UUID)
 	 */
     public boolean deleteStoryFragment(UUID fragmentID) {
+        String[] fragmentId = {fragmentID.toString()};
+        Set<String> hashes = new HashSet<String>();
         int fragment;
-        deleteBookmarkByFragment(fragmentID);
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        fragment = db.delete(STORYFRAGMENT_TABLE_NAME, COLUMN_GUID + " = ?", new String[] {fragmentID.toString()});
-        Log.v(TAG, fragment + " fragment deleted, with fragmentID " + fragmentID);
-        db.close();
+        boolean successful = false;
+
+        SQLiteDatabase db = mConnection.beginWrite();
+        try {
+            Set<UUID> imageIds = getFragmentImageIds(db, COLUMN_GUID + " = ?", fragmentId);
+            db.delete(BOOKMARK_TABLE_NAME, BOOKMARK_COLUMN_FRAGMENTID + " = ?", fragmentId);
+            fragment = db.delete(STORYFRAGMENT_TABLE_NAME, COLUMN_GUID + " = ?", fragmentId);
+            deleteImageRows(db, imageIds, hashes);
+            successful = true;
+        }
+        finally {
+            mConnection.endWrite(successful);
+        }
 
+        releaseImageFiles(hashes);
+        Log.v(TAG, fragment + " fragment deleted, with fragmentID " + fragmentID);
         return fragment == 1;
     }
 
+    /**
+     * Collects the ids of every image used by the matching fragments
+     */
+    private Set<UUID> getFragmentImageIds(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Set<UUID> imageIds = new HashSet<UUID>();
+        Cursor cursor = db.query(STORYFRAGMENT_TABLE_NAME, new String[] {STORYFRAGMENT_COLUMN_IMAGES}, selection,
+                selectionArgs, null, null, null);
+        while(cursor.moveToNext()) {
+            imageIds.addAll(getFragmentImageIds(cursor));
+        }
+        cursor.close();
+        return imageIds;
+    }
+
+    /**
+     * Deletes StoryImage rows inside the caller's transaction. Their files are only released
+     * once it commits, since a rollback brings the rows back.
+     *
+     * @param hashes Receives the hashes of the deleted images
+     */
+    private void deleteImageRows(SQLiteDatabase db, Collection<UUID> imageIds, Set<String> hashes) {
+        List<String> ids = new ArrayList<String>(imageIds.size());
+        for(UUID imageId : imageIds) {
+            ids.add(imageId.toString());
+        }
+
+        for(int start = 0; start < ids.size(); start += MAX_SQL_VARIABLES) {
+            List<String> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_SQL_VARIABLES));
+            String selection = COLUMN_GUID + " IN (" + makePlaceholders(chunk.size()) + ")";
+            String[] args = chunk.toArray(new String[chunk.size()]);
+
+            Cursor cursor = db.query(STORY_IMAGE_TABLE_NAME, new String[] {STORY_IMAGE_COLUMN_HASH}, selection, args,
+                    null, null, null);
+            while(cursor.moveToNext()) {
+                if(!cursor.isNull(0))
+                    hashes.add(cursor.getString(0));
+            }
+            cursor.close();
+            db.delete(STORY_IMAGE_TABLE_NAME, selection, args);
+        }
+    }
+
+    private void releaseImageFiles(Set<String> hashes) {
+        SQLiteDatabase db = mConnection.getWriteSession();
+        for(String hash : hashes) {
+            releaseImageFile(db, hash);
+        }
+    }
+
     /* (non-Javadoc)
 	 * @see ca.cmput301f13t03.adventure_datetime.model.ILocalDatabase#deleteBookmarkByStory(java.util.UUID)
 	 */
     public boolean deleteBookmarkByStory(UUID storyID) {
         int bookmark;
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteDatabase db = mConnection.getWriteSession();
         bookmark = db.delete(BOOKMARK_TABLE_NAME, BOOKMARK_COLUMN_STORYID + " = ?", new String[] {storyID.toString()});
         Log.v(TAG, bookmark + " bookmark deleted, with storyID " + storyID);
-        db.close();
         return bookmark == 1;
     }
 
@@ -647,34 +1534,36 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 */
     public boolean deleteBookmarkByFragment(UUID fragmentID) {
         int bookmark;
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteDatabase db = mConnection.getWriteSession();
         bookmark = db.delete(BOOKMARK_TABLE_NAME, BOOKMARK_COLUMN_FRAGMENTID + " = ?", new String[] {fragmentID.toString()});
         Log.v(TAG, bookmark + " bookmark deleted, with fragmentID " + fragmentID);
-        db.close();
         return bookmark == 1;
     }
 
     @Override
     public boolean deleteAuthoredStory(UUID storyID) {
         int authoredStory;
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteDatabase db = mConnection.getWriteSession();
         authoredStory = db.delete(AUTHORED_STORY_TABLE_NAME, COLUMN_GUID + " = ?", new String[] {storyID.toString()});
         Log.v(TAG, authoredStory + " authored story deleted, with storyId " + storyID);
-        db.close();
         return authoredStory == 1;
     }
 
     public boolean deleteImage(UUID id) {
         int images;
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteDatabase db = mConnection.getWriteSession();
+        String hash = getImageHash(db, id);
         images = db.delete(STORY_IMAGE_TABLE_NAME, COLUMN_GUID + " = ?", new String[] {id.toString()});
         Log.v(TAG, images + " images deleted, with UUID " + id);
+        if(hash != null)
+            releaseImageFile(db, hash);
 
         return images != 0;
     }
 
 	/**
-	 * Creates story from a cursor
+	 * Creates story from a cursor over {@link #SELECT_STORIES_WITH_THUMBNAILS}. Fragment ids are
+	 * not loaded here, only the head fragment is added.
 	 *
 	 * @param cursor A Cursor pointing to a Story
 	 *
@@ -693,18 +1582,38 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 		synopsis = cursor.getString(cursor.getColumnIndex(StoryDB.STORY_COLUMN_SYNOPSIS));
 		timestamp = cursor.getLong(cursor.getColumnIndex(StoryDB.STORY_COLUMN_TIMESTAMP));
 
-        thumbnail = getImage(id);
-		
-		Story newStory = new Story(headFragmentId, id, author, timestamp, synopsis, thumbnail, title);
-		
-		ArrayList<UUID> referencedFragments = this.getStoryFragmentIDs(id);
-		
-		for(UUID frag : referencedFragments)
-		{
-			newStory.addFragment(frag);
-		}
-		
-		return newStory;
+        int thumbnailHash = cursor.getColumnIndex(STORY_COLUMN_THUMBNAIL_HASH);
+        if(cursor.isNull(thumbnailHash))
+            thumbnail = null;
+        else
+            thumbnail = new Image(UUID.fromString(cursor.getString(cursor.getColumnIndex(STORY_COLUMN_THUMBNAIL))),
+                    mImageStore, cursor.getString(thumbnailHash));
+
+		Story story = new Story(headFragmentId, id, author, timestamp, synopsis, thumbnail, title);
+		story.markSaved();
+		return story;
+	}
+
+	/**
+	 * Creates a StorySummary from a cursor over {@link #SELECT_STORY_SUMMARIES}
+	 *
+	 * @param cursor A Cursor pointing to a Story summary
+	 *
+	 * @return A StorySummary whose thumbnail is read lazily
+	 */
+	private StorySummary createStorySummary(Cursor cursor) {
+		Image thumbnail = null;
+		int thumbnailHash = cursor.getColumnIndex(STORY_COLUMN_THUMBNAIL_HASH);
+		if(!cursor.isNull(thumbnailHash))
+			thumbnail = new Image(UUID.fromString(cursor.getString(cursor.getColumnIndex(STORY_COLUMN_THUMBNAIL))),
+					mImageStore, cursor.getString(thumbnailHash));
+
+		return new StorySummary(UUID.fromString(cursor.getString(cursor.getColumnIndex(COLUMN_GUID))),
+				cursor.getString(cursor.getColumnIndex(STORY_COLUMN_TITLE)),
+				cursor.getString(cursor.getColumnIndex(STORY_COLUMN_AUTHOR)),
+				cursor.getLong(cursor.getColumnIndex(STORY_COLUMN_TIMESTAMP)),
+				cursor.getInt(cursor.getColumnIndex(STORY_COLUMN_FRAGMENT_COUNT)),
+				thumbnail);
 	}
 
 	/**
@@ -714,12 +1623,11 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 	 *
 	 * @return A StoryFragment instance from the Database
 	 */
-	private StoryFragment createStoryFragment(Cursor cursor) {
+	private StoryFragment createStoryFragment(Cursor cursor, Map<UUID, Image> resolvedImages) {
 		UUID storyID, fragmentID;
 		String storyText;
 		ArrayList<Choice> choices;
-        ArrayList<Image> images;
-        ArrayList<UUID> uuids;
+        ArrayList<Image> images = new ArrayList<Image>();
 		storyID = UUID.fromString(cursor.getString(cursor.getColumnIndex(StoryDB.STORYFRAGMENT_COLUMN_STORYID)));
 		fragmentID = UUID.fromString(cursor.getString(cursor.getColumnIndex(StoryDB.COLUMN_GUID)));
 		storyText = cursor.getString(cursor.getColumnIndex(StoryDB.STORYFRAGMENT_COLUMN_CONTENT));
@@ -727,14 +1635,31 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 		Gson gson = new Gson();
 		Type collectionType = new TypeToken<Collection<Choice>>(){}.getType();
 		choices = gson.fromJson(json, collectionType);
-        json = cursor.getString(cursor.getColumnIndex(STORYFRAGMENT_COLUMN_IMAGES));
-        collectionType = new TypeToken<Collection<UUID>>(){}.getType();
-        uuids = gson.fromJson(json, collectionType);
-        images = getImages(uuids);
+        for(UUID imageId : getFragmentImageIds(cursor)) {
+            Image image = resolvedImages.get(imageId);
+            if(image != null)
+                images.add(image);
+        }
 
-		return new StoryFragment(storyID, fragmentID, storyText, images, choices);
+		StoryFragment fragment = new StoryFragment(storyID, fragmentID, storyText, images, choices);
+		fragment.markSaved();
+		return fragment;
 	}
 
+    /**
+     * Reads the ids of the images referenced by a StoryFragment row
+     *
+     * @param cursor A Cursor pointing to a StoryFragment
+     *
+     * @return The image ids, empty if there are none
+     */
+    private ArrayList<UUID> getFragmentImageIds(Cursor cursor) {
+        String json = cursor.getString(cursor.getColumnIndex(STORYFRAGMENT_COLUMN_IMAGES));
+        Type collectionType = new TypeToken<Collection<UUID>>(){}.getType();
+        ArrayList<UUID> uuids = new Gson().fromJson(json, collectionType);
+        return uuids == null ? new ArrayList<UUID>() : uuids;
+    }
+
 	/**
 	 * Creates a Bookmark from a cursor
 	 *
@@ -758,18 +1683,23 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 
     private Image createImage(Cursor cursor) {
         UUID id;
-        String bitmap;
+        String hash;
         id = UUID.fromString(cursor.getString(cursor.getColumnIndex(COLUMN_GUID)));
-        bitmap = cursor.getString(cursor.getColumnIndex(STORY_IMAGE_COLUMN_IMAGE));
+        hash = cursor.getString(cursor.getColumnIndex(STORY_IMAGE_COLUMN_HASH));
 
-        return new Image(id, bitmap);
+        return new Image(id, mImageStore, hash);
     }
 
 	public class StoryDBHelper extends SQLiteOpenHelper {
 
-		public static final int DATABASE_VERSION = 7;
+		public static final int DATABASE_VERSION = 13;
 		public static final String DATABASE_NAME = "adventure.database";
 
+		/**
+		 * The oldest version whose schema the migrations know how to carry forward
+		 */
+		private static final int FIRST_MIGRATABLE_VERSION = 7;
+
 		private static final String TAG = "StoryDBHelper";
 
 		private static final String CREATE_STORY_TABLE =
@@ -821,7 +1751,114 @@ public class StoryDB implements BaseColumns, ILocalStorage {
                 "CREATE TABLE " + STORY_IMAGE_TABLE_NAME + " ("
                 + _ID + " INTEGER PRIMARY KEY, "
                 + COLUMN_GUID + " TEXT, "
-                + STORY_IMAGE_COLUMN_IMAGE + " TEXT)";
+                + STORY_IMAGE_COLUMN_HASH + " TEXT, "
+                + STORY_IMAGE_COLUMN_SIZE + " INTEGER)";
+
+        /**
+         * Append only, one row for every fragment read. The rowid keeps the order they were read in.
+         */
+        private static final String CREATE_READING_TRAIL_TABLE =
+                "CREATE TABLE " + READING_TRAIL_TABLE_NAME + " ("
+                + _ID + " INTEGER PRIMARY KEY, "
+                + BOOKMARK_COLUMN_STORYID + " TEXT, "
+                + BOOKMARK_COLUMN_FRAGMENTID + " TEXT, "
+                + BOOKMARK_COLUMN_DATE + " INTEGER)";
+
+        /**
+         * Kept out of CREATE_INDEXES, which older migrations run before this table exists
+         */
+        private static final String CREATE_READING_TRAIL_INDEX =
+                "CREATE INDEX IF NOT EXISTS " + READING_TRAIL_TABLE_NAME + "_" + BOOKMARK_COLUMN_STORYID
+                + " ON " + READING_TRAIL_TABLE_NAME + "(" + BOOKMARK_COLUMN_STORYID + ")";
+
+        /**
+         * The unique indexes double as the conflict targets of the INSERT OR REPLACE upserts
+         */
+        private final String[] CREATE_INDEXES = {
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + STORY_TABLE_NAME + "_" + COLUMN_GUID
+                + " ON " + STORY_TABLE_NAME + "(" + COLUMN_GUID + ")",
+                "CREATE INDEX IF NOT EXISTS " + STORY_TABLE_NAME + "_" + STORY_COLUMN_TIMESTAMP
+                + " ON " + STORY_TABLE_NAME + "(" + STORY_COLUMN_TIMESTAMP + ")",
+                "CREATE INDEX IF NOT EXISTS " + STORY_TABLE_NAME + "_" + STORY_COLUMN_TITLE
+                + " ON " + STORY_TABLE_NAME + "(" + STORY_COLUMN_TITLE + " COLLATE NOCASE)",
+                "CREATE INDEX IF NOT EXISTS " + STORY_TABLE_NAME + "_" + STORY_COLUMN_AUTHOR
+                + " ON " + STORY_TABLE_NAME + "(" + STORY_COLUMN_AUTHOR + " COLLATE NOCASE)",
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + STORYFRAGMENT_TABLE_NAME + "_" + COLUMN_GUID
+                + " ON " + STORYFRAGMENT_TABLE_NAME + "(" + COLUMN_GUID + ")",
+                "CREATE INDEX IF NOT EXISTS " + STORYFRAGMENT_TABLE_NAME + "_" + STORYFRAGMENT_COLUMN_STORYID
+                + " ON " + STORYFRAGMENT_TABLE_NAME + "(" + STORYFRAGMENT_COLUMN_STORYID + ")",
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + BOOKMARK_TABLE_NAME + "_" + BOOKMARK_COLUMN_STORYID
+                + " ON " + BOOKMARK_TABLE_NAME + "(" + BOOKMARK_COLUMN_STORYID + ")",
+                "CREATE INDEX IF NOT EXISTS " + BOOKMARK_TABLE_NAME + "_" + BOOKMARK_COLUMN_FRAGMENTID
+                + " ON " + BOOKMARK_TABLE_NAME + "(" + BOOKMARK_COLUMN_FRAGMENTID + ")",
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + AUTHORED_STORY_TABLE_NAME + "_" + COLUMN_GUID
+                + " ON " + AUTHORED_STORY_TABLE_NAME + "(" + COLUMN_GUID + ")",
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + STORY_IMAGE_TABLE_NAME + "_" + COLUMN_GUID
+                + " ON " + STORY_IMAGE_TABLE_NAME + "(" + COLUMN_GUID + ")"
+        };
+
+        /**
+         * Title, Author and Synopsis are filled for story documents and Content for fragment
+         * documents. StorySearchDocument maps each docid to the story it belongs to.
+         */
+        private static final String CREATE_SEARCH_TABLE =
+                "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4("
+                + STORY_COLUMN_TITLE + ", " + STORY_COLUMN_AUTHOR + ", " + STORY_COLUMN_SYNOPSIS + ", "
+                + STORYFRAGMENT_COLUMN_CONTENT + ")";
+
+        private static final String CREATE_SEARCH_DOCUMENT_TABLE =
+                "CREATE TABLE " + SEARCH_DOCUMENT_TABLE_NAME + " ("
+                + "docid INTEGER PRIMARY KEY, "
+                + COLUMN_GUID + " TEXT UNIQUE, "
+                + SEARCH_DOCUMENT_COLUMN_STORYID + " TEXT)";
+
+        private static final String DELETE_SEARCH_DOCUMENT =
+                "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid IN (SELECT docid FROM "
+                + SEARCH_DOCUMENT_TABLE_NAME + " WHERE " + COLUMN_GUID + " = old." + COLUMN_GUID + "); "
+                + "DELETE FROM " + SEARCH_DOCUMENT_TABLE_NAME + " WHERE " + COLUMN_GUID + " = old." + COLUMN_GUID + "; ";
+
+        private static final String INDEX_STORY =
+                "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid IN (SELECT docid FROM "
+                + SEARCH_DOCUMENT_TABLE_NAME + " WHERE " + COLUMN_GUID + " = new." + COLUMN_GUID + "); "
+                + "INSERT OR REPLACE INTO " + SEARCH_DOCUMENT_TABLE_NAME + " (docid, " + COLUMN_GUID + ", "
+                + SEARCH_DOCUMENT_COLUMN_STORYID + ") VALUES ((SELECT docid FROM " + SEARCH_DOCUMENT_TABLE_NAME
+                + " WHERE " + COLUMN_GUID + " = new." + COLUMN_GUID + "), new." + COLUMN_GUID + ", new."
+                + COLUMN_GUID + "); "
+                + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, " + STORY_COLUMN_TITLE + ", " + STORY_COLUMN_AUTHOR
+                + ", " + STORY_COLUMN_SYNOPSIS + ") VALUES (last_insert_rowid(), new." + STORY_COLUMN_TITLE
+                + ", new." + STORY_COLUMN_AUTHOR + ", new." + STORY_COLUMN_SYNOPSIS + "); ";
+
+        private static final String INDEX_STORYFRAGMENT =
+                "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid IN (SELECT docid FROM "
+                + SEARCH_DOCUMENT_TABLE_NAME + " WHERE " + COLUMN_GUID + " = new." + COLUMN_GUID + "); "
+                + "INSERT OR REPLACE INTO " + SEARCH_DOCUMENT_TABLE_NAME + " (docid, " + COLUMN_GUID + ", "
+                + SEARCH_DOCUMENT_COLUMN_STORYID + ") VALUES ((SELECT docid FROM " + SEARCH_DOCUMENT_TABLE_NAME
+                + " WHERE " + COLUMN_GUID + " = new." + COLUMN_GUID + "), new." + COLUMN_GUID + ", new."
+                + STORYFRAGMENT_COLUMN_STORYID + "); "
+                + "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, " + STORYFRAGMENT_COLUMN_CONTENT
+                + ") VALUES (last_insert_rowid(), new." + STORYFRAGMENT_COLUMN_CONTENT + "); ";
+
+        /**
+         * Keeps the search index in step with every write to Story and StoryFragment. An INSERT OR
+         * REPLACE only fires the insert trigger, which is why it replaces the document itself.
+         * Updates reindex only when a searched column changes.
+         */
+        private final String[] CREATE_SEARCH_TRIGGERS = {
+                "CREATE TRIGGER IF NOT EXISTS " + STORY_TABLE_NAME + "_SearchInsert AFTER INSERT ON "
+                + STORY_TABLE_NAME + " BEGIN " + INDEX_STORY + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + STORY_TABLE_NAME + "_SearchUpdate AFTER UPDATE OF "
+                + COLUMN_GUID + ", " + STORY_COLUMN_TITLE + ", " + STORY_COLUMN_AUTHOR + ", " + STORY_COLUMN_SYNOPSIS
+                + " ON " + STORY_TABLE_NAME + " BEGIN " + DELETE_SEARCH_DOCUMENT + INDEX_STORY + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + STORY_TABLE_NAME + "_SearchDelete AFTER DELETE ON "
+                + STORY_TABLE_NAME + " BEGIN " + DELETE_SEARCH_DOCUMENT + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + STORYFRAGMENT_TABLE_NAME + "_SearchInsert AFTER INSERT ON "
+                + STORYFRAGMENT_TABLE_NAME + " BEGIN " + INDEX_STORYFRAGMENT + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + STORYFRAGMENT_TABLE_NAME + "_SearchUpdate AFTER UPDATE OF "
+                + COLUMN_GUID + ", " + STORYFRAGMENT_COLUMN_STORYID + ", " + STORYFRAGMENT_COLUMN_CONTENT
+                + " ON " + STORYFRAGMENT_TABLE_NAME + " BEGIN " + DELETE_SEARCH_DOCUMENT + INDEX_STORYFRAGMENT + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + STORYFRAGMENT_TABLE_NAME + "_SearchDelete AFTER DELETE ON "
+                + STORYFRAGMENT_TABLE_NAME + " BEGIN " + DELETE_SEARCH_DOCUMENT + "END"
+        };
 
 		private static final String DELETE_STORY_TABLE =
 				"DROP TABLE IF EXISTS " + STORY_TABLE_NAME;
@@ -838,6 +1875,15 @@ public class StoryDB implements BaseColumns, ILocalStorage {
         private static final String DELETE_STORY_IMAGE_TABLE =
                 "DROP TABLE IF EXISTS " + STORY_IMAGE_TABLE_NAME;
 
+        private static final String DELETE_READING_TRAIL_TABLE =
+                "DROP TABLE IF EXISTS " + READING_TRAIL_TABLE_NAME;
+
+        private static final String DELETE_SEARCH_TABLE =
+                "DROP TABLE IF EXISTS " + SEARCH_TABLE_NAME;
+
+        private static final String DELETE_SEARCH_DOCUMENT_TABLE =
+                "DROP TABLE IF EXISTS " + SEARCH_DOCUMENT_TABLE_NAME;
+
 		public StoryDBHelper(Context context) {
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
 		}
@@ -850,24 +1896,284 @@ public class StoryDB implements BaseColumns, ILocalStorage {
 			db.execSQL(CREATE_BOOKMARK_TABLE);
             db.execSQL(CREATE_AUTHORED_STORY_TABLE);
             db.execSQL(CREATE_STORY_IMAGE_TABLE);
+            db.execSQL(CREATE_READING_TRAIL_TABLE);
+            db.execSQL(CREATE_READING_TRAIL_INDEX);
+            createIndexes(db);
+            createSearchIndex(db);
 			populateDB(db);
 		}
 
+		/**
+		 * Runs every migration newer than the DB in order, so the data survives any upgrade
+		 * from version {@link #FIRST_MIGRATABLE_VERSION} on. Only older DBs are rebuilt.
+		 */
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			db.execSQL(DELETE_STORYFRAGMENT_TABLE);
-			db.execSQL(DELETE_STORY_TABLE);
-			db.execSQL(DELETE_BOOKMARK_TABLE);
-            db.execSQL(DELETE_AUTHORED_STORY_TABLE);
-            db.execSQL(DELETE_STORY_IMAGE_TABLE);
+            if(oldVersion < FIRST_MIGRATABLE_VERSION) {
+                Log.w(TAG, "No migration from version " + oldVersion + ", rebuilding DB");
+                dropTables(db);
+                onCreate(db);
+                return;
+            }
+
+            for(Migration migration : MIGRATIONS) {
+                if(migration.version > oldVersion && migration.version <= newVersion) {
+                    migration.run(db);
+                }
+            }
 		}
 
+		/**
+		 * A newer version of the app only ever added to the schema, so the data is left in
+		 * place and whatever this version needs is created if it is missing.
+		 */
 		@Override
 		public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			onUpgrade(db, oldVersion, newVersion);
-
+            Log.w(TAG, "Downgrading DB from version " + oldVersion + " to " + newVersion);
+            createMissingTable(db, STORY_TABLE_NAME, CREATE_STORY_TABLE);
+            createMissingTable(db, STORYFRAGMENT_TABLE_NAME, CREATE_STORYFRAGMENT_TABLE);
+            createMissingTable(db, BOOKMARK_TABLE_NAME, CREATE_BOOKMARK_TABLE);
+            createMissingTable(db, AUTHORED_STORY_TABLE_NAME, CREATE_AUTHORED_STORY_TABLE);
+            createMissingTable(db, STORY_IMAGE_TABLE_NAME, CREATE_STORY_IMAGE_TABLE);
+            createMissingTable(db, READING_TRAIL_TABLE_NAME, CREATE_READING_TRAIL_TABLE);
+            db.execSQL(CREATE_READING_TRAIL_INDEX);
+            createIndexes(db);
+            if(!tableExists(db, SEARCH_TABLE_NAME) || !tableExists(db, SEARCH_DOCUMENT_TABLE_NAME)) {
+                db.execSQL(DELETE_SEARCH_TABLE);
+                db.execSQL(DELETE_SEARCH_DOCUMENT_TABLE);
+                createSearchIndex(db);
+                rebuildSearchIndex(db);
+            }
+            else {
+                createSearchTriggers(db);
+            }
 		}
 
+        /**
+         * One step of the schema, taking the DB from the version before to {@link #version}.
+         * SQLiteOpenHelper runs the whole upgrade in one transaction and only sets the new version
+         * once every step is done, so a failing step rolls all of them back and the next open
+         * retries the upgrade from the old version.
+         */
+        private abstract class Migration {
+            final int version;
+
+            Migration(int version) {
+                this.version = version;
+            }
+
+            abstract void migrate(SQLiteDatabase db);
+
+            void run(SQLiteDatabase db) {
+                Log.v(TAG, "Migrating DB to version " + version);
+                migrate(db);
+            }
+        }
+
+        /**
+         * The migrations in version order. A schema change bumps {@link #DATABASE_VERSION} and
+         * appends its step here, never edits a released one.
+         */
+        private final Migration[] MIGRATIONS = {
+                new Migration(8) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        // Version 7 only lacks the indexes, so keep the data and add them
+                        removeDuplicates(db, STORY_TABLE_NAME, COLUMN_GUID);
+                        removeDuplicates(db, STORYFRAGMENT_TABLE_NAME, COLUMN_GUID);
+                        removeDuplicates(db, BOOKMARK_TABLE_NAME, BOOKMARK_COLUMN_STORYID);
+                        removeDuplicates(db, AUTHORED_STORY_TABLE_NAME, COLUMN_GUID);
+                        removeDuplicates(db, STORY_IMAGE_TABLE_NAME, COLUMN_GUID);
+                        createIndexes(db);
+                    }
+                },
+                // Version 9 only stored images as BLOBs, the next step reads either format
+                new Migration(10) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        moveImagesToStore(db);
+                    }
+                },
+                new Migration(11) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        // Adds the indexes the paged catalogue sorts by
+                        createIndexes(db);
+                    }
+                },
+                new Migration(12) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        createSearchIndex(db);
+                        rebuildSearchIndex(db);
+                    }
+                },
+                new Migration(13) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL(CREATE_READING_TRAIL_TABLE);
+                        db.execSQL(CREATE_READING_TRAIL_INDEX);
+                        // Every trail starts at the bookmark it already had
+                        db.execSQL("INSERT INTO " + READING_TRAIL_TABLE_NAME + " (" + BOOKMARK_COLUMN_STORYID
+                                + ", " + BOOKMARK_COLUMN_FRAGMENTID + ", " + BOOKMARK_COLUMN_DATE + ") SELECT "
+                                + BOOKMARK_COLUMN_STORYID + ", " + BOOKMARK_COLUMN_FRAGMENTID + ", "
+                                + BOOKMARK_COLUMN_DATE + " FROM " + BOOKMARK_TABLE_NAME + " ORDER BY "
+                                + BOOKMARK_COLUMN_DATE);
+                    }
+                }
+        };
+
+        private void dropTables(SQLiteDatabase db) {
+            db.execSQL(DELETE_STORYFRAGMENT_TABLE);
+            db.execSQL(DELETE_STORY_TABLE);
+            db.execSQL(DELETE_BOOKMARK_TABLE);
+            db.execSQL(DELETE_AUTHORED_STORY_TABLE);
+            db.execSQL(DELETE_STORY_IMAGE_TABLE);
+            db.execSQL(DELETE_READING_TRAIL_TABLE);
+            db.execSQL(DELETE_SEARCH_TABLE);
+            db.execSQL(DELETE_SEARCH_DOCUMENT_TABLE);
+        }
+
+        private boolean tableExists(SQLiteDatabase db, String table) {
+            return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                    new String[] {table}) > 0;
+        }
+
+        private void createMissingTable(SQLiteDatabase db, String table, String create) {
+            if(!tableExists(db, table)) {
+                Log.v(TAG, "Creating missing table " + table);
+                db.execSQL(create);
+            }
+        }
+
+        private void createIndexes(SQLiteDatabase db) {
+            for(String index : CREATE_INDEXES) {
+                db.execSQL(index);
+            }
+        }
+
+        private void createSearchIndex(SQLiteDatabase db) {
+            db.execSQL(CREATE_SEARCH_TABLE);
+            db.execSQL(CREATE_SEARCH_DOCUMENT_TABLE);
+            createSearchTriggers(db);
+        }
+
+        private void createSearchTriggers(SQLiteDatabase db) {
+            for(String trigger : CREATE_SEARCH_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+        }
+
+        /**
+         * Indexes every story and fragment already in the DB. The triggers keep the index
+         * current from then on.
+         */
+        private void rebuildSearchIndex(SQLiteDatabase db) {
+            Log.v(TAG, "Building the search index");
+            db.execSQL("DELETE FROM " + SEARCH_TABLE_NAME);
+            db.execSQL("DELETE FROM " + SEARCH_DOCUMENT_TABLE_NAME);
+            db.execSQL("INSERT INTO " + SEARCH_DOCUMENT_TABLE_NAME + " (" + COLUMN_GUID + ", "
+                    + SEARCH_DOCUMENT_COLUMN_STORYID + ") SELECT " + COLUMN_GUID + ", " + COLUMN_GUID + " FROM "
+                    + STORY_TABLE_NAME + " UNION ALL SELECT " + COLUMN_GUID + ", " + STORYFRAGMENT_COLUMN_STORYID
+                    + " FROM " + STORYFRAGMENT_TABLE_NAME);
+            db.execSQL("INSERT INTO " + SEARCH_TABLE_NAME + " (docid, " + STORY_COLUMN_TITLE + ", "
+                    + STORY_COLUMN_AUTHOR + ", " + STORY_COLUMN_SYNOPSIS + ") SELECT d.docid, s." + STORY_COLUMN_TITLE
+                    + ", s." + STORY_COLUMN_AUTHOR + ", s." + STORY_COLUMN_SYNOPSIS + " FROM " + STORY_TABLE_NAME
+                    + " s JOIN " + SEARCH_DOCUMENT_TABLE_NAME + " d ON d." + COLUMN_GUID + " = s." + COLUMN_GUID);
+            db.execSQL("INSERT INTO " + SEARCH_TABLE_NAME + " (docid, " + STORYFRAGMENT_COLUMN_CONTENT
+                    + ") SELECT d.docid, f." + STORYFRAGMENT_COLUMN_CONTENT + " FROM " + STORYFRAGMENT_TABLE_NAME
+                    + " f JOIN " + SEARCH_DOCUMENT_TABLE_NAME + " d ON d." + COLUMN_GUID + " = f." + COLUMN_GUID);
+        }
+
+        /**
+         * Moves every image out of the StoryImage table into the image store and rebuilds the
+         * table with only hashes. Version 8 kept images as Base64 text and version 9 as BLOBs, so
+         * both are handled. Rows are read in chunks since a large image may not fit in a
+         * CursorWindow.
+         */
+        private void moveImagesToStore(SQLiteDatabase db) {
+            Log.v(TAG, "Moving images to the image store");
+            String oldTable = STORY_IMAGE_TABLE_NAME + "_Inline";
+            db.execSQL("ALTER TABLE " + STORY_IMAGE_TABLE_NAME + " RENAME TO " + oldTable);
+            // The index moves with the renamed table, drop it so the new table can have it
+            db.execSQL("DROP INDEX IF EXISTS " + STORY_IMAGE_TABLE_NAME + "_" + COLUMN_GUID);
+            db.execSQL(CREATE_STORY_IMAGE_TABLE);
+            createIndexes(db);
+
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + STORY_IMAGE_TABLE_NAME
+                    + " (" + COLUMN_GUID + ", " + STORY_IMAGE_COLUMN_HASH + ", " + STORY_IMAGE_COLUMN_SIZE
+                    + ") VALUES (?, ?, ?)");
+            Cursor cursor = db.rawQuery("SELECT " + _ID + ", " + COLUMN_GUID + ", typeof(" + STORY_IMAGE_COLUMN_IMAGE
+                    + ") FROM " + oldTable, null);
+            int moved = 0;
+            while(cursor.moveToNext()) {
+                byte[] bytes = readImage(db, oldTable, cursor.getLong(0), "text".equals(cursor.getString(2)));
+                if(bytes == null)
+                    continue;
+
+                String hash;
+                try {
+                    hash = mImageStore.put(bytes);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error moving image " + cursor.getString(1), e);
+                    continue;
+                }
+                insert.bindString(1, cursor.getString(1));
+                insert.bindString(2, hash);
+                insert.bindLong(3, bytes.length);
+                insert.executeInsert();
+                insert.clearBindings();
+                moved++;
+            }
+            Log.v(TAG, moved + " of " + cursor.getCount() + " images moved");
+            cursor.close();
+            insert.close();
+
+            db.execSQL("DROP TABLE " + oldTable);
+        }
+
+        private byte[] readImage(SQLiteDatabase db, String table, long rowId, boolean base64) {
+            final int chunkSize = 512 * 1024;
+            StringBuilder text = new StringBuilder();
+            ByteArrayOutputStream blob = new ByteArrayOutputStream();
+            for(int offset = 1; ; offset += chunkSize) {
+                Cursor cursor = db.rawQuery("SELECT substr(" + STORY_IMAGE_COLUMN_IMAGE + ", " + offset + ", "
+                        + chunkSize + ") FROM " + table + " WHERE " + _ID + " = ?", new String[] {String.valueOf(rowId)});
+                int length = -1;
+                if(cursor.moveToFirst() && !cursor.isNull(0)) {
+                    if(base64) {
+                        String chunk = cursor.getString(0);
+                        text.append(chunk);
+                        length = chunk.length();
+                    } else {
+                        byte[] chunk = cursor.getBlob(0);
+                        blob.write(chunk, 0, chunk.length);
+                        length = chunk.length;
+                    }
+                }
+                cursor.close();
+
+                if(length == -1 && offset == 1)
+                    return null;
+                if(length < chunkSize)
+                    return base64 ? Base64.decode(text.toString(), Base64.DEFAULT) : blob.toByteArray();
+            }
+        }
+
+        private void putStoredImage(ContentValues values, Image image) {
+            String hash = storeImage(image);
+            values.put(STORY_IMAGE_COLUMN_HASH, hash);
+            values.put(STORY_IMAGE_COLUMN_SIZE, hash == null ? 0 : mImageStore.size(hash));
+        }
+
+        /**
+         * Keeps only the most recently inserted row for each key so a unique index can be built
+         */
+        private void removeDuplicates(SQLiteDatabase db, String table, String key) {
+            db.execSQL("DELETE FROM " + table + " WHERE " + _ID + " NOT IN (SELECT MAX(" + _ID + ") FROM "
+                    + table + " GROUP BY " + key + ")");
+        }
+
 		private void populateDB(SQLiteDatabase db) {
 			Bitmap bit = Bitmap.createBitmap(new int[]{Color.BLACK}, 1, 1, Bitmap.Config.ARGB_8888);
 			Story story = new Story(UUID.fromString("5582f797-29b8-4d9d-83bf-88c434c1944a"), UUID.fromString("fc662870-5d6a-4ae2-98f6-0cdfe36013bb"),
@@ -909,7 +2215,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
             Log.d(TAG, String.valueOf(inserted));
             values = new ContentValues();
             values.put(COLUMN_GUID, story.getThumbnail().getId().toString());
-            values.put(STORY_IMAGE_COLUMN_IMAGE, story.getThumbnail().getEncodedBitmap());
+            putStoredImage(values, story.getThumbnail());
             inserted = db.insert(STORY_IMAGE_TABLE_NAME, null, values);
 			Log.d(TAG, String.valueOf(inserted));
 			values = new ContentValues();
@@ -983,7 +2289,7 @@ public class StoryDB implements BaseColumns, ILocalStorage {
             Log.d(TAG, String.valueOf(inserted));
             values = new ContentValues();
             values.put(COLUMN_GUID, story.getThumbnail().getId().toString());
-            values.put(STORY_IMAGE_COLUMN_IMAGE, story.getThumbnail().getEncodedBitmap());
+            putStoredImage(values, story.getThumbnail());
             inserted = db.insert(STORY_IMAGE_TABLE_NAME, null, values);
             Log.d(TAG, String.valueOf(inserted));
             values = new ContentValues();
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * Owns the single SQLiteDatabase used by {@link StoryDB}.
+ *
+ * The database is opened lazily on first use and then kept open for the lifetime of the process,
+ * so callers never pay for repeated open/close cycles. Write-ahead logging is turned on when the
+ * database is opened, which lets readers run alongside a writer instead of blocking on it.
+ *
+ * Read and write sessions both hand back the same connection; the distinction documents intent
+ * and lets write sessions be grouped into a single transaction with {@link #beginWrite()} and
+ * {@link #endWrite(boolean)}. Sessions must never be closed by the caller.
+ */
+class StoryDBConnection {
+
+	private static final String TAG = "StoryDBConnection";
+
+	private final SQLiteOpenHelper mHelper;
+	private SQLiteDatabase mDatabase;
+
+	StoryDBConnection(SQLiteOpenHelper helper) {
+		mHelper = helper;
+	}
+
+	/**
+	 * Gets the shared connection for reading. Do not close it.
+	 *
+	 * @return The open database
+	 */
+	public SQLiteDatabase getReadSession() {
+		return open();
+	}
+
+	/**
+	 * Gets the shared connection for writing. Do not close it.
+	 *
+	 * @return The open database
+	 */
+	public SQLiteDatabase getWriteSession() {
+		return open();
+	}
+
+	/**
+	 * Starts a write transaction on the shared connection. Readers are not blocked while it is open.
+	 * Every call must be paired with {@link #endWrite(boolean)} in a finally block.
+	 *
+	 * @return The open database, inside a transaction
+	 */
+	public SQLiteDatabase beginWrite() {
+		SQLiteDatabase db = open();
+		db.beginTransactionNonExclusive();
+		return db;
+	}
+
+	/**
+	 * Ends a transaction started by {@link #beginWrite()}
+	 *
+	 * @param successful Whether the transaction should be committed, false rolls it back
+	 */
+	public void endWrite(boolean successful) {
+		SQLiteDatabase db = open();
+		if(successful)
+			db.setTransactionSuccessful();
+		db.endTransaction();
+	}
+
+	/**
+	 * Closes the shared connection. Only meant for tests and teardown, the next session reopens it.
+	 */
+	public synchronized void close() {
+		if(mDatabase != null) {
+			mHelper.close();
+			mDatabase = null;
+		}
+	}
+
+	private synchronized SQLiteDatabase open() {
+		if(mDatabase == null || !mDatabase.isOpen()) {
+			mDatabase = mHelper.getWritableDatabase();
+			if(!mDatabase.isReadOnly() && !mDatabase.enableWriteAheadLogging())
+				Log.w(TAG, "Write-ahead logging unavailable, readers will wait on writers");
+			Log.v(TAG, "Database opened");
+		}
+		return mDatabase;
+	}
+}
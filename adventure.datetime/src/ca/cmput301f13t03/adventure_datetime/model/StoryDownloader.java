@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.util.Log;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IDownloadListener;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IWebStorage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads a whole story into local storage.
+ *
+ * Fragments are paged from the server in large batches. While the next page is fetched, the
+ * images of earlier pages are resolved in batched multi-gets on a small pool of workers, with a
+ * semaphore bounding how many batches are in flight. Each batch is written in one transaction once
+ * its images are in, and progress is reported as the writes land.
+ */
+public class StoryDownloader {
+	private static final String TAG = "StoryDownloader";
+	/**
+	 * Fragments asked for in one page
+	 */
+	static final int PAGE_SIZE = 100;
+
+	private final IWebStorage mWebStorage;
+	private final AsyncLocalStorage mStorage;
+	private final ExecutorService mWorkers;
+	private final int mMaxInFlight;
+
+	/**
+	 * @param webStorage Where stories are downloaded from
+	 * @param storage Where they are saved
+	 * @param maxInFlight Most batches having their images fetched at once
+	 */
+	public StoryDownloader(IWebStorage webStorage, AsyncLocalStorage storage, int maxInFlight) {
+		mWebStorage = webStorage;
+		mStorage = storage;
+		mMaxInFlight = maxInFlight;
+		mWorkers = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, TAG + "-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Downloads a story and every fragment of it, blocking until all of it is written. Call this
+	 * from a background thread.
+	 *
+	 * @param story A copy of the story, as fetched from the server. It is written from the storage
+	 *              writer, so nothing else may use it until this returns.
+	 * @param listener Told of progress and completion, from worker threads
+	 * @return True if every fragment was saved
+	 */
+	public boolean download(final Story story, final IDownloadListener listener) {
+		final UUID storyId = story.getId();
+		final int expected = story.getFragmentIds() != null ? story.getFragmentIds().size() : 0;
+		final Semaphore inFlight = new Semaphore(mMaxInFlight);
+		final AtomicInteger saved = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		final List<Future<Boolean>> writes = Collections.synchronizedList(new ArrayList<Future<Boolean>>());
+		List<Future<?>> batches = new ArrayList<Future<?>>();
+
+		try {
+			int from = 0;
+			List<StoryFragment> page;
+			do {
+				page = mWebStorage.getFragmentPage(storyId, from, PAGE_SIZE);
+				from += PAGE_SIZE;
+				if(page == null || page.isEmpty())
+					break;
+
+				inFlight.acquire();
+				if(failed.get()) {
+					inFlight.release();
+					break;
+				}
+				final List<StoryFragment> batch = page;
+				batches.add(mWorkers.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							mWebStorage.loadFragmentImages(batch);
+						} catch(Exception e) {
+							Log.e(TAG, "Failed to fetch images for " + storyId, e);
+							failed.set(true);
+							return;
+						} finally {
+							inFlight.release();
+						}
+
+						// the story goes with every batch, but only the first write has changes to save
+						writes.add(mStorage.setStoryWithFragments(story, batch, new IStorageCallback<Boolean>() {
+							@Override
+							public void OnStorageResult(Boolean result) {
+								if(!result) {
+									failed.set(true);
+									return;
+								}
+								int count = saved.addAndGet(batch.size());
+								listener.OnDownloadProgress(storyId, count, Math.max(expected, count));
+							}
+						}));
+					}
+				}));
+			} while(page.size() == PAGE_SIZE && !failed.get());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failed.set(true);
+		} catch(Exception e) {
+			Log.e(TAG, "Failed to fetch fragments for " + storyId, e);
+			failed.set(true);
+		}
+
+		try {
+			for(Future<?> batch : batches) {
+				batch.get();
+			}
+			synchronized (writes) {
+				for(Future<Boolean> write : writes) {
+					write.get();
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failed.set(true);
+		} catch(Exception e) {
+			Log.e(TAG, "Failed to save " + storyId, e);
+			failed.set(true);
+		}
+
+		boolean succeeded = !failed.get();
+		Log.v(TAG, "Downloaded " + saved.get() + " fragments of " + storyId + (succeeded ? "" : ", with failures"));
+		listener.OnDownloadComplete(storyId, succeeded);
+		return succeeded;
+	}
+}
@@ -38,6 +38,14 @@ import java.util.UUID;
 public class StoryFragment implements Comparable<StoryFragment>
 {
 
+	/**
+	 * Bits of {@link #getChanges()}, one for each column of the StoryFragment that can change
+	 */
+	public static final int CHANGED_STORY = 1;
+	public static final int CHANGED_TEXT = 1 << 1;
+	public static final int CHANGED_CHOICES = 1 << 2;
+	public static final int CHANGED_MEDIA = 1 << 3;
+
 	/**
 	 * The UUID of the story linked to the fragment
 	 */
@@ -62,6 +70,14 @@ public class StoryFragment implements Comparable<StoryFragment>
 	 * The list of choices associated with the fragment
 	 */
 	private ArrayList<Choice> choices;
+	/**
+	 * Whether the fragment matches a row in the local database. False for new and downloaded fragments.
+	 */
+	private transient boolean saved;
+	/**
+	 * The CHANGED_ bits of every field set since the fragment was last loaded or saved
+	 */
+	private transient int changes;
 
     /**
      * Constructor for making StoryFragments, used by @link{StoryDB}
@@ -144,6 +160,8 @@ public class StoryFragment implements Comparable<StoryFragment>
 	 * @param id
 	 */
 	public void setStoryID(UUID id) {
+		if(id == null ? this.storyID != null : !id.equals(this.storyID))
+			changes |= CHANGED_STORY;
 		this.storyID = id;
 	}
 
@@ -162,6 +180,7 @@ public class StoryFragment implements Comparable<StoryFragment>
      */
 	public void setFragmentID() {
 		this.fragmentID = UUID.randomUUID();
+		this.saved = false;
 	}
 
     /**
@@ -190,6 +209,7 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param storyMedia The new list of media
      */
 	public void setStoryMedia(ArrayList<Image> storyMedia) {
+		changes |= CHANGED_MEDIA;
 		this.storyMedia = storyMedia;
 	}
 
@@ -199,6 +219,7 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param media Media to add
      */
 	public void addMedia(Image media) {
+		changes |= CHANGED_MEDIA;
 		storyMedia.add(media);
 	}
 
@@ -208,10 +229,12 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param media The media to remove
      */
 	public void removeMedia(Image media) {
-		storyMedia.remove(media);
+		if(storyMedia.remove(media))
+			changes |= CHANGED_MEDIA;
 	}
 
     public void removeMedia(int media) {
+        changes |= CHANGED_MEDIA;
         storyMedia.remove(media);
     }
 
@@ -241,6 +264,8 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param storyText The text to set to
      */
 	public void setStoryText(String storyText) {
+		if(this.storyText == null ? storyText != null : !this.storyText.equals(storyText))
+			changes |= CHANGED_TEXT;
 		this.storyText = storyText;
 	}
 
@@ -269,6 +294,7 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param choices The list of Choices to be set to
      */
 	public void setChoices(ArrayList<Choice> choices) {
+		changes |= CHANGED_CHOICES;
 		this.choices = choices;
 	}
 
@@ -278,6 +304,7 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param choice The Choice to add
      */
 	public void addChoice(Choice choice) {
+		changes |= CHANGED_CHOICES;
 		choices.add(choice);
 	}
 
@@ -287,7 +314,8 @@ public class StoryFragment implements Comparable<StoryFragment>
      * @param choice The Choice to remove
      */
 	public void removeChoice(Choice choice) {
-		choices.remove(choice);
+		if(choices.remove(choice))
+			changes |= CHANGED_CHOICES;
 	}
 
     /**
@@ -319,6 +347,147 @@ public class StoryFragment implements Comparable<StoryFragment>
 		}
 	}
 
+    /**
+     * Checks whether the fragment or any of its media has to be written to the local database
+     *
+     * @return True if the fragment is new, downloaded, or changed since it was last loaded or saved
+     */
+	public boolean isDirty() {
+		if(!saved || getChanges() != 0)
+			return true;
+		if(storyMedia != null) {
+			for(Image image : storyMedia) {
+				if(image.isDirty())
+					return true;
+			}
+		}
+		return false;
+	}
+
+    /**
+     * Checks whether the fragment has a row in the local database
+     *
+     * @return True if the fragment was loaded from or saved to the local database
+     */
+	public boolean isSaved() {
+		return saved;
+	}
+
+    /**
+     * Gets the columns changed since the fragment was last loaded or saved. Edits to any of
+     * the fragment's Choices count as a change to the choices.
+     *
+     * @return The CHANGED_ bits of the changed columns
+     */
+	public int getChanges() {
+		int result = changes;
+		if(choices != null && (result & CHANGED_CHOICES) == 0) {
+			for(Choice choice : choices) {
+				if(choice != null && choice.isChanged()) {
+					result |= CHANGED_CHOICES;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+    /**
+     * Marks the fragment and its Choices as matching the local database, used by @link{StoryDB}
+     */
+	public void markSaved() {
+		this.saved = true;
+		this.changes = 0;
+		if(choices != null) {
+			for(Choice choice : choices) {
+				if(choice != null)
+					choice.markSaved();
+			}
+		}
+	}
+
+    /**
+     * Copies the row, change bits and media of the fragment for a write on another thread,
+     * used by @link{StoryManager}
+     *
+     * @return A copy that shares nothing the fragment's setters change
+     */
+	StoryFragment copyForSave() {
+		ArrayList<Choice> choicesCopy = null;
+		if(choices != null) {
+			choicesCopy = new ArrayList<Choice>(choices.size());
+			for(Choice choice : choices)
+				choicesCopy.add(choice == null ? null : choice.copy());
+		}
+		ArrayList<Image> mediaCopy = null;
+		if(storyMedia != null) {
+			mediaCopy = new ArrayList<Image>(storyMedia.size());
+			for(Image image : storyMedia)
+				mediaCopy.add(image.copyForSave());
+		}
+		StoryFragment copy = new StoryFragment(storyID, fragmentID, storyText, mediaCopy, choicesCopy);
+		copy.mediaIds = mediaIds == null ? null : new ArrayList<UUID>(mediaIds);
+		copy.saved = saved;
+		copy.changes = changes;
+		return copy;
+	}
+
+    /**
+     * Marks the fragment saved up to a copy that @link{StoryDB} wrote. Columns set again since
+     * the copy was taken keep their change bits, and so do the Choices.
+     *
+     * @param written The copy from {@link #copyForSave()} after it was saved
+     */
+	void markSaved(StoryFragment written) {
+		if(!written.saved || !fragmentID.equals(written.fragmentID))
+			return;
+		this.saved = true;
+		if(storyID == null ? written.storyID == null : storyID.equals(written.storyID))
+			changes &= ~CHANGED_STORY;
+		if(storyText == null ? written.storyText == null : storyText.equals(written.storyText))
+			changes &= ~CHANGED_TEXT;
+		if(sameChoices(choices, written.choices)) {
+			changes &= ~CHANGED_CHOICES;
+			if(choices != null) {
+				for(Choice choice : choices) {
+					if(choice != null)
+						choice.markSaved();
+				}
+			}
+		}
+		if(storyMedia == null || written.storyMedia == null) {
+			if(storyMedia == written.storyMedia)
+				changes &= ~CHANGED_MEDIA;
+			return;
+		}
+		ArrayList<UUID> writtenIds = new ArrayList<UUID>(written.storyMedia.size());
+		for(Image image : written.storyMedia)
+			writtenIds.add(image.getId());
+		ArrayList<UUID> ids = new ArrayList<UUID>(storyMedia.size());
+		for(Image image : storyMedia) {
+			ids.add(image.getId());
+			int index = writtenIds.indexOf(image.getId());
+			if(index != -1)
+				image.markStored(written.storyMedia.get(index));
+		}
+		if(ids.equals(writtenIds))
+			changes &= ~CHANGED_MEDIA;
+	}
+
+	private static boolean sameChoices(ArrayList<Choice> a, ArrayList<Choice> b) {
+		if(a == null || b == null)
+			return a == b;
+		if(a.size() != b.size())
+			return false;
+		for(int i = 0; i < a.size(); i++) {
+			Choice choice = a.get(i);
+			Choice other = b.get(i);
+			if(choice == null ? other != null : other == null || !choice.sameAs(other))
+				return false;
+		}
+		return true;
+	}
+
 	@Override
 	public int compareTo(StoryFragment other) 
 	{
@@ -352,7 +521,7 @@ public class StoryFragment implements Comparable<StoryFragment>
     }
 
 	public StoryFragment newId() {
-		fragmentID = UUID.randomUUID();
+		setFragmentID();
 		for(Image image : getStoryMedia()) {
 			image.setId(UUID.randomUUID());
 		}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An immutable snapshot of a story's fragments and the choices linking them.
+ *
+ * Nothing in a graph ever changes, so any thread can walk it without locking or copying. Edits
+ * produce a new graph that shares every node that didn't change with the old one. StoryManager
+ * swaps the current story's graph in atomically after each change.
+ */
+public final class StoryGraph {
+
+	/**
+	 * A fragment as it was when the graph was made
+	 */
+	public static final class Node {
+		private final UUID mId;
+		private final String mText;
+		private final List<Edge> mChoices;
+		private final int mMediaCount;
+
+		private Node(StoryFragment fragment) {
+			mId = fragment.getFragmentID();
+			mText = fragment.getStoryText();
+			mMediaCount = fragment.getStoryMedia() != null ? fragment.getStoryMedia().size() : 0;
+			List<Edge> choices = new ArrayList<Edge>();
+			if(fragment.getChoices() != null) {
+				for(Choice choice : fragment.getChoices()) {
+					choices.add(new Edge(choice.getText(), choice.getTarget()));
+				}
+			}
+			mChoices = Collections.unmodifiableList(choices);
+		}
+
+		public UUID getId() {
+			return mId;
+		}
+
+		public String getText() {
+			return mText;
+		}
+
+		public List<Edge> getChoices() {
+			return mChoices;
+		}
+
+		public int getMediaCount() {
+			return mMediaCount;
+		}
+
+		private boolean sameAs(Node other) {
+			return other != null && mMediaCount == other.mMediaCount && equal(mText, other.mText)
+					&& mChoices.equals(other.mChoices);
+		}
+	}
+
+	/**
+	 * A choice leading out of a node
+	 */
+	public static final class Edge {
+		private final String mText;
+		private final UUID mTarget;
+
+		private Edge(String text, UUID target) {
+			mText = text;
+			mTarget = target;
+		}
+
+		public String getText() {
+			return mText;
+		}
+
+		public UUID getTarget() {
+			return mTarget;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof Edge)) return false;
+			Edge other = (Edge) o;
+			return equal(mText, other.mText) && equal(mTarget, other.mTarget);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (mText != null ? mText.hashCode() : 0) + (mTarget != null ? mTarget.hashCode() : 0);
+		}
+	}
+
+	private final UUID mStoryId;
+	private final UUID mHeadFragmentId;
+	private final String mTitle;
+	private final long mVersion;
+	private final Map<UUID, Node> mNodes;
+
+	private StoryGraph(UUID storyId, UUID headFragmentId, String title, long version, Map<UUID, Node> nodes) {
+		mStoryId = storyId;
+		mHeadFragmentId = headFragmentId;
+		mTitle = title;
+		mVersion = version;
+		mNodes = Collections.unmodifiableMap(nodes);
+	}
+
+	/**
+	 * Makes a graph of a story and the fragments of it that are loaded
+	 */
+	public static StoryGraph of(Story story, Collection<StoryFragment> fragments) {
+		Map<UUID, Node> nodes = new HashMap<UUID, Node>();
+		for(StoryFragment fragment : fragments) {
+			nodes.put(fragment.getFragmentID(), new Node(fragment));
+		}
+		return new StoryGraph(story.getId(), story.getHeadFragmentId(), story.getTitle(), 0, nodes);
+	}
+
+	/**
+	 * @return A graph with the fragment added or replaced, or this one if the fragment didn't change
+	 */
+	public StoryGraph withFragment(StoryFragment fragment) {
+		Node node = new Node(fragment);
+		if(node.sameAs(mNodes.get(node.getId())))
+			return this;
+		Map<UUID, Node> nodes = new HashMap<UUID, Node>(mNodes);
+		nodes.put(node.getId(), node);
+		return new StoryGraph(mStoryId, mHeadFragmentId, mTitle, mVersion + 1, nodes);
+	}
+
+	/**
+	 * @return A graph without the fragment, or this one if it wasn't in the graph
+	 */
+	public StoryGraph withoutFragment(UUID fragmentId) {
+		if(!mNodes.containsKey(fragmentId))
+			return this;
+		Map<UUID, Node> nodes = new HashMap<UUID, Node>(mNodes);
+		nodes.remove(fragmentId);
+		return new StoryGraph(mStoryId, mHeadFragmentId, mTitle, mVersion + 1, nodes);
+	}
+
+	/**
+	 * @return A graph with the story's current details, or this one if they didn't change
+	 */
+	public StoryGraph withStory(Story story) {
+		if(equal(mHeadFragmentId, story.getHeadFragmentId()) && equal(mTitle, story.getTitle()))
+			return this;
+		return new StoryGraph(mStoryId, story.getHeadFragmentId(), story.getTitle(), mVersion + 1, mNodes);
+	}
+
+	public UUID getStoryId() {
+		return mStoryId;
+	}
+
+	public UUID getHeadFragmentId() {
+		return mHeadFragmentId;
+	}
+
+	public String getTitle() {
+		return mTitle;
+	}
+
+	/**
+	 * @return How many edits this graph is from the one it started as
+	 */
+	public long getVersion() {
+		return mVersion;
+	}
+
+	public Node getNode(UUID fragmentId) {
+		return mNodes.get(fragmentId);
+	}
+
+	public Collection<Node> getNodes() {
+		return mNodes.values();
+	}
+
+	public Set<UUID> getFragmentIds() {
+		return mNodes.keySet();
+	}
+
+	/**
+	 * @return Ids of the fragments with a choice leading to the given one
+	 */
+	public List<UUID> getReferrers(UUID fragmentId) {
+		List<UUID> referrers = new ArrayList<UUID>();
+		for(Node node : mNodes.values()) {
+			for(Edge edge : node.getChoices()) {
+				if(fragmentId.equals(edge.getTarget())) {
+					referrers.add(node.getId());
+					break;
+				}
+			}
+		}
+		return referrers;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -20,15 +20,24 @@
  *         CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+
 package ca.cmput301f13t03.adventure_datetime.model;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 import ca.cmput301f13t03.adventure_datetime.R;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.*;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import junit.framework.Assert;
 
@@ -36,37 +45,84 @@ import junit.framework.Assert;
  * Manages all transactions between views, controllers, and models.
  * Creates new Stories, StoryFragments, etc.
  * Fetches and caches Stories and StoryFragments
+ *
+ * Cached state lives in concurrent maps that anyone may read without locking.
+ * Edits to the current story take the write lock of m_focusLock, and loading or
+ * replacing the local stories or bookmarks takes the lock of that domain. No
+ * lock is held while listeners are called or while waiting on storage.
  */
 public final class StoryManager implements IStoryModelPresenter,
 IStoryModelDirector {
 	final String DEFAULT_FRAGMENT_TEXT = "<insert content here...>";
 	private static final String TAG = "StoryManager";
+	// share of the heap the fragment cache may use before evicting
+	private static final int FRAGMENT_CACHE_DIVISOR = 8;
+	// how many choices ahead of the reader fragments are loaded
+	private static final int PREFETCH_DEPTH = 2;
+	// batches of a downloading story having their images fetched at once
+	private static final int DOWNLOAD_BATCHES_IN_FLIGHT = 4;
 
 	private ILocalStorage m_db = null;
+	private AsyncLocalStorage m_storage = null;
+	private ReadingTrailBuffer m_readingTrail = null;
+	private CatalogueSnapshot m_snapshot = null;
 	private Context m_context = null;
 	private WebStorage m_webStorage = null;
 	private ThreadPool m_threadPool = null;
 
-	// Current focus
-	private Story m_currentStory = null;
-	private StoryFragment m_currentFragment = null;
-
-	private Map<UUID, Story> m_stories = null;
-	private Map<UUID, Story> m_onlineStories = null;
-	private Map<UUID, Bookmark> m_bookmarkList = null;
-	private Map<UUID, StoryFragment> m_fragmentList = null;
+	// Current focus, only changed while holding the write lock of m_focusLock
+	private volatile Story m_currentStory = null;
+	private volatile StoryFragment m_currentFragment = null;
+
+	// Loaded lazily, only replaced while holding the lock of their domain
+	private volatile Map<UUID, Story> m_stories = null;
+	private volatile OnlineCatalogue m_onlineCatalogue = null;
+	private volatile Map<UUID, Bookmark> m_bookmarkList = null;
+	private FragmentCache m_fragmentCache = null;
+	// Fragments deleted but maybe still in the database, never read back from it
+	private final Set<UUID> m_pendingDeletes = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+	private FragmentPrefetcher m_prefetcher = null;
+	private StoryDownloader m_downloader = null;
 	private Map<UUID, List<Comment>> m_comments = null;
 
-	// Listeners
-	private Set<ICurrentFragmentListener> m_fragmentListeners = new HashSet<ICurrentFragmentListener>();
-	private Set<ICurrentStoryListener> m_storyListeners = new HashSet<ICurrentStoryListener>();
-	private Set<ILocalStoriesListener> m_localStoriesListeners = new HashSet<ILocalStoriesListener>();
-	private Set<IOnlineStoriesListener> m_onlineStoriesListeners = new HashSet<IOnlineStoriesListener>();
-	private Set<IBookmarkListListener> m_bookmarkListListeners = new HashSet<IBookmarkListListener>();
-	private Set<IAllFragmentsListener> m_allFragmentListeners = new HashSet<IAllFragmentsListener>();
-	private Map<UUID, ICommentsListener> m_commentsListeners = new HashMap<UUID, ICommentsListener>();
+	// What was published from the snapshot, null once reconciled with the database
+	private volatile Map<UUID, Story> m_snapshotStories = null;
+	private volatile Map<UUID, Bookmark> m_snapshotBookmarks = null;
+	private AtomicBoolean m_storiesSnapshotPending = new AtomicBoolean();
+	private AtomicBoolean m_bookmarksSnapshotPending = new AtomicBoolean();
+
+	// Edits to the current story not yet sent to listeners, and the choices they were last told about
+	private StoryChangeSet m_pendingChanges = null;
+	private Map<UUID, List<StoryChangeSet.ChoiceChange>> m_knownChoices = new HashMap<UUID, List<StoryChangeSet.ChoiceChange>>();
+	// Snapshot of the current story, replaced by compare and set so readers never lock
+	private final AtomicReference<StoryGraph> m_storyGraph = new AtomicReference<StoryGraph>();
+	private final Runnable m_publishChanges = new Runnable()
+	{
+		public void run()
+		{
+			PublishStoryChanges();
+		}
+	};
 
-	private Object syncLock = new Object();
+	// Listeners
+	private Set<ICurrentFragmentListener> m_fragmentListeners = new CopyOnWriteArraySet<ICurrentFragmentListener>();
+	private Set<ICurrentStoryListener> m_storyListeners = new CopyOnWriteArraySet<ICurrentStoryListener>();
+	private Set<ILocalStoriesListener> m_localStoriesListeners = new CopyOnWriteArraySet<ILocalStoriesListener>();
+	private Set<IOnlineStoriesListener> m_onlineStoriesListeners = new CopyOnWriteArraySet<IOnlineStoriesListener>();
+	private Set<IBookmarkListListener> m_bookmarkListListeners = new CopyOnWriteArraySet<IBookmarkListListener>();
+	private Set<IAllFragmentsListener> m_allFragmentListeners = new CopyOnWriteArraySet<IAllFragmentsListener>();
+	private Map<UUID, ICommentsListener> m_commentsListeners = new ConcurrentHashMap<UUID, ICommentsListener>();
+	private Set<IStoryChangeListener> m_storyChangeListeners = new CopyOnWriteArraySet<IStoryChangeListener>();
+	private Set<IStoryGraphListener> m_storyGraphListeners = new CopyOnWriteArraySet<IStoryGraphListener>();
+	private Set<IDownloadListener> m_downloadListeners = new CopyOnWriteArraySet<IDownloadListener>();
+	private ListenerDispatcher m_dispatcher = null;
+
+	// Locks, always taken in this order
+	private final ReentrantReadWriteLock m_focusLock = new ReentrantReadWriteLock();
+	private final Object m_storiesLock = new Object();
+	private final Object m_bookmarksLock = new Object();
+	// guards the pending changes, taken last and never held while calling out
+	private final Object m_changesLock = new Object();
 
 	/**
 	 * Create a new story manager and initializes other components using the provided context.
@@ -75,12 +131,37 @@ IStoryModelDirector {
 	public StoryManager(Context context) 
 	{
 		m_context = context;
-		m_db = new StoryDB(context);
+		StoryDB db = new StoryDB(context);
+		m_db = db;
+		m_snapshot = new CatalogueSnapshot(context, db.getImageStore());
+		m_storage = new AsyncLocalStorage(m_db);
+		m_readingTrail = new ReadingTrailBuffer(m_storage);
+		new StorageMaintenance(context, m_storage).scheduleWhenIdle();
 		m_webStorage = new WebStorage();
 		m_threadPool = new ThreadPool();
+		m_dispatcher = new ListenerDispatcher();
 
-		m_fragmentList = new HashMap<UUID, StoryFragment>();
-		m_comments = new HashMap<UUID, List<Comment>>();
+		m_fragmentCache = new FragmentCache(Runtime.getRuntime().maxMemory() / FRAGMENT_CACHE_DIVISOR);
+		m_prefetcher = new FragmentPrefetcher(m_db, m_webStorage, m_fragmentCache, PREFETCH_DEPTH);
+		m_downloader = new StoryDownloader(m_webStorage, m_storage, DOWNLOAD_BATCHES_IN_FLIGHT);
+		m_comments = new ConcurrentHashMap<UUID, List<Comment>>();
+		context.registerComponentCallbacks(new ComponentCallbacks2()
+		{
+			public void onTrimMemory(int level)
+			{
+				if(level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL)
+					m_fragmentCache.trimToSize(0);
+				else if(level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW)
+					m_fragmentCache.trimToSize(m_fragmentCache.maxSize() / 2);
+			}
+
+			public void onLowMemory()
+			{
+				m_fragmentCache.trimToSize(0);
+			}
+
+			public void onConfigurationChanged(Configuration newConfig) {}
+		});
 	}
 
 	// ============================================================
@@ -97,12 +178,10 @@ IStoryModelDirector {
 	 * Subscribe for changes to the current fragment
 	 */
 	public void Subscribe(ICurrentFragmentListener fragmentListener) {
-		synchronized (syncLock) 
-		{
-			m_fragmentListeners.add(fragmentListener);
-			if (m_currentFragment != null) {
-				fragmentListener.OnCurrentFragmentChange(m_currentFragment);
-			}
+		m_fragmentListeners.add(fragmentListener);
+		StoryFragment fragment = m_currentFragment;
+		if (fragment != null) {
+			fragmentListener.OnCurrentFragmentChange(fragment);
 		}
 	}
 
@@ -110,12 +189,10 @@ IStoryModelDirector {
 	 * Subscribe for changes to the current story
 	 */
 	public void Subscribe(ICurrentStoryListener storyListener) {
-		synchronized (syncLock) 
-		{
-			m_storyListeners.add(storyListener);
-			if (m_currentStory != null) {
-				storyListener.OnCurrentStoryChange(m_currentStory);
-			}
+		m_storyListeners.add(storyListener);
+		Story story = m_currentStory;
+		if (story != null) {
+			storyListener.OnCurrentStoryChange(story);
 		}
 	}
 
@@ -123,762 +200,1569 @@ IStoryModelDirector {
 	 * Subscribe to changes for the current list of stories
 	 */
 	public void Subscribe(ILocalStoriesListener localStoriesListener) {
-		synchronized (syncLock) 
-		{
-			m_localStoriesListeners.add(localStoriesListener);
-			if (m_stories != null) {
-				localStoriesListener.OnLocalStoriesChange(m_stories);
-			} else {
-				LoadStories();
-				PublishStoriesChanged();
-			}
+		m_localStoriesListeners.add(localStoriesListener);
+		Map<UUID, Story> stories = m_stories;
+		if (stories != null) {
+			localStoriesListener.OnLocalStoriesChange(stories);
+		} else {
+			LoadStoriesAsync();
 		}
 	}
 
 	public void Subscribe(IOnlineStoriesListener onlineStoriesListener) {
-		synchronized (syncLock) 
-		{
-			m_onlineStoriesListeners.add(onlineStoriesListener);
-			if (m_onlineStories != null) {
-				onlineStoriesListener.OnOnlineStoriesChange(m_onlineStories);
-			} else {
-				LoadOnlineStories();
-			}
+		m_onlineStoriesListeners.add(onlineStoriesListener);
+		OnlineCatalogue catalogue = m_onlineCatalogue;
+		if (catalogue == null) {
+			LoadOnlineStories();
+		} else if (catalogue.getStories() != null) {
+			onlineStoriesListener.OnOnlineStoriesChange(catalogue.getStories());
 		}
 	}
 
 	public void Subscribe(IBookmarkListListener bookmarkListListener) {
-		synchronized (syncLock) 
-		{
-			m_bookmarkListListeners.add(bookmarkListListener);
-			if (m_bookmarkList != null) {
-				bookmarkListListener.OnBookmarkListChange(m_bookmarkList);
-			} else {
-				LoadBookmarks();
-				PublishBookmarkListChanged();
-			}
+		m_bookmarkListListeners.add(bookmarkListListener);
+		Map<UUID, Bookmark> bookmarks = m_bookmarkList;
+		if (bookmarks != null) {
+			bookmarkListListener.OnBookmarkListChange(bookmarks);
+		} else {
+			LoadBookmarksAsync();
 		}
 	}
 
 	public void Subscribe(IAllFragmentsListener allFragmentsListener)
 	{
-		synchronized (syncLock) 
+		m_allFragmentListeners.add(allFragmentsListener);
+		if(m_currentStory != null)
 		{
-			m_allFragmentListeners.add(allFragmentsListener);
-			if(m_fragmentList != null && m_currentStory != null)
-			{
-				Map<UUID, StoryFragment> currentFrags = GetAllCurrentFragments();
-				allFragmentsListener.OnAllFragmentsChange(currentFrags);
-			}
+			Map<UUID, StoryFragment> currentFrags = GetAllCurrentFragments();
+			allFragmentsListener.OnAllFragmentsChange(currentFrags);
 		}
 	}
 
-	public void Subscribe(ICommentsListener commentsListener, UUID id) {
-		synchronized (syncLock) 
+	public void Subscribe(IStoryChangeListener storyChangeListener)
+	{
+		m_storyChangeListeners.add(storyChangeListener);
+	}
+
+	public void Subscribe(IStoryGraphListener storyGraphListener)
+	{
+		m_storyGraphListeners.add(storyGraphListener);
+		StoryGraph graph = m_storyGraph.get();
+		if(graph != null)
 		{
-			m_commentsListeners.put(id, commentsListener);
-			LoadComments(id);
+			storyGraphListener.OnStoryGraphChange(graph);
 		}
 	}
 
+	public void Subscribe(IDownloadListener downloadListener)
+	{
+		m_downloadListeners.add(downloadListener);
+	}
+
+	public void Subscribe(ICommentsListener commentsListener, UUID id) {
+		m_commentsListeners.put(id, commentsListener);
+		LoadComments(id);
+	}
+
 	/**
 	 * Unsubscribe from callbacks when the current fragment changes
 	 */
 	public void Unsubscribe(ICurrentFragmentListener fragmentListener) {
-		synchronized (syncLock) 
-		{
-			m_fragmentListeners.remove(fragmentListener);
-		}
+		m_fragmentListeners.remove(fragmentListener);
+		m_dispatcher.cancel(fragmentListener);
 	}
 
 	/**
 	 * Unsubscribe from callbacks when the current story changes
 	 */
 	public void Unsubscribe(ICurrentStoryListener storyListener) {
-		synchronized (syncLock) 
-		{
-			m_storyListeners.remove(storyListener);
-		}
+		m_storyListeners.remove(storyListener);
+		m_dispatcher.cancel(storyListener);
 	}
 
 	/**
 	 * Unsubscribe from callbakcs when the current list of stories changes
 	 */
 	public void Unsubscribe(ILocalStoriesListener storyListListener) {
-		synchronized (syncLock) 
-		{
-			m_localStoriesListeners.remove(storyListListener);
-		}
+		m_localStoriesListeners.remove(storyListListener);
+		m_dispatcher.cancel(storyListListener);
 	}
 	public void Unsubscribe(IOnlineStoriesListener storyListListener) {
-		synchronized (syncLock) 
-		{
-			m_onlineStoriesListeners.remove(storyListListener);
-		}
+		m_onlineStoriesListeners.remove(storyListListener);
+		m_dispatcher.cancel(storyListListener);
 	}
 	public void Unsubscribe(IBookmarkListListener bookmarkListListener) {
-		synchronized (syncLock) 
-		{
-			m_bookmarkListListeners.remove(bookmarkListListener);
-		}
+		m_bookmarkListListeners.remove(bookmarkListListener);
+		m_dispatcher.cancel(bookmarkListListener);
 	}
 
 	public void Unsubscribe(IAllFragmentsListener allFragmentsListener)
 	{
-		synchronized (syncLock) 
-		{
-			m_allFragmentListeners.remove(allFragmentsListener);
-		}
+		m_allFragmentListeners.remove(allFragmentsListener);
+		m_dispatcher.cancel(allFragmentsListener);
+	}
+
+	public void Unsubscribe(IStoryChangeListener storyChangeListener)
+	{
+		m_storyChangeListeners.remove(storyChangeListener);
+		m_dispatcher.cancel(storyChangeListener);
+	}
+
+	public void Unsubscribe(IStoryGraphListener storyGraphListener)
+	{
+		m_storyGraphListeners.remove(storyGraphListener);
+		m_dispatcher.cancel(storyGraphListener);
+	}
+
+	public void Unsubscribe(IDownloadListener downloadListener)
+	{
+		m_downloadListeners.remove(downloadListener);
+		m_dispatcher.cancel(downloadListener);
 	}
 
 	public void Unsubscribe(UUID id) {
-		synchronized (syncLock) 
-		{
-			m_commentsListeners.remove(id);
-		}
+		ICommentsListener commentsListener = m_commentsListeners.remove(id);
+		if(commentsListener != null)
+			m_dispatcher.cancel(commentsListener);
 	}
 
 	// ============================================================
 	//
 	// Publish
 	//
+	// Listeners are called on the main thread at the next frame,
+	// through m_dispatcher. Only the latest value of each kind is
+	// delivered. Never call these while holding a lock.
+	//
 	// ============================================================
 
 	/**
 	 * Publish a change to the current story to all listeners
 	 */
 	private void PublishCurrentStoryChanged() {
-		synchronized (syncLock) 
-		{
-			for (ICurrentStoryListener storyListener : m_storyListeners) {
-				storyListener.OnCurrentStoryChange(m_currentStory);
-			}
-
-			// whenever the current story changes so does the list of current fragments
-			PublishAllFragmentsChanged();
-		}
+		final Story story = m_currentStory;
+		m_dispatcher.dispatch(m_storyListeners, ICurrentStoryListener.class,
+				new ListenerDispatcher.Event<ICurrentStoryListener>() {
+					protected void deliver(ICurrentStoryListener storyListener) {
+						storyListener.OnCurrentStoryChange(story);
+					}
+				});
 	}
 
 	/**
 	 * Publish a change to the current fragment to all listeners
 	 */
 	private void PublishCurrentFragmentChanged() {
-		synchronized (syncLock) 
-		{
-			for (ICurrentFragmentListener fragmentListener : m_fragmentListeners) {
-				fragmentListener.OnCurrentFragmentChange(m_currentFragment);
-			}
-		}
+		final StoryFragment fragment = m_currentFragment;
+		m_dispatcher.dispatch(m_fragmentListeners, ICurrentFragmentListener.class,
+				new ListenerDispatcher.Event<ICurrentFragmentListener>() {
+					protected void deliver(ICurrentFragmentListener fragmentListener) {
+						fragmentListener.OnCurrentFragmentChange(fragment);
+					}
+				});
 	}
 
 	/**
 	 * Publish a changed to the current list of stories to all listeners
 	 */
 	private void PublishStoriesChanged() {
-		synchronized (syncLock) 
-		{
-			for (ILocalStoriesListener localStoriesListener : m_localStoriesListeners) {
-				localStoriesListener.OnLocalStoriesChange(m_stories);
-			}
-		}
+		final Map<UUID, Story> stories = m_stories;
+		m_dispatcher.dispatch(m_localStoriesListeners, ILocalStoriesListener.class,
+				new ListenerDispatcher.Event<ILocalStoriesListener>() {
+					protected void deliver(ILocalStoriesListener localStoriesListener) {
+						localStoriesListener.OnLocalStoriesChange(stories);
+					}
+				});
+		SnapshotStories();
 	}
 
 	private void PublishOnlineStoriesChanged() {
-		synchronized (syncLock) 
-		{
-			for (IOnlineStoriesListener onlineStoriesListener : m_onlineStoriesListeners) {
-				onlineStoriesListener.OnOnlineStoriesChange(m_onlineStories);
-			}
-		}
+		final Map<UUID, Story> onlineStories = m_onlineCatalogue.getStories();
+		if(onlineStories == null)
+			return;
+		m_dispatcher.dispatch(m_onlineStoriesListeners, IOnlineStoriesListener.class,
+				new ListenerDispatcher.Event<IOnlineStoriesListener>() {
+					protected void deliver(IOnlineStoriesListener onlineStoriesListener) {
+						onlineStoriesListener.OnOnlineStoriesChange(onlineStories);
+					}
+				});
 	}
 
 	private void PublishBookmarkListChanged() {
-		synchronized (syncLock) 
-		{
-			for (IBookmarkListListener bookmarkListener : m_bookmarkListListeners) {
-				bookmarkListener.OnBookmarkListChange(m_bookmarkList);
-			}
-		}
-	}
-
-	private void PublishCommentsChanged(UUID finalId) {
-		synchronized (syncLock) 
-		{
-			m_commentsListeners.get(finalId).OnCommentsChange(m_comments.get(finalId));
-		}
+		final Map<UUID, Bookmark> bookmarks = m_bookmarkList;
+		m_dispatcher.dispatch(m_bookmarkListListeners, IBookmarkListListener.class,
+				new ListenerDispatcher.Event<IBookmarkListListener>() {
+					protected void deliver(IBookmarkListListener bookmarkListener) {
+						bookmarkListener.OnBookmarkListChange(bookmarks);
+					}
+				});
+		SnapshotBookmarks();
 	}
 
-	private void PublishAllFragmentsChanged()
+	/**
+	 * Rewrite the story snapshot in the background. Changes published
+	 * before the write starts share it.
+	 */
+	private void SnapshotStories()
 	{
-		synchronized (syncLock) 
-		{
-			if(m_currentStory != null && m_fragmentList != null)
-			{
-				Map<UUID, StoryFragment> currentStoryFragments = GetAllCurrentFragments();
+		// Nothing to write until the database has been loaded
+		if(m_stories == null || m_snapshotStories != null)
+			return;
+		if(!m_storiesSnapshotPending.compareAndSet(false, true))
+			return;
 
-				for(IAllFragmentsListener allFragListener : m_allFragmentListeners)
-				{
-					allFragListener.OnAllFragmentsChange(currentStoryFragments);
-				}
+		m_threadPool.execute(new Runnable() {
+			public void run()
+			{
+				m_storiesSnapshotPending.set(false);
+				List<Story> stories = new ArrayList<Story>(m_stories.values());
+				m_snapshot.writeStories(stories);
 			}
-		}
+		});
 	}
 
-	// ============================================================
-	//
-	// IStoryModelDirector
-	//
-	// ============================================================
-
 	/**
-	 * Select a story
+	 * Rewrite the bookmark snapshot in the background
 	 */
-	public void selectStory(UUID storyId) 
+	private void SnapshotBookmarks()
 	{
-		synchronized (syncLock) 
-		{
-			Story newStory = getStory(storyId);
-			if(newStory != m_currentStory)
+		if(m_bookmarkList == null || m_snapshotBookmarks != null)
+			return;
+		if(!m_bookmarksSnapshotPending.compareAndSet(false, true))
+			return;
+
+		m_threadPool.execute(new Runnable() {
+			public void run()
 			{
-				m_currentStory = newStory;
-				PublishCurrentStoryChanged();
+				m_bookmarksSnapshotPending.set(false);
+				List<Bookmark> bookmarks = new ArrayList<Bookmark>(m_bookmarkList.values());
+				m_snapshot.writeBookmarks(bookmarks);
 			}
-		}
+		});
 	}
 
 	/**
-	 * Select a fragment as the current fragment
+	 * Merge what was loaded from the database into a map that was filled
+	 * from the snapshot. Anything put or removed since the snapshot was
+	 * published is newer than the load, so it wins.
 	 */
-	public void selectFragment(UUID fragmentId) {
-		synchronized (syncLock) 
+	private static <T> Map<UUID, T> Reconcile(Map<UUID, T> current, Map<UUID, T> snapshot, Map<UUID, T> loaded)
+	{
+		for(UUID id : snapshot.keySet())
 		{
-			m_currentFragment = getFragment(fragmentId);
-			if(m_currentFragment != null)
-				PublishCurrentFragmentChanged();
-			else {
-				getFragmentOnline(fragmentId, false);
-			}
+			if(!current.containsKey(id))
+				loaded.remove(id);
+		}
+		for(Map.Entry<UUID, T> entry : current.entrySet())
+		{
+			if(snapshot.get(entry.getKey()) != entry.getValue())
+				loaded.put(entry.getKey(), entry.getValue());
 		}
+		return loaded;
+	}
+
+	private void PublishCommentsChanged(UUID finalId) {
+		ICommentsListener commentsListener = m_commentsListeners.get(finalId);
+		final List<Comment> comments = m_comments.get(finalId);
+		if(commentsListener != null)
+			m_dispatcher.dispatch(commentsListener, finalId,
+					new ListenerDispatcher.Event<ICommentsListener>() {
+						protected void deliver(ICommentsListener listener) {
+							listener.OnCommentsChange(comments);
+						}
+					});
 	}
 
 	/**
-	 * Create a new story and head fragment and insert them into the local database
+	 * Publish every fragment of the current story. Only done when the current story is
+	 * replaced, edits to it go out as deltas through PublishStoryChanges.
 	 */
-	public Story CreateNewStory()
+	private void PublishAllFragmentsChanged()
 	{
-		synchronized (syncLock) 
+		Story story = m_currentStory;
+		if(story == null)
 		{
-			Story newStory = new Story();
-			StoryFragment headFragment = new StoryFragment(newStory.getId(), DEFAULT_FRAGMENT_TEXT);
-
-			newStory.setHeadFragmentId(headFragment);
+			m_storyGraph.set(null);
+			PublishStoryGraphChanged();
+		}
+		else
+		{
+			Map<UUID, StoryFragment> currentStoryFragments = GetAllCurrentFragments();
 
-			if(m_stories == null)
+			// deltas queued so far are covered by the whole map
+			synchronized (m_changesLock)
 			{
-				LoadStories();
+				m_pendingChanges = null;
+				m_knownChoices.clear();
+				for(StoryFragment fragment : currentStoryFragments.values())
+				{
+					m_knownChoices.put(fragment.getFragmentID(), ChoicesOf(fragment));
+				}
 			}
 
-			m_stories.put(newStory.getId(), newStory);
-			m_currentStory = newStory;
-			SaveStory();
-			m_db.setAuthoredStory(newStory);
-			m_fragmentList.put(headFragment.getFragmentID(), headFragment);
-
-			PublishCurrentStoryChanged();
+			final Map<UUID, StoryFragment> fragments = currentStoryFragments;
+			m_dispatcher.dispatch(m_allFragmentListeners, IAllFragmentsListener.class,
+					new ListenerDispatcher.Event<IAllFragmentsListener>() {
+						protected void deliver(IAllFragmentsListener allFragListener) {
+							allFragListener.OnAllFragmentsChange(fragments);
+						}
+					});
 
-			return newStory;
+			m_storyGraph.set(StoryGraph.of(story, currentStoryFragments.values()));
+			PublishStoryGraphChanged();
 		}
 	}
 
-	public StoryFragment CreateNewStoryFragment()
+	/**
+	 * Progress of a download goes out at most once a frame, completion replaces any still pending
+	 */
+	private void PublishDownloadProgress(final UUID storyId, final int saved, final int total)
 	{
-		synchronized (syncLock) 
-		{
-			StoryFragment newFrag = new StoryFragment(m_currentStory.getId(), "");
-
-			m_fragmentList.put(newFrag.getFragmentID(), newFrag);
-			m_currentStory.addFragment(newFrag);
-
-			PublishCurrentStoryChanged();
-			PublishAllFragmentsChanged();
-
-			return newFrag;
-		}
+		m_dispatcher.dispatch(m_downloadListeners, storyId,
+				new ListenerDispatcher.Event<IDownloadListener>() {
+					protected void deliver(IDownloadListener downloadListener) {
+						downloadListener.OnDownloadProgress(storyId, saved, total);
+					}
+				});
 	}
 
-	public boolean SaveStory() 
+	private void PublishDownloadComplete(final UUID storyId, final boolean succeeded)
 	{
-		synchronized (syncLock) 
-		{
-			// Set default image if needed
-			if(m_currentStory == null) 
-				return false;
-			if (m_currentStory.getThumbnail() == null)
-				m_currentStory.setThumbnail(BitmapFactory.decodeResource(
-						m_context.getResources(), R.drawable.grumpy_cat));
-			m_currentStory.updateTimestamp();
-			boolean result = m_db.setStory(m_currentStory);
-			if(result)
-			{
-				m_stories.put(m_currentStory.getId(), m_currentStory);
-				SaveAllFrags();
-				PublishStoriesChanged();
-			}
-			return result;
-		}
+		m_dispatcher.dispatch(m_downloadListeners, storyId,
+				new ListenerDispatcher.Event<IDownloadListener>() {
+					protected void deliver(IDownloadListener downloadListener) {
+						downloadListener.OnDownloadComplete(storyId, succeeded);
+					}
+				});
 	}
 
-	private void SaveAllFrags()
+	private void PublishStoryGraphChanged()
 	{
-		synchronized (syncLock) 
-		{
-			Map<UUID, StoryFragment> currentFrags = GetAllCurrentFragments();
-
-			for(StoryFragment frag : currentFrags.values())
-			{
-				if(!m_db.setStoryFragment(frag))
-				{
-					Log.w(TAG, "Failed to save fragment to database!");
-				}
-			}
-		}
+		final StoryGraph graph = m_storyGraph.get();
+		m_dispatcher.dispatch(m_storyGraphListeners, IStoryGraphListener.class,
+				new ListenerDispatcher.Event<IStoryGraphListener>() {
+					protected void deliver(IStoryGraphListener graphListener) {
+						graphListener.OnStoryGraphChange(graph);
+					}
+				});
 	}
 
 	/**
-	 * Delete a story from the database
+	 * Hand the edits queued since the last frame to the change listeners. Runs at the start of
+	 * a frame, changes a listener is still sitting out are merged with the ones it hasn't seen.
 	 */
-	public void deleteStory(UUID storyId) {
-		synchronized (syncLock) 
+	private void PublishStoryChanges()
+	{
+		final StoryChangeSet changes;
+		synchronized (m_changesLock)
 		{
-			m_db.deleteStory(storyId);
-			m_stories.remove(storyId);
-			PublishStoriesChanged();
+			changes = m_pendingChanges;
+			m_pendingChanges = null;
 		}
+
+		if(changes == null || changes.isEmpty())
+			return;
+		m_dispatcher.dispatch(m_storyChangeListeners, IStoryChangeListener.class,
+				new StoryChangeEvent(changes));
+		// the graph was swapped as the changes were made, this only tells its listeners
+		PublishStoryGraphChanged();
 	}
 
-    public void deleteImage(UUID imageId) {
-        m_db.deleteImage(imageId);
+	private static class StoryChangeEvent extends ListenerDispatcher.Event<IStoryChangeListener>
+	{
+		private final StoryChangeSet m_changes;
 
-        for(Image image : m_currentFragment.getStoryMedia()) {
+		StoryChangeEvent(StoryChangeSet changes)
+		{
+			m_changes = changes;
+		}
 
-            if(image.getId().equals(imageId))
-                m_currentFragment.removeMedia(image);
-        }
+		protected void deliver(IStoryChangeListener changeListener)
+		{
+			changeListener.OnStoryChange(m_changes);
+		}
 
-        SaveStory();
+		protected ListenerDispatcher.Event<IStoryChangeListener> merge(ListenerDispatcher.Event<IStoryChangeListener> newer)
+		{
+			return new StoryChangeEvent(m_changes.merge(((StoryChangeEvent) newer).m_changes));
+		}
+	}
 
-        PublishCurrentFragmentChanged();
-    }
+	// ============================================================
+	//
+	// Changes
+	//
+	// Edits to the current story are recorded as they happen and
+	// sent to the change listeners once per frame, and applied to
+	// the story graph straight away. Only call PendingChanges and
+	// RecordUpdate while holding m_changesLock.
+	//
+	// ============================================================
 
 	/**
-	 * Get a story from the database or cloud
+	 * Get the changes waiting to go out for a story, scheduling them for the next frame.
+	 * Anything still queued for another story is stale and dropped.
 	 */
-	public Story getStory(UUID storyId) {
-		synchronized (syncLock) 
+	private StoryChangeSet PendingChanges(UUID storyId)
+	{
+		if(m_pendingChanges == null || !m_pendingChanges.getStoryId().equals(storyId))
 		{
-			if(m_stories == null)
-			{
-				LoadStories();
-			}
-			Story story = m_stories.get(storyId);
-			if(story == null)
-				story = m_onlineStories.get(storyId);
-			return story;
+			if(m_pendingChanges == null)
+				m_dispatcher.runBeforeFrame(m_publishChanges);
+			m_pendingChanges = new StoryChangeSet(storyId);
 		}
+		return m_pendingChanges;
 	}
 
 	/**
-	 * Save a fragment to the database
+	 * Record a fragment as updated along with the choices added to or removed from it
+	 * since the listeners were last told about it
 	 */
-	public boolean putFragment(StoryFragment fragment) {
-		synchronized (syncLock) 
+	private void RecordUpdate(StoryChangeSet changes, StoryFragment fragment)
+	{
+		UUID fragmentId = fragment.getFragmentID();
+		List<StoryChangeSet.ChoiceChange> current = ChoicesOf(fragment);
+		List<StoryChangeSet.ChoiceChange> known = m_knownChoices.put(fragmentId, current);
+		List<StoryChangeSet.ChoiceChange> added = new ArrayList<StoryChangeSet.ChoiceChange>(current);
+
+		changes.fragmentUpdated(fragment);
+		GraphWithFragment(fragment);
+		if(known != null)
 		{
-			// this really should be transactional...
-			boolean result = m_db.setStoryFragment(fragment);
-			if(result)
+			for(StoryChangeSet.ChoiceChange choice : known)
 			{
-				result = m_db.setStory(m_currentStory);
-
-				PublishAllFragmentsChanged();
+				if(!added.remove(choice))
+					changes.choiceRemoved(fragmentId, choice.getChoice());
 			}
-
-			return result;
+		}
+		for(StoryChangeSet.ChoiceChange choice : added)
+		{
+			changes.choiceAdded(fragmentId, choice.getChoice());
 		}
 	}
 
 	/**
-	 * Delete a fragment from the database
+	 * Swap in a graph with the fragment added or replaced. Writers race on compareAndSet
+	 * rather than a lock, a writer that loses simply applies its change to the winner's graph.
 	 */
-	public void deleteFragment(UUID fragmentId) {
-		synchronized (syncLock) 
+	private void GraphWithFragment(StoryFragment fragment)
+	{
+		StoryGraph graph;
+		StoryGraph updated;
+		do
 		{
-			m_db.deleteStoryFragment(fragmentId);
-			m_fragmentList.remove(fragmentId);
-
-			List<Choice> choicesToRemove = new ArrayList<Choice>();
+			graph = m_storyGraph.get();
+			if(graph == null || !graph.getStoryId().equals(fragment.getStoryID()))
+				return;
+			updated = graph.withFragment(fragment);
+		} while(updated != graph && !m_storyGraph.compareAndSet(graph, updated));
+	}
 
-			// Now iterate over all fragments and find those that referenced this one
-			// remove those choices so they cannot be selected
-			for(StoryFragment frag : m_fragmentList.values())
-			{
-				choicesToRemove.clear();
+	private void GraphWithoutFragment(UUID storyId, UUID fragmentId)
+	{
+		StoryGraph graph;
+		StoryGraph updated;
+		do
+		{
+			graph = m_storyGraph.get();
+			if(graph == null || !graph.getStoryId().equals(storyId))
+				return;
+			updated = graph.withoutFragment(fragmentId);
+		} while(updated != graph && !m_storyGraph.compareAndSet(graph, updated));
+	}
 
-				for(Choice choice : frag.getChoices())
-				{
-					if(choice.getTarget().equals(fragmentId))
-					{
-						choicesToRemove.add(choice);
-					}
-				}
+	private void GraphWithStory(Story story)
+	{
+		StoryGraph graph;
+		StoryGraph updated;
+		do
+		{
+			graph = m_storyGraph.get();
+			if(graph == null || !graph.getStoryId().equals(story.getId()))
+				return;
+			updated = graph.withStory(story);
+		} while(updated != graph && !m_storyGraph.compareAndSet(graph, updated));
+	}
 
-				for(Choice choice : choicesToRemove)
-				{
-					frag.removeChoice(choice);
-				}
+	private static List<StoryChangeSet.ChoiceChange> ChoicesOf(StoryFragment fragment)
+	{
+		List<StoryChangeSet.ChoiceChange> choices = new ArrayList<StoryChangeSet.ChoiceChange>();
+		if(fragment.getChoices() != null)
+		{
+			for(Choice choice : fragment.getChoices())
+			{
+				choices.add(new StoryChangeSet.ChoiceChange(fragment.getFragmentID(), choice));
 			}
-
-			// have to save after a deletion or the memory and database will be out of sync
-			SaveStory();
-
-			PublishAllFragmentsChanged();
 		}
+		return choices;
 	}
 
+	// ============================================================
+	//
+	// IStoryModelDirector
+	//
+	// ============================================================
+
 	/**
-	 * Get a fragment from the database
+	 * Select a story
 	 */
-	public StoryFragment getFragment(UUID theId) {
-		synchronized (syncLock) 
+	public void selectStory(UUID storyId) 
+	{
+		// looking the story up may load the catalogue, so it happens before locking
+		Story newStory = getStory(storyId);
+		boolean changed;
+		m_focusLock.writeLock().lock();
+		try
 		{
-			StoryFragment result = null;
+			changed = newStory != m_currentStory;
+			m_currentStory = newStory;
+			// the id of the current story can change when it is copied for authoring, so always re-pin
+			m_fragmentCache.pinStory(newStory != null ? newStory.getId() : null);
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
+		}
 
-			if(m_fragmentList.containsKey(theId))
+		if(changed)
+		{
+			PublishCurrentStoryChanged();
+			PublishAllFragmentsChanged();
+		}
+	}
+
+	/**
+	 * Select a fragment as the current fragment
+	 */
+	public void selectFragment(UUID fragmentId) {
+		StoryFragment fragment = getFragment(fragmentId);
+		m_focusLock.writeLock().lock();
+		try
+		{
+			m_currentFragment = fragment;
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
+		}
+
+		if(fragment != null) {
+			PublishCurrentFragmentChanged();
+			m_prefetcher.prefetch(fragment, m_storyGraph.get());
+		}
+		else {
+			m_prefetcher.cancel();
+			getFragmentOnline(fragmentId, false);
+		}
+	}
+
+	/**
+	 * Get the latest snapshot of the current story. Never blocks.
+	 */
+	public StoryGraph getStoryGraph()
+	{
+		return m_storyGraph.get();
+	}
+
+	/**
+	 * Set how many choices ahead of the current fragment are loaded while reading
+	 * @param depth Number of choices, 0 to load nothing ahead
+	 */
+	public void setPrefetchDepth(int depth)
+	{
+		m_prefetcher.setDepth(depth);
+	}
+
+	/**
+	 * Create a new story and head fragment and insert them into the local database
+	 */
+	public Story CreateNewStory()
+	{
+		Story newStory = new Story();
+		StoryFragment headFragment = new StoryFragment(newStory.getId(), DEFAULT_FRAGMENT_TEXT);
+
+		newStory.setHeadFragmentId(headFragment);
+
+		m_focusLock.writeLock().lock();
+		try
+		{
+			synchronized (m_storiesLock)
 			{
-				// great we have it cached!
-				result = m_fragmentList.get(theId);
+				GetLocalStories().put(newStory.getId(), newStory);
 			}
-			else
+			m_currentStory = newStory;
+			m_fragmentCache.pinStory(newStory.getId());
+			// cached before saving, so the save finds it without reading the database
+			m_fragmentCache.put(headFragment);
+			SaveStory();
+			m_storage.setAuthoredStory(newStory, null);
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
+		}
+
+		PublishCurrentStoryChanged();
+		PublishAllFragmentsChanged();
+
+		return newStory;
+	}
+
+	public StoryFragment CreateNewStoryFragment()
+	{
+		StoryFragment newFrag;
+		m_focusLock.writeLock().lock();
+		try
+		{
+			newFrag = new StoryFragment(m_currentStory.getId(), "");
+
+			m_fragmentCache.put(newFrag);
+			m_currentStory.addFragment(newFrag);
+			synchronized (m_changesLock)
 			{
-				//Try loading from db
-				result = m_db.getStoryFragment(theId);
-				if(result != null)
+				StoryChangeSet changes = PendingChanges(m_currentStory.getId());
+				changes.fragmentAdded(newFrag);
+				changes.storyChanged();
+				m_knownChoices.put(newFrag.getFragmentID(), ChoicesOf(newFrag));
+				GraphWithFragment(newFrag);
+			}
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
+		}
+
+		PublishCurrentStoryChanged();
+
+		return newFrag;
+	}
+
+	/**
+	 * Save the current story and its fragments. A copy of what changed is queued on the
+	 * storage writer and the story listeners are told once it lands. A failed write is
+	 * logged and leaves the story dirty, so the next save tries it again.
+	 * @return False if there is no current story, true once the write is queued
+	 */
+	public boolean SaveStory() 
+	{
+		// fragments missing from the cache are read before locking, so readers never wait on the database
+		Map<UUID, StoryFragment> gathered = GetAllCurrentFragments();
+		m_focusLock.writeLock().lock();
+		try
+		{
+			// Set default image if needed
+			Story story = m_currentStory;
+			if(story == null) 
+				return false;
+			if (story.getThumbnail() == null)
+				story.setThumbnail(BitmapFactory.decodeResource(
+						m_context.getResources(), R.drawable.grumpy_cat));
+			Collection<StoryFragment> fragments = RecheckFragments(story, gathered);
+			if(!story.isDirty() && !anyDirty(fragments))
+				return true;
+
+			synchronized (m_changesLock)
+			{
+				StoryChangeSet changes = PendingChanges(story.getId());
+				if(story.isDirty())
 				{
-					m_fragmentList.put(result.getFragmentID(), result);
+					changes.storyChanged();
+					GraphWithStory(story);
 				}
-				else
+				for(StoryFragment frag : fragments)
 				{
-					// TODO check webstorage...?
-					Log.w(TAG, "Attempted to load a fragment that wasn't cached or in the database!");
+					if(frag.isDirty())
+						RecordUpdate(changes, frag);
 				}
 			}
 
-			return result;
+			story.updateTimestamp();
+			synchronized (m_storiesLock)
+			{
+				if(m_stories != null)
+					m_stories.put(story.getId(), story);
+			}
+			// story, fragments and images all go in one transaction, only what changed is written
+			WriteCopies(story, fragments, publishStoriesOnWrite("Failed to save story to database!"));
+			return true;
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
 		}
 	}
 
-	private void getFragmentOnline(UUID fragmentId, boolean storeDB) 
+	/**
+	 * Queue copies of the story and its dirty fragments on the writer. Call while holding the
+	 * focus write lock, so the copies match one another. The live objects are only marked
+	 * saved once the copies land, on the main thread, and only where nothing changed since.
+	 */
+	private void WriteCopies(final Story story, Collection<StoryFragment> fragments,
+			final IStorageCallback<Boolean> callback)
 	{
-		synchronized (syncLock) 
+		final Story storyCopy = story.copyForSave();
+		final Map<StoryFragment, StoryFragment> copies = new IdentityHashMap<StoryFragment, StoryFragment>();
+		for(StoryFragment frag : fragments)
 		{
-			// Fetch fragment asynchronously
-			final UUID finalId = fragmentId;
-			final boolean finalStoreDB = storeDB;
-			m_threadPool.execute(
-					new Runnable() 
+			if(frag.isDirty())
+				copies.put(frag, frag.copyForSave());
+		}
+
+		m_storage.setStoryWithFragments(storyCopy, new ArrayList<StoryFragment>(copies.values()),
+				new IStorageCallback<Boolean>() {
+					public void OnStorageResult(Boolean result)
 					{
-						public void run() {
-							try 
-							{
-								m_currentFragment = m_webStorage.getFragment(finalId);
-								if(m_currentFragment != null)
-								{
-									// afterwards place into cache
-									m_fragmentList.put(m_currentFragment.getFragmentID(), m_currentFragment);
-									PublishCurrentFragmentChanged();
-									if(finalStoreDB) 
-									{
-										m_db.setStoryFragment(m_currentFragment);
-									}
-								}
-								else
+						if(result)
+						{
+							m_dispatcher.runBeforeFrame(new Runnable() {
+								public void run()
 								{
-									Log.e(TAG, "Rx'd a NULL value from the webstorage for a fragment!");
+									MarkSaved(story, storyCopy, copies);
 								}
-							} catch (Exception e) 
-							{
-								Log.e(TAG, "StoryManager: ", e);
-							}
+							});
 						}
-					});
+						callback.OnStorageResult(result);
+					}
+				});
+	}
+
+	/**
+	 * Mark the live story and fragments saved up to the copies the writer saved
+	 */
+	private void MarkSaved(Story story, Story written, Map<StoryFragment, StoryFragment> fragments)
+	{
+		m_focusLock.writeLock().lock();
+		try
+		{
+			story.markSaved(written);
+			for(Map.Entry<StoryFragment, StoryFragment> frag : fragments.entrySet())
+			{
+				frag.getKey().markSaved(frag.getValue());
+			}
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
 		}
 	}
 
-	public ArrayList<Story> getStoriesAuthoredBy(String author) {
-		synchronized (syncLock) 
+	/**
+	 * Callback that tells the story listeners once a write lands, since the catalogue
+	 * they page through is read from the database. Publishing goes through the thread
+	 * pool so the writer never runs listener code.
+	 * @param failureMessage Logged if the write fails, null if failing is expected
+	 */
+	private IStorageCallback<Boolean> publishStoriesOnWrite(final String failureMessage)
+	{
+		return new IStorageCallback<Boolean>() {
+			public void OnStorageResult(Boolean result)
+			{
+				if(!result && failureMessage != null)
+					Log.w(TAG, failureMessage);
+				m_threadPool.execute(new Runnable() {
+					public void run()
+					{
+						PublishStoriesChanged();
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * The fragments of a story, from what was gathered before taking the focus write lock. The
+	 * story may have changed in between, so its ids are checked again, against the cache only.
+	 */
+	private Collection<StoryFragment> RecheckFragments(Story story, Map<UUID, StoryFragment> gathered)
+	{
+		List<StoryFragment> fragments = new ArrayList<StoryFragment>();
+		for(UUID fragmentId : story.getFragments())
+		{
+			StoryFragment frag = m_fragmentCache.peek(fragmentId);
+			if(frag == null)
+				frag = gathered.get(fragmentId);
+			if(frag != null)
+				fragments.add(frag);
+			else
+				Log.w(TAG, "Fragment added while saving wasn't cached, it is saved next time");
+		}
+		return fragments;
+	}
+
+	private static boolean anyDirty(Collection<StoryFragment> fragments)
+	{
+		for(StoryFragment frag : fragments)
+		{
+			if(frag.isDirty())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Delete a story from the database
+	 */
+	public void deleteStory(UUID storyId) {
+		synchronized (m_storiesLock)
 		{
-			if(m_stories == null)
+			if(m_stories != null)
+				m_stories.remove(storyId);
+		}
+		m_readingTrail.discard(storyId);
+		m_storage.deleteStory(storyId, publishStoriesOnWrite(null));
+	}
+
+	/**
+	 * Export a story to a bundle file
+	 */
+	public void exportStory(UUID storyId, File bundle, IStorageCallback<Boolean> callback) {
+		m_storage.exportStory(storyId, bundle, callback);
+	}
+
+	/**
+	 * Import a story from a bundle file
+	 */
+	public void importStory(File bundle) {
+		m_storage.importStory(bundle, new IStorageCallback<Story>() {
+			public void OnStorageResult(final Story story)
 			{
-				LoadStories();
+				if(story == null)
+				{
+					Log.w(TAG, "Failed to import story bundle!");
+					return;
+				}
+				m_threadPool.execute(new Runnable() {
+					public void run()
+					{
+						// fragments cached from a copy the import replaced are stale
+						m_fragmentCache.removeStory(story.getId());
+						synchronized (m_storiesLock)
+						{
+							if(m_stories != null)
+								m_stories.put(story.getId(), story);
+						}
+						PublishStoriesChanged();
+					}
+				});
 			}
+		});
+	}
+
+    public void deleteImage(UUID imageId) {
+        m_storage.deleteImage(imageId, null);
+
+        m_focusLock.writeLock().lock();
+        try
+        {
+            List<Image> removed = new ArrayList<Image>();
+            for(Image image : m_currentFragment.getStoryMedia()) {
+
+                if(image.getId().equals(imageId))
+                    removed.add(image);
+            }
+            for(Image image : removed)
+                m_currentFragment.removeMedia(image);
+        }
+        finally
+        {
+            m_focusLock.writeLock().unlock();
+        }
+
+        SaveStory();
+
+        PublishCurrentFragmentChanged();
+    }
+
+	/**
+	 * Get a story from the database or cloud
+	 */
+	public Story getStory(UUID storyId) {
+		Story story = GetLocalStories().get(storyId);
+		Map<UUID, Story> snapshot = m_snapshotStories;
+		if(story != null && snapshot != null && snapshot.get(storyId) == story)
+			story = LoadSnapshotStory(storyId, story);
+		OnlineCatalogue catalogue = m_onlineCatalogue;
+		Map<UUID, Story> onlineStories = catalogue != null ? catalogue.getStories() : null;
+		if(story == null && onlineStories != null)
+			story = onlineStories.get(storyId);
+		return story;
+	}
+
+	/**
+	 * Get a page of local story summaries. Read on a storage reader without
+	 * loading whole stories or taking any lock.
+	 */
+	public void getStorySummaries(StorySummary.Filter filter, StorySummary.Sort sort, int offset, int limit,
+	                              IStorageCallback<ArrayList<StorySummary>> callback)
+	{
+		m_storage.getStorySummaries(filter, sort, offset, limit, callback);
+	}
+
+	/**
+	 * Search the local stories without going to the network. Like the summaries,
+	 * this is read on a storage reader without taking any lock.
+	 */
+	public void searchLocal(String query, StorySummary.Filter filter, IStorageCallback<ArrayList<UUID>> callback)
+	{
+		m_storage.searchStories(query, filter, callback);
+	}
 
-			ArrayList<Story> results = new ArrayList<Story>();
+	/**
+	 * Get the summaries of the given local stories, such as a page of search results
+	 */
+	public void getStorySummaries(List<UUID> storyIds, IStorageCallback<ArrayList<StorySummary>> callback)
+	{
+		m_storage.getStorySummaries(storyIds, callback);
+	}
 
-			for(Story story : m_stories.values())
+	/**
+	 * Save a fragment to the database. A copy is queued on the storage writer, and a
+	 * failed write is logged and leaves the fragment dirty.
+	 * @return False if there is no current story, true once the write is queued
+	 */
+	public boolean putFragment(StoryFragment fragment) {
+		m_focusLock.writeLock().lock();
+		try
+		{
+			if(m_currentStory == null)
+				return false;
+			// the fragment and its story land in one transaction on the writer
+			WriteCopies(m_currentStory, Collections.singletonList(fragment),
+					new IStorageCallback<Boolean>() {
+						public void OnStorageResult(Boolean result)
+						{
+							if(!result)
+								Log.w(TAG, "Failed to save fragment to database!");
+						}
+					});
+			if(m_currentStory.getId().equals(fragment.getStoryID()))
 			{
-				if(author.equalsIgnoreCase(story.getAuthor()))
+				synchronized (m_changesLock)
 				{
-					results.add(story);
+					RecordUpdate(PendingChanges(m_currentStory.getId()), fragment);
 				}
 			}
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Delete a fragment from the database
+	 */
+	public void deleteFragment(final UUID fragmentId) {
+		m_focusLock.writeLock().lock();
+		try
+		{
+			m_pendingDeletes.add(fragmentId);
+			m_storage.deleteStoryFragment(fragmentId, new IStorageCallback<Boolean>() {
+				public void OnStorageResult(Boolean result)
+				{
+					m_pendingDeletes.remove(fragmentId);
+				}
+			});
+			m_fragmentCache.remove(fragmentId);
+			if(m_currentStory != null)
+				m_currentStory.removeFragment(fragmentId);
+
+			List<Choice> choicesToRemove = new ArrayList<Choice>();
+			List<StoryFragment> referrers = new ArrayList<StoryFragment>();
 
-			return results;
+			// Now iterate over all fragments and find those that referenced this one
+			// remove those choices so they cannot be selected
+			for(StoryFragment frag : m_fragmentCache.values())
+			{
+				choicesToRemove.clear();
 
+				for(Choice choice : frag.getChoices())
+				{
+					if(choice.getTarget().equals(fragmentId))
+					{
+						choicesToRemove.add(choice);
+					}
+				}
+
+				for(Choice choice : choicesToRemove)
+				{
+					frag.removeChoice(choice);
+				}
+				if(!choicesToRemove.isEmpty())
+					referrers.add(frag);
+			}
+
+			if(m_currentStory != null)
+			{
+				synchronized (m_changesLock)
+				{
+					StoryChangeSet changes = PendingChanges(m_currentStory.getId());
+					changes.fragmentRemoved(fragmentId);
+					m_knownChoices.remove(fragmentId);
+					GraphWithoutFragment(m_currentStory.getId(), fragmentId);
+					for(StoryFragment frag : referrers)
+					{
+						RecordUpdate(changes, frag);
+					}
+				}
+			}
+
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
 		}
+
+		// have to save after a deletion or the memory and database will be out of sync
+		SaveStory();
 	}
 
 	/**
-	 * Fetch a bookmark from local database
+	 * Get a fragment from the database
 	 */
-	public Bookmark getBookmark(UUID id) {
-		synchronized (syncLock) 
+	public StoryFragment getFragment(UUID theId) {
+		StoryFragment result = m_fragmentCache.get(theId);
+
+		if(result == null && !m_pendingDeletes.contains(theId))
 		{
-			if(m_bookmarkList == null)
+			//Try loading from db, without holding anything other readers could wait on
+			result = m_db.getStoryFragment(theId);
+			// a delete queued while reading wins over what was read
+			if(result != null && m_pendingDeletes.contains(theId))
+				result = null;
+			if(result != null)
 			{
-				LoadBookmarks();
+				// keep whichever copy was cached first so everyone edits the same one
+				StoryFragment cached = m_fragmentCache.putIfAbsent(result);
+				if(cached != null)
+					result = cached;
 			}
+			else
+			{
+				// TODO check webstorage...?
+				Log.w(TAG, "Attempted to load a fragment that wasn't cached or in the database!");
+			}
+		}
+
+		return result;
+	}
+
+	private void getFragmentOnline(UUID fragmentId, boolean storeDB) 
+	{
+		// Fetch fragment asynchronously
+		final UUID finalId = fragmentId;
+		final boolean finalStoreDB = storeDB;
+		m_threadPool.execute(
+				new Runnable() 
+				{
+					public void run() {
+						try 
+						{
+							StoryFragment fragment = m_webStorage.getFragment(finalId);
+							if(fragment != null)
+							{
+								// afterwards place into cache
+								m_fragmentCache.put(fragment);
+								m_focusLock.writeLock().lock();
+								try
+								{
+									m_currentFragment = fragment;
+								}
+								finally
+								{
+									m_focusLock.writeLock().unlock();
+								}
+								PublishCurrentFragmentChanged();
+								m_prefetcher.prefetch(fragment, m_storyGraph.get());
+								if(finalStoreDB) 
+								{
+									m_storage.setStoryFragment(fragment, null);
+								}
+							}
+							else
+							{
+								Log.e(TAG, "Rx'd a NULL value from the webstorage for a fragment!");
+							}
+						} catch (Exception e) 
+						{
+							Log.e(TAG, "StoryManager: ", e);
+						}
+					}
+				});
+	}
+
+	public ArrayList<Story> getStoriesAuthoredBy(String author) {
+		ArrayList<Story> results = new ArrayList<Story>();
 
-			return m_bookmarkList.get(id);
+		for(Story story : GetLocalStories().values())
+		{
+			if(author.equalsIgnoreCase(story.getAuthor()))
+			{
+				results.add(story);
+			}
 		}
+
+		return results;
+	}
+
+	/**
+	 * Fetch a bookmark from local database
+	 */
+	public Bookmark getBookmark(UUID id) {
+		return GetBookmarks().get(id);
 	}
 
 	public void setBookmark(UUID fragmentId) {
-		synchronized (syncLock) 
+		UUID storyId = m_currentStory.getId();
+		Bookmark newBookmark = new Bookmark(storyId, fragmentId);
+		synchronized (m_bookmarksLock)
 		{
-			Bookmark newBookmark = new Bookmark(m_currentStory.getId(), fragmentId);
-			m_bookmarkList.remove(m_currentStory.getId());
-			m_bookmarkList.put(m_currentStory.getId(), newBookmark);
-			m_db.setBookmark(newBookmark);
-			PublishBookmarkListChanged();
+			GetBookmarks().put(storyId, newBookmark);
 		}
+		// The bookmark is written along with the trail when the buffer flushes
+		m_readingTrail.record(newBookmark);
+		PublishBookmarkListChanged();
+	}
+
+	/**
+	 * Write any buffered reading trail entries, and with them the bookmarks
+	 */
+	public void flushReadingTrail() {
+		m_readingTrail.flush();
+	}
+
+	/**
+	 * Fetch every fragment read in a story, including ones not yet written
+	 */
+	public List<Bookmark> getReadingTrail(UUID storyId) {
+		List<Bookmark> trail = new ArrayList<Bookmark>(m_db.getReadingTrail(storyId));
+		trail.addAll(m_readingTrail.getPending(storyId));
+		return trail;
 	}
 
 	public void deleteBookmark() {
-		synchronized (syncLock) 
+		UUID storyId = m_currentStory.getId();
+		m_readingTrail.discard(storyId);
+		m_storage.deleteBookmarkByStory(storyId, null);
+		synchronized (m_bookmarksLock)
 		{
-			m_db.deleteBookmarkByStory(m_currentStory.getId());
-			m_bookmarkList.remove(m_currentStory.getId());
-			PublishBookmarkListChanged();
+			GetBookmarks().remove(storyId);
 		}
+		PublishBookmarkListChanged();
 	}
 
 	public void addComment(Comment comment) {
-		synchronized(syncLock)
+		final Comment finalComment = comment;
+		m_threadPool.execute(new Runnable() {
+			public void run() 
+			{
+				try {
+					m_webStorage.putComment(finalComment);
+					Thread.sleep(1000);
+					LoadComments(finalComment.getTargetId());
+				} catch (Exception e) {
+					Log.e(TAG, "Error: ", e);
+				}
+			}});
+	}
+
+	/**
+	 * Get the local stories, loading them from the database first if nothing has yet
+	 */
+	private Map<UUID, Story> GetLocalStories()
+	{
+		Map<UUID, Story> stories = m_stories;
+		if(stories == null)
 		{
-			final Comment finalComment = comment;
-			m_threadPool.execute(new Runnable() {
-				public void run() 
+			synchronized (m_storiesLock)
+			{
+				if(m_stories == null)
 				{
-					try {
-						m_webStorage.putComment(finalComment);
-						Thread.sleep(1000);
-						LoadComments(finalComment.getTargetId());
-					} catch (Exception e) {
-						Log.e(TAG, "Error: ", e);
-					}
-				}});
+					LoadStories();
+				}
+				stories = m_stories;
 			}
 		}
+		return stories;
+	}
 
+	/**
+	 * Replace the local stories with what is in the database. Call while holding m_storiesLock.
+	 */
 	private void LoadStories()
 	{
-		synchronized (syncLock) 
-		{
-			m_stories = new HashMap<UUID, Story>();
-			ArrayList<Story> localStories = m_db.getStories();
+		Map<UUID, Story> stories = new ConcurrentHashMap<UUID, Story>();
+		ArrayList<Story> localStories = m_db.getStories();
 
-			for(Story story : localStories)
-			{
-				m_stories.put(story.getId(), story);
-			}
+		for(Story story : localStories)
+		{
+			stories.put(story.getId(), story);
 		}
+		m_snapshotStories = null;
+		m_stories = stories;
 	}
 
-	private void LoadOnlineStories()
+	/**
+	 * Swap a story published from the snapshot, which only has what the catalogue shows and no
+	 * fragments, for the whole story from the database. The whole one replaces it in the local
+	 * stories, so it is what reconciling keeps and what the current story stays pointing at.
+	 * @return The whole story, or null if it is no longer in the database
+	 */
+	private Story LoadSnapshotStory(UUID storyId, Story snapshotStory)
 	{
-		synchronized (syncLock) 
+		Story story = m_db.getStory(storyId);
+		synchronized (m_storiesLock)
 		{
-			m_onlineStories = new HashMap<UUID, Story>();
+			// reconciled or replaced while reading, whatever is there now is newer
+			Story current = m_stories.get(storyId);
+			if(current != snapshotStory)
+				return current;
+			if(story == null)
+				return null;
+			m_stories.put(storyId, story);
+		}
+		return story;
+	}
 
-			// Fetch stories from web asynchronously.
-			m_threadPool.execute(new Runnable() {
-				public void run() {
-					try {
+	/**
+	 * Load the local stories on a storage reader and publish them once loaded,
+	 * so subscribing never waits on the disk
+	 */
+	private void LoadStoriesAsync()
+	{
+		// the snapshot is only a few kilobytes, so it is usually published well before the database
+		m_threadPool.execute(new Runnable() {
+			public void run()
+			{
+				Map<UUID, Story> snapshot = m_snapshot.readStories();
+				if(snapshot == null)
+					return;
+				synchronized (m_storiesLock)
+				{
+					if(m_stories != null)
+						return;
+					m_snapshotStories = snapshot;
+					m_stories = new ConcurrentHashMap<UUID, Story>(snapshot);
+				}
+				PublishStoriesChanged();
+			}
+		});
 
-						List<Story> onlineStories;
-						int size = 10;
-						int i = 0;
+		m_storage.getStories(new IStorageCallback<ArrayList<Story>>() {
+			public void OnStorageResult(ArrayList<Story> localStories)
+			{
+				Map<UUID, Story> loaded = new ConcurrentHashMap<UUID, Story>();
+				for(Story story : localStories)
+				{
+					loaded.put(story.getId(), story);
+				}
 
-						while(size == 10) {
-							onlineStories = m_webStorage.getStories(i, 10);
-							for(Story story : onlineStories)
-							{
-								m_onlineStories.put(story.getId(), story);
-							}
-							size = onlineStories.size();
-							i += 10;
-						}
-						PublishOnlineStoriesChanged();
-					} catch (Exception e) {
-						Log.e(TAG, "Error: ", e);
+				synchronized (m_storiesLock)
+				{
+					if(m_stories == null)
+					{
+						m_stories = loaded;
 					}
+					else if(m_snapshotStories != null)
+					{
+						m_stories = Reconcile(m_stories, m_snapshotStories, loaded);
+						m_snapshotStories = null;
+					}
+					// otherwise a synchronous load won the race, keep what it has since built on
 				}
-			});
-		}
+				PublishStoriesChanged();
+			}
+		});
 	}
 
-	private void LoadBookmarks()
+	private void LoadOnlineStories()
 	{
-		synchronized (syncLock) 
-		{
-			m_bookmarkList = new HashMap<UUID, Bookmark>();
-			ArrayList<Bookmark> bookmarks = m_db.getAllBookmarks();
+		OpenOnlineCatalogue(null);
+	}
 
-			for(Bookmark bookmark : bookmarks)
-			{
-				m_bookmarkList.put(bookmark.getStoryID(), bookmark);
-			}
-		}
+	/**
+	 * Start paging through the online stories, or a search of them, from the first page
+	 */
+	private void OpenOnlineCatalogue(String query)
+	{
+		OnlineCatalogue catalogue = new OnlineCatalogue(m_webStorage, query);
+		m_onlineCatalogue = catalogue;
+		LoadOnlinePage(catalogue);
 	}
 
-	private void LoadComments(UUID id)
+	/**
+	 * Fetch the next page of a catalogue in the background, publishing it as soon as it arrives
+	 * unless a newer catalogue took its place
+	 */
+	private void LoadOnlinePage(final OnlineCatalogue catalogue)
 	{
-		synchronized (syncLock) 
-		{
-			final UUID finalId = id;
-			m_threadPool.execute(new Runnable() {
-				public void run() {
-					try {
-						if(m_comments.get(finalId) != null)
-							m_comments.remove(finalId);
+		m_threadPool.execute(new Runnable() {
+			public void run() {
+				boolean loaded;
+				try {
+					loaded = catalogue.loadNextPage();
+				} catch (Exception e) {
+					Log.e(TAG, "Error: ", e);
+					loaded = true;
+				}
+				if(loaded && catalogue == m_onlineCatalogue)
+					PublishOnlineStoriesChanged();
+			}
+		});
+	}
 
-						List<Comment> tempComments;
-						List<Comment> onlineComments = new ArrayList<Comment>();
-						int size = 10;
-						int i = 0;
+	public void loadMoreOnlineStories()
+	{
+		OnlineCatalogue catalogue = m_onlineCatalogue;
+		if(catalogue != null && !catalogue.isExhausted() && !catalogue.isLoading())
+			LoadOnlinePage(catalogue);
+	}
 
-						while(size == 10) {
-							tempComments = m_webStorage.getComments(finalId, i, 10);
-							for(Comment comment : tempComments)
-							{
-								onlineComments.add(comment);
-							}
-							size = tempComments.size();
-							i += 10;
-						}
-						m_comments.put(finalId, onlineComments);
-						PublishCommentsChanged(finalId);
-					} catch (Exception e) {
-						Log.e(TAG, "Error: ", e);
-					}
+	/**
+	 * Get the bookmarks, loading them from the database first if nothing has yet
+	 */
+	private Map<UUID, Bookmark> GetBookmarks()
+	{
+		Map<UUID, Bookmark> bookmarks = m_bookmarkList;
+		if(bookmarks == null)
+		{
+			synchronized (m_bookmarksLock)
+			{
+				if(m_bookmarkList == null)
+				{
+					LoadBookmarks();
 				}
-			});
+				bookmarks = m_bookmarkList;
+			}
 		}
+		return bookmarks;
 	}
-	private Map<UUID, StoryFragment> GetAllCurrentFragments()
+
+	/**
+	 * Replace the bookmarks with what is in the database. Call while holding m_bookmarksLock.
+	 */
+	private void LoadBookmarks()
 	{
-		synchronized (syncLock) 
+		Map<UUID, Bookmark> bookmarkList = new ConcurrentHashMap<UUID, Bookmark>();
+		ArrayList<Bookmark> bookmarks = m_db.getAllBookmarks();
+
+		for(Bookmark bookmark : bookmarks)
 		{
-			Map<UUID, StoryFragment> currentFragments = new HashMap<UUID, StoryFragment>();
+			bookmarkList.put(bookmark.getStoryID(), bookmark);
+		}
+		m_snapshotBookmarks = null;
+		m_bookmarkList = bookmarkList;
+	}
 
-			for(UUID fragmentId : m_currentStory.getFragments())
+	/**
+	 * Load the bookmarks on a storage reader and publish them once loaded
+	 */
+	private void LoadBookmarksAsync()
+	{
+		m_threadPool.execute(new Runnable() {
+			public void run()
 			{
-				// first try to fetch from local cache
-				StoryFragment frag = this.getFragment(fragmentId);
-
-				if(frag != null)
-				{
-					currentFragments.put(frag.getFragmentID(), frag);
-				}
-				else
+				Map<UUID, Bookmark> snapshot = m_snapshot.readBookmarks();
+				if(snapshot == null)
+					return;
+				synchronized (m_bookmarksLock)
 				{
-					Log.w(TAG, "Attempted to fetch fragments that aren't cached or in local DB!");
+					if(m_bookmarkList != null)
+						return;
+					m_snapshotBookmarks = snapshot;
+					m_bookmarkList = new ConcurrentHashMap<UUID, Bookmark>(snapshot);
 				}
+				PublishBookmarkListChanged();
 			}
-			return currentFragments;
-		}
-	}
-	public void uploadCurrentStory() {
-		synchronized (syncLock) 
-		{
-			m_threadPool.execute(new Runnable() {
-				public void run() {
-					try {
-						m_webStorage.publishStory(m_currentStory, new ArrayList<StoryFragment>(GetAllCurrentFragments().values()));
-					} catch (Exception e) {
-						Log.e(TAG, "Error: ", e);
-					}
+		});
+
+		m_storage.getAllBookmarks(new IStorageCallback<ArrayList<Bookmark>>() {
+			public void OnStorageResult(ArrayList<Bookmark> bookmarks)
+			{
+				Map<UUID, Bookmark> loaded = new ConcurrentHashMap<UUID, Bookmark>();
+				for(Bookmark bookmark : bookmarks)
+				{
+					loaded.put(bookmark.getStoryID(), bookmark);
 				}
-			});
-		}
-	}
 
-	public void download() {
-		synchronized (syncLock) 
-		{
-			if(m_currentStory != null) {
-				m_stories.put(m_currentStory.getId(), m_currentStory);
-				m_db.setStory(m_currentStory);
-				for(UUID fragmentId : m_currentStory.getFragments()) {
-					getFragmentOnline(fragmentId, true);
+				synchronized (m_bookmarksLock)
+				{
+					if(m_bookmarkList == null)
+					{
+						m_bookmarkList = loaded;
+					}
+					else if(m_snapshotBookmarks != null)
+					{
+						m_bookmarkList = Reconcile(m_bookmarkList, m_snapshotBookmarks, loaded);
+						m_snapshotBookmarks = null;
+					}
 				}
+				PublishBookmarkListChanged();
 			}
-		}
+		});
 	}
 
-	public void search(String searchTerm) {
-		m_onlineStories = new HashMap<UUID, Story>();
-		final String finalTerm = searchTerm;
-		// Fetch stories from web asynchronously.
+	private void LoadComments(UUID id)
+	{
+		final UUID finalId = id;
 		m_threadPool.execute(new Runnable() {
 			public void run() {
 				try {
+					if(m_comments.get(finalId) != null)
+						m_comments.remove(finalId);
 
-					List<Story> onlineStories;
+					List<Comment> tempComments;
+					List<Comment> onlineComments = new ArrayList<Comment>();
 					int size = 10;
 					int i = 0;
 
 					while(size == 10) {
-						onlineStories = m_webStorage.queryStories(finalTerm, i, 10);
-						for(Story story : onlineStories)
+						tempComments = m_webStorage.getComments(finalId, i, 10);
+						for(Comment comment : tempComments)
 						{
-							m_onlineStories.put(story.getId(), story);
+							onlineComments.add(comment);
 						}
-						size = onlineStories.size();
+						size = tempComments.size();
 						i += 10;
 					}
-					PublishOnlineStoriesChanged();
+					m_comments.put(finalId, onlineComments);
+					PublishCommentsChanged(finalId);
 				} catch (Exception e) {
 					Log.e(TAG, "Error: ", e);
 				}
 			}
 		});
 	}
+	private Map<UUID, StoryFragment> GetAllCurrentFragments()
+	{
+		Map<UUID, StoryFragment> currentFragments = new HashMap<UUID, StoryFragment>();
+		Set<UUID> fragmentIds;
+
+		// only the ids are copied under the lock, fragments missing from the cache are read after,
+		// so callers holding the write lock must have every fragment cached
+		m_focusLock.readLock().lock();
+		try
+		{
+			if(m_currentStory == null)
+				return currentFragments;
+			fragmentIds = m_currentStory.getFragments();
+		}
+		finally
+		{
+			m_focusLock.readLock().unlock();
+		}
+
+		for(UUID fragmentId : fragmentIds)
+		{
+			// first try to fetch from local cache
+			StoryFragment frag = this.getFragment(fragmentId);
+
+			if(frag != null)
+			{
+				currentFragments.put(frag.getFragmentID(), frag);
+			}
+			else
+			{
+				Log.w(TAG, "Attempted to fetch fragments that aren't cached or in local DB!");
+			}
+		}
+		return currentFragments;
+	}
+	public void uploadCurrentStory() {
+		final Story story = m_currentStory;
+		m_threadPool.execute(new Runnable() {
+			public void run() {
+				try {
+					m_webStorage.publishStory(story, new ArrayList<StoryFragment>(GetAllCurrentFragments().values()));
+				} catch (Exception e) {
+					Log.e(TAG, "Error: ", e);
+				}
+			}
+		});
+	}
+
+	public void download() {
+		final Story story;
+		final Story header;
+		m_focusLock.writeLock().lock();
+		try
+		{
+			story = m_currentStory;
+			if(story == null)
+				return;
+			// the batches are written on the writer, so they get a copy nobody else touches
+			header = story.copyForSave();
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
+		}
+
+		synchronized (m_storiesLock)
+		{
+			GetLocalStories().put(story.getId(), story);
+		}
+		// Fragments are written batch by batch as they arrive, not held in the cache
+		m_threadPool.execute(new Runnable() {
+			public void run() {
+				m_downloader.download(header, new IDownloadListener() {
+					public void OnDownloadProgress(UUID storyId, int saved, int total)
+					{
+						PublishDownloadProgress(storyId, saved, total);
+					}
+
+					public void OnDownloadComplete(UUID storyId, boolean succeeded)
+					{
+						if(!succeeded)
+							Log.w(TAG, "Failed to save downloaded story to database!");
+						// the copy is only marked saved if some batch wrote its row
+						m_dispatcher.runBeforeFrame(new Runnable() {
+							public void run()
+							{
+								MarkSaved(story, header, Collections.<StoryFragment, StoryFragment>emptyMap());
+							}
+						});
+						PublishStoriesChanged();
+						PublishDownloadComplete(storyId, succeeded);
+					}
+				});
+			}
+		});
+	}
+
+	public void search(String searchTerm) {
+		OpenOnlineCatalogue(searchTerm);
+	}
 
 	@Override
 	public UUID setStoryToAuthor(UUID storyId, String username) {
-		synchronized (syncLock) 
-		{
-			if(m_db.getAuthoredStory(storyId))
-				return storyId;
+		if(m_db.getAuthoredStory(storyId))
+			return storyId;
+
+		// the story and fragments missing from the cache are read before locking, so readers never
+		// wait on the database, and once copied every fragment of the new story is cached
+		Story original = getStory(storyId);
+		Map<UUID, StoryFragment> originals = new HashMap<UUID, StoryFragment>();
+		for(UUID fragmentId : original.getFragments()) {
+			StoryFragment fragment = getFragment(fragmentId);
+			if(fragment != null)
+				originals.put(fragmentId, fragment);
+		}
 
-            String bit = getStory(storyId).getThumbnail().getEncodedBitmap();
-			Story story = getStory(storyId).newId();
+		Story story;
+		m_focusLock.writeLock().lock();
+		try
+		{
+            String bit = original.getThumbnail().getEncodedBitmap();
+			story = original.newId();
 			List<StoryFragment> newFragments = new ArrayList<StoryFragment>();
 			Map<UUID,UUID> oldToNew = new HashMap<UUID, UUID>();
 			
 			for(UUID fragmentId : story.getFragments()) {
 				try {
-					StoryFragment fragment = getFragment(fragmentId).newId();
+					StoryFragment fragment = originals.get(fragmentId).newId();
 					fragment.setStoryID(story.getId());
 					newFragments.add(fragment);
 					oldToNew.put(fragmentId, fragment.getFragmentID());
@@ -887,35 +1771,65 @@ IStoryModelDirector {
 				}
 			}
 			
+			// the copies are only in the cache until saved, so their story is pinned before they go in,
+			// and the fragments they were copied from leave both the story and the cache
+			m_currentStory = story;
+			m_fragmentCache.pinStory(story.getId());
+			// adding to an empty story makes the first fragment its head, so the old head is kept
+			UUID oldHead = story.getHeadFragmentId();
+			for(UUID fragmentId : story.getFragments()) {
+				story.removeFragment(fragmentId);
+				m_fragmentCache.remove(fragmentId);
+			}
 			for(StoryFragment fragment : newFragments) {
 				for(Choice choice : fragment.getChoices()) {
 					if(choice != null)
 						choice.setTarget(oldToNew.get(choice.getTarget()));
 				}
-				m_db.setStoryFragment(fragment);
-				m_fragmentList.put(fragment.getFragmentID(), fragment);
+				m_fragmentCache.put(fragment);
 				story.addFragment(fragment);
 			}
 
             story.setThumbnail((String)null);
             story.setThumbnail(bit);
-			story.setHeadFragmentId(oldToNew.get(story.getHeadFragmentId()));
+			story.setHeadFragmentId(oldToNew.get(oldHead));
 			story.setAuthor(username);
-			selectStory(storyId);
+
+			// writes the story with all of its new fragments at once
 			SaveStory();
-			m_db.setAuthoredStory(story);
-			LoadStories();
-			
-			return story.getId();
+			// the reload reads the database, so it waits for the copy to land, on the pool
+			m_storage.setAuthoredStory(story, new IStorageCallback<Boolean>() {
+				public void OnStorageResult(Boolean result)
+				{
+					if(!result)
+						Log.w(TAG, "Failed to save authored story to database!");
+					m_threadPool.execute(new Runnable() {
+						public void run()
+						{
+							synchronized (m_storiesLock)
+							{
+								LoadStories();
+							}
+							PublishStoriesChanged();
+						}
+					});
+				}
+			});
+		}
+		finally
+		{
+			m_focusLock.writeLock().unlock();
 		}
+
+		PublishCurrentStoryChanged();
+		PublishAllFragmentsChanged();
+
+		return story.getId();
 	}
 
 	@Override
 	public boolean isAuthored(UUID storyId) {
-		synchronized (syncLock) 
-		{
-			return m_db.getAuthoredStory(storyId);
-		}
+		return m_db.getAuthoredStory(storyId);
 	}
 
 }
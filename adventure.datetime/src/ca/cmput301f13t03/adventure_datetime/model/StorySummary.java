@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * Evan DeGraff
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.graphics.Bitmap;
+
+import java.util.Calendar;
+import java.util.UUID;
+
+/**
+ * The few fields of a Story that story lists show. Summaries leave out the fragment ids, and the
+ * thumbnail is only read from the image store when it is first drawn.
+ */
+public class StorySummary {
+
+	/**
+	 * Orders for paging through the local catalogue
+	 */
+	public enum Sort {
+		/** Most recently modified first */
+		NEWEST,
+		/** By title, ignoring case */
+		TITLE,
+		/** By author, ignoring case */
+		AUTHOR
+	}
+
+	/**
+	 * Subsets of the local catalogue
+	 */
+	public enum Filter {
+		ALL,
+		/** Stories in the AuthoredStory table */
+		AUTHORED,
+		/** Stories that were downloaded rather than authored */
+		NOT_AUTHORED,
+		/** Stories with a bookmark */
+		BOOKMARKED
+	}
+
+	private UUID id;
+	private String title;
+	private String author;
+	private long timestamp;
+	private int fragmentCount;
+	private Image thumbnail;
+
+	/**
+	 * Creates a summary, used by @link{StoryDB}
+	 *
+	 * @param id UUID of the Story
+	 * @param title Title of the Story
+	 * @param author Author of the Story
+	 * @param timestamp Time the Story was last modified
+	 * @param fragmentCount Number of fragments in the Story
+	 * @param thumbnail Thumbnail of the Story, may be null
+	 */
+	protected StorySummary(UUID id, String title, String author, long timestamp, int fragmentCount,
+	                       Image thumbnail) {
+		this.id = id;
+		this.title = title;
+		this.author = author;
+		this.timestamp = timestamp;
+		this.fragmentCount = fragmentCount;
+		this.thumbnail = thumbnail;
+	}
+
+	/**
+	 * Creates a summary of a Story that is already in memory, such as an online story
+	 *
+	 * @param story The Story to summarize
+	 */
+	public StorySummary(Story story) {
+		this(story.getId(), story.getTitle(), story.getAuthor(), story.getTimestamp(),
+				story.getFragmentIds().size(), story.getThumbnail());
+	}
+
+	public UUID getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Gets a formatted timestamp string
+	 *
+	 * @return Timestamp in format 'mm/dd/yyyy'
+	 */
+	public String getFormattedTimestamp() {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(timestamp * 1000);
+		return (cal.get(Calendar.MONTH) + 1) + "/" +
+				cal.get(Calendar.DAY_OF_MONTH) + "/" +
+				cal.get(Calendar.YEAR);
+	}
+
+	public int getFragmentCount() {
+		return fragmentCount;
+	}
+
+	/**
+	 * Decodes the thumbnail, reading it from the image store the first time
+	 *
+	 * @return The thumbnail, or null if the Story has none
+	 */
+	public Bitmap decodeThumbnail() {
+		return thumbnail == null ? null : thumbnail.decodeBitmap();
+	}
+}
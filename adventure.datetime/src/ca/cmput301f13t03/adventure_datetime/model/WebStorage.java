@@ -29,7 +29,9 @@ import io.searchbox.client.JestResult;
 import io.searchbox.core.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 
@@ -95,6 +97,10 @@ public class WebStorage implements IWebStorage {
 		"	],\n";  
 	
 	private static final String defaultIndex = "cmput301f13t03";
+	/**
+	 * Most images asked for in one multi-get
+	 */
+	private static final int IMAGE_BATCH_SIZE = 50;
 	
 	private JestClient client;
 	private String errorMessage;
@@ -180,6 +186,17 @@ public class WebStorage implements IWebStorage {
 	 */
 	@Override
 	public List<StoryFragment> getFragmentsForStory(UUID storyId, int from, int size) throws Exception {
+		List<StoryFragment> fragments = getFragmentPage(storyId, from, size);
+		mapImagesToFragments(fragments);
+		
+		return fragments;
+	}
+	
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.IWebStorage#getFragmentPage(java.util.UUID, int, int)
+	 */
+	@Override
+	public List<StoryFragment> getFragmentPage(UUID storyId, int from, int size) throws Exception {
 		Search search = new Search.Builder(
 				String.format(MATCH, from, size, "", "storyID", storyId))
 			.addIndex(_index)
@@ -187,10 +204,15 @@ public class WebStorage implements IWebStorage {
 			.build();
 		
 		JestResult result = execute(search);
-		List<StoryFragment> fragments =  result.getSourceAsObjectList(StoryFragment.class);
+		return result.getSourceAsObjectList(StoryFragment.class);
+	}
+	
+	/* (non-Javadoc)
+	 * @see ca.cmput301f13t03.adventure_datetime.model.IWebStorage#loadFragmentImages(java.util.List)
+	 */
+	@Override
+	public void loadFragmentImages(List<StoryFragment> fragments) throws Exception {
 		mapImagesToFragments(fragments);
-		
-		return fragments;
 	}
 	
 	/* (non-Javadoc)
@@ -337,6 +359,7 @@ public class WebStorage implements IWebStorage {
 	 */
 	@Override
 	public boolean putImage(Image image) throws Exception {
+		image.updateEncodedBitmap();
 		Index index = new Index.Builder(image)
 			.index(_index)
 			.type("image")
@@ -355,6 +378,7 @@ public class WebStorage implements IWebStorage {
 			.defaultType("image");
 		
 		for(Image i : images) {
+			i.updateEncodedBitmap();
 			bulkBuilder.addAction(new Index.Builder(i).id(i.getId().toString()).build());
 		}
 		
@@ -507,8 +531,34 @@ public class WebStorage implements IWebStorage {
 	}
 	
 	private void mapImagesToFragments(List<StoryFragment> fragments) throws Exception {
+		if (fragments == null || fragments.size() == 0)
+			return;
+		
+		// Ask for the images of every fragment together, a batch at a time
+		List<UUID> ids = new ArrayList<UUID>();
 		for (StoryFragment f : fragments) {
-			mapImagesToFragment(f);
+			if (f.getMediaIds() != null)
+				ids.addAll(f.getMediaIds());
+		}
+		
+		Map<UUID, Image> images = new HashMap<UUID, Image>();
+		for (int i = 0; i < ids.size(); i += IMAGE_BATCH_SIZE) {
+			List<UUID> batch = ids.subList(i, Math.min(i + IMAGE_BATCH_SIZE, ids.size()));
+			for (Image image : getImages(new ArrayList<UUID>(batch))) {
+				images.put(image.getId(), image);
+			}
+		}
+		
+		for (StoryFragment f : fragments) {
+			if (f.getMediaIds() == null)
+				continue;
+			ArrayList<Image> media = new ArrayList<Image>();
+			for (UUID id : f.getMediaIds()) {
+				Image image = images.get(id);
+				if (image != null)
+					media.add(image);
+			}
+			f.setStoryMedia(media);
 		}
 	}
 	
@@ -33,15 +33,17 @@ import ca.cmput301f13t03.adventure_datetime.R;
 import ca.cmput301f13t03.adventure_datetime.model.AccountService;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStoriesListener;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 import ca.cmput301f13t03.adventure_datetime.serviceLocator.Locator;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 /**
  * 
- * View containing list of stories created by the author
+ * View containing list of stories created by the author, paged in from the local catalogue
  * 
  * @author James Finlay
  *
@@ -50,7 +52,7 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 
 	private ListView _listView;
 	private RowArrayAdapter _adapter;
-	private Collection<Story> _stories;
+	private CataloguePager _pager;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -58,13 +60,17 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 		setContentView(R.layout.browse_authored);
 
 		_listView = (ListView) findViewById(R.id.list_view);
+		_adapter = new RowArrayAdapter(this, R.layout.listviewitem, new ArrayList<StorySummary>());
+		_listView.setAdapter(_adapter);
+		_pager = new CataloguePager(_adapter, StorySummary.Filter.AUTHORED, StorySummary.Sort.NEWEST);
+		_listView.setOnScrollListener(_pager);
 		_listView.setOnItemClickListener(new OnItemClickListener() {
 			@Override
 			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
 
 				// Get selected item
 				ListView listView = (ListView) parent;
-				Story item = (Story) listView.getItemAtPosition(position);
+				StorySummary item = (StorySummary) listView.getItemAtPosition(position);
 
 				Locator.getAuthorController().selectStory(item.getId());
 
@@ -72,11 +78,9 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 				startActivity(intent);	
 			}
 		});
-		setUpView();
 	}
 	@Override
 	public void OnLocalStoriesChange(Map<UUID, Story> stories) {
-		_stories = Locator.getAuthorController().checkIfAuthored(stories.values());
 		setUpView();
 	}
 	@Override
@@ -90,14 +94,9 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 		super.onPause();
 	}
 	private void setUpView() {
-		if (_listView == null) return;
-		if (_stories == null) return;
-
+		if (_pager == null) return;
 
-		_adapter = new RowArrayAdapter(this, R.layout.listviewitem,
-				_stories.toArray(new Story[_stories.size()]));
-
-		_listView.setAdapter(_adapter);
+		_pager.reset();
 	}
 
 	@Override
@@ -127,18 +126,16 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 	}
 
 
-	private class RowArrayAdapter extends ArrayAdapter<Story> {
+	private class RowArrayAdapter extends ArrayAdapter<StorySummary> {
 
 		private Context context;
 		private int layoutResourceID;
-		private Story[] values;
 
-		public RowArrayAdapter(Context context, int layoutResourceID, Story[] values) {
+		public RowArrayAdapter(Context context, int layoutResourceID, List<StorySummary> values) {
 			super(context, layoutResourceID, values);
 
 			this.context = context;
 			this.layoutResourceID = layoutResourceID;
-			this.values = values;
 		}
 
 		public View getView(int position, View convertView, ViewGroup parent) {
@@ -146,7 +143,7 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 
 			View rowView = inflater.inflate(R.layout.listviewitem, parent, false);
 
-			Story item = values[position];
+			StorySummary item = getItem(position);
 			
 			/** Layout Items **/
 			ImageView thumbnail = (ImageView) rowView.findViewById(R.id.thumbnail);
@@ -157,7 +154,7 @@ public class AuthorStories extends FragmentActivity implements ILocalStoriesList
 
 			thumbnail.setImageBitmap(item.decodeThumbnail());
 			title.setText(item.getTitle());
-			fragments.setText("Fragments: " + item.getFragmentIds().size());
+			fragments.setText("Fragments: " + item.getFragmentCount());
 			lastModified.setText("Last Modified: " + item.getFormattedTimestamp());
 			
 			/*
@@ -22,9 +22,13 @@
 
 package ca.cmput301f13t03.adventure_datetime.view;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+
 import ca.cmput301f13t03.adventure_datetime.R;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 import ca.cmput301f13t03.adventure_datetime.serviceLocator.Locator;
 import android.content.Context;
 import android.content.Intent;
@@ -46,6 +50,8 @@ import android.widget.TextView;
 /**
  * 
  * Fragment owned by BrowseView. Three are used to show the cached, authored, and online stories.
+ * Local stories are paged in from the catalogue as the list scrolls, online ones are asked
+ * for a page at a time from the server.
  * 
  * @author James Finlay
  *
@@ -58,9 +64,14 @@ public class BrowseFragment extends Fragment {
 	public static final int SOURCE_ONLINE = 2;
 
 	private Collection<Story> _stories;
+	private StorySummary.Filter _filter;
+	private String _query;
 	private ListView _listView;
 	private RowArrayAdapter _adapter;
+	private CataloguePager _pager;
 	private ProgressBar _bar;
+	/* Whether the adapter holds stories from the server rather than a catalogue page */
+	private boolean _streaming;
 	private int source;
 	
 	@Override
@@ -77,26 +88,90 @@ public class BrowseFragment extends Fragment {
 	}
 	public void setStories(Collection<Story> stories, int source) {
 		_stories = stories;
+		_filter = null;
+		_query = null;
 		this.source = source;
 		setUpView();
 	}
+	/**
+	 * Shows the local stories matching the filter, a page at a time
+	 */
+	public void setCatalogue(StorySummary.Filter filter, int source) {
+		_filter = filter;
+		_stories = null;
+		_query = null;
+		this.source = source;
+		setUpView();
+	}
+	/**
+	 * Shows the local stories matching a search and the filter, a page at a time
+	 */
+	public void setSearch(String query, StorySummary.Filter filter, int source) {
+		_query = query;
+		_filter = filter;
+		_stories = null;
+		this.source = source;
+		setUpView();
+	}
+	
+	/**
+	 * Reloads the local stories shown, keeping the search, the filter and the place in the list
+	 * @return False if the fragment shows no local catalogue or search to reload
+	 */
+	public boolean refresh() {
+		if (_filter == null && _query == null) return false;
+		if (_pager != null && !_streaming && _listView != null && _listView.getAdapter() == _adapter)
+			_pager.refresh();
+		return true;
+	}
 	
 	private void setUpView() {
-		if (_stories == null) return;
+		if (_stories == null && _filter == null && _query == null) return;
 		if (_listView == null) return;
 		
-		/* Run on UI Thread for server stuff */
-		getActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				Story[] array = _stories.toArray(new Story[_stories.size()]);
-				_adapter = new RowArrayAdapter(getActivity(), R.layout.listviewitem, array);
-				_listView.setAdapter(_adapter);
-				_bar.setVisibility(View.GONE);
-			}
-		});
-		
-		
+		/* Model callbacks already arrive on the UI thread */
+		if (_filter != null || _query != null) {
+			_adapter = new RowArrayAdapter(getActivity(), R.layout.listviewitem,
+					new ArrayList<StorySummary>());
+			_listView.setAdapter(_adapter);
+			_pager = _query != null
+					? new CataloguePager(_adapter, _query, _filter)
+					: new CataloguePager(_adapter, _filter, StorySummary.Sort.NEWEST);
+			_listView.setOnScrollListener(_pager);
+			_streaming = false;
+			_pager.reset();
+		} else {
+			showStories();
+		}
+		_bar.setVisibility(View.GONE);
+	}
+	/**
+	 * Shows the stories loaded from the server so far. Each page that arrives refills the same
+	 * adapter so the list stays where it was scrolled, and the next page is asked for as the
+	 * list nears its end.
+	 */
+	private void showStories() {
+		if (!_streaming || _adapter == null || _listView.getAdapter() != _adapter) {
+			_adapter = new RowArrayAdapter(getActivity(), R.layout.listviewitem,
+					new ArrayList<StorySummary>());
+			_listView.setAdapter(_adapter);
+			_listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+				@Override
+				public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+						int totalItemCount) {
+					if (firstVisibleItem + visibleItemCount >= totalItemCount - CataloguePager.PREFETCH_ROWS)
+						Locator.getUserController().loadMoreOnlineStories();
+				}
+				@Override
+				public void onScrollStateChanged(AbsListView view, int scrollState) {}
+			});
+			_streaming = true;
+		}
+		_adapter.setNotifyOnChange(false);
+		_adapter.clear();
+		for (Story story : _stories)
+			_adapter.add(new StorySummary(story));
+		_adapter.notifyDataSetChanged();
 	}
 	
 	@Override
@@ -108,7 +183,7 @@ public class BrowseFragment extends Fragment {
 				// If bug here, use this first: ListView listView = (ListView) parent;
 				
 				// Get selected item
-				Story item = (Story) _listView.getItemAtPosition(position);
+				StorySummary item = (StorySummary) _listView.getItemAtPosition(position);
 				
 				Locator.getAuthorController().selectStory(item.getId());
 				
@@ -121,18 +196,16 @@ public class BrowseFragment extends Fragment {
 		super.onResume();
 	}
 	
-	protected class RowArrayAdapter extends ArrayAdapter<Story> {
+	protected class RowArrayAdapter extends ArrayAdapter<StorySummary> {
 		
 		private Context context;
 		private int layoutResourceID;
-		private Story[] stories;
 		
-		public RowArrayAdapter(Context context, int layoutResourceID, Story[] stories) {
+		public RowArrayAdapter(Context context, int layoutResourceID, List<StorySummary> stories) {
 			super(context, layoutResourceID, stories);
 
 			this.context = context;
 			this.layoutResourceID = layoutResourceID;
-			this.stories = stories;
 		}
 		
 		public View getView(int position, View convertView, ViewGroup parent) {
@@ -150,7 +223,7 @@ public class BrowseFragment extends Fragment {
 			TextView time = (TextView) rowView.findViewById(R.id.datetime);
 			ImageView status = (ImageView) rowView.findViewById(R.id.status_icon);
 
-			Story story = stories[position];
+			StorySummary story = getItem(position);
 			
 			title.setText(story.getTitle());
 			author.setText("Author: " + story.getAuthor());
@@ -48,6 +48,7 @@ import ca.cmput301f13t03.adventure_datetime.R;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStoriesListener;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IOnlineStoriesListener;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 import ca.cmput301f13t03.adventure_datetime.serviceLocator.Locator;
 
 import java.util.Collection;
@@ -72,8 +73,8 @@ public class BrowseView extends FragmentActivity implements ILocalStoriesListene
 	
 	@Override
 	public void OnLocalStoriesChange(Map<UUID, Story> newStories) {
-		_adapter.setLocalStories(Locator.getAuthorController().checkIfNotAuthored(newStories.values()));	
-		_adapter.setAuthorStories(Locator.getAuthorController().checkIfAuthored(newStories.values()));
+		// Both local tabs page through the catalogue themselves, this only refreshes them
+		_adapter.refreshLocalStories();
 	}
 	@Override
 	public void OnOnlineStoriesChange(Map<UUID, Story> newStories) {
@@ -112,7 +113,7 @@ public class BrowseView extends FragmentActivity implements ILocalStoriesListene
 			@Override
 			public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
 				if (actionId == EditorInfo.IME_ACTION_DONE) {
-					Locator.getUserController().search(txtSearch.getText().toString());
+					search(txtSearch.getText().toString());
 					txtSearch.setText("");
 					InputMethodManager imm = (InputMethodManager)getSystemService(Context.INPUT_METHOD_SERVICE);
 				    imm.hideSoftInputFromWindow(v.getApplicationWindowToken(), 0);
@@ -124,7 +125,7 @@ public class BrowseView extends FragmentActivity implements ILocalStoriesListene
 		btnSearch.setOnClickListener(new OnClickListener() {
 			@Override
 			public void onClick(View v) {
-				Locator.getUserController().search(txtSearch.getText().toString());
+				search(txtSearch.getText().toString());
 				txtSearch.setText("");
 				InputMethodManager imm = (InputMethodManager)getSystemService(Context.INPUT_METHOD_SERVICE);
 			    imm.hideSoftInputFromWindow(v.getApplicationWindowToken(), 0);
@@ -173,6 +174,14 @@ public class BrowseView extends FragmentActivity implements ILocalStoriesListene
 			}
 		});
 	}
+	/**
+	 * Searches the server and, without waiting on the network, the stories saved
+	 * on the device. An empty search brings back the full Saved tab.
+	 */
+	private void search(String query) {
+		Locator.getUserController().search(query);
+		_adapter.searchLocalStories(query);
+	}
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		getMenuInflater().inflate(R.menu.search_menu, menu);
@@ -202,11 +211,18 @@ public class BrowseView extends FragmentActivity implements ILocalStoriesListene
 			online = new BrowseFragment();
 		}
 		
-		public void setLocalStories(Collection<Story> stories) {
-			cached.setStories(stories, BrowseFragment.SOURCE_CACHE);
+		public void refreshLocalStories() {
+			// a tab already showing the catalogue or a search keeps it, and its place in the list
+			if (!cached.refresh())
+				cached.setCatalogue(StorySummary.Filter.NOT_AUTHORED, BrowseFragment.SOURCE_CACHE);
+			if (!authored.refresh())
+				authored.setCatalogue(StorySummary.Filter.AUTHORED, BrowseFragment.SOURCE_AUTHOR);
 		}
-		public void setAuthorStories(Collection<Story> stories) {
-			authored.setStories(stories, BrowseFragment.SOURCE_AUTHOR);
+		public void searchLocalStories(String query) {
+			if (query.trim().length() == 0)
+				cached.setCatalogue(StorySummary.Filter.NOT_AUTHORED, BrowseFragment.SOURCE_CACHE);
+			else
+				cached.setSearch(query, StorySummary.Filter.NOT_AUTHORED, BrowseFragment.SOURCE_CACHE);
 		}
 		public void setOnlineStories(Collection<Story> stories) {
 			online.setStories(stories, BrowseFragment.SOURCE_ONLINE);
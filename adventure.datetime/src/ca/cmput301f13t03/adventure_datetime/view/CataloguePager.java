@@ -0,0 +1,208 @@
+/*
+ *	Copyright (c) 2013 Andrew Fontaine, James Finlay, Jesse Tucker, Jacob Viau, and
+ * 	Evan DeGraff
+ *
+ * 	Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * 	this software and associated documentation files (the "Software"), to deal in
+ * 	the Software without restriction, including without limitation the rights to
+ * 	use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * 	the Software, and to permit persons to whom the Software is furnished to do so,
+ * 	subject to the following conditions:
+ *
+ * 	The above copyright notice and this permission notice shall be included in all
+ * 	copies or substantial portions of the Software.
+ *
+ * 	THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * 	IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * 	FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * 	COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * 	IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * 	CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.cmput301f13t03.adventure_datetime.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
+import ca.cmput301f13t03.adventure_datetime.serviceLocator.Locator;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.AbsListView;
+import android.widget.ArrayAdapter;
+
+/**
+ * Fills an adapter with pages of the local story catalogue, or of a local search,
+ * loading the next page as the list scrolls close to its end. Pages are read on a
+ * storage reader and appended on the UI thread once they arrive.
+ */
+public class CataloguePager implements AbsListView.OnScrollListener {
+	public static final int PAGE_SIZE = 20;
+	/* Rows left below the screen when the next page is loaded */
+	static final int PREFETCH_ROWS = 5;
+
+	private final Handler _handler = new Handler(Looper.getMainLooper());
+	private ArrayAdapter<StorySummary> _adapter;
+	private StorySummary.Filter _filter;
+	private StorySummary.Sort _sort;
+	private String _query;
+	/* Every result of the search, ranked once when the first page is loaded */
+	private List<UUID> _results;
+	private int _offset;
+	private boolean _exhausted;
+	private boolean _loading;
+	/* Bumped by reset so pages asked for before it are dropped */
+	private int _generation;
+
+	public CataloguePager(ArrayAdapter<StorySummary> adapter, StorySummary.Filter filter,
+			StorySummary.Sort sort) {
+		_adapter = adapter;
+		_filter = filter;
+		_sort = sort;
+	}
+	/**
+	 * Pages through the local stories matching a search, most relevant first
+	 */
+	public CataloguePager(ArrayAdapter<StorySummary> adapter, String query, StorySummary.Filter filter) {
+		_adapter = adapter;
+		_query = query;
+		_filter = filter;
+	}
+	/**
+	 * Empties the adapter and loads the first page again
+	 */
+	public void reset() {
+		_generation++;
+		_adapter.clear();
+		_results = null;
+		_offset = 0;
+		_exhausted = false;
+		_loading = false;
+		loadNextPage();
+	}
+	/**
+	 * Loads the rows already shown again, with the same search and filter, and swaps them in
+	 * once they arrive so the list keeps its place. For when the stories change underneath it.
+	 */
+	public void refresh() {
+		_generation++;
+		_loading = true;
+
+		final int generation = _generation;
+		final int count = Math.max(_offset, PAGE_SIZE);
+		if (_query != null) {
+			Locator.getUserController().searchLocal(_query, _filter, new IStorageCallback<ArrayList<UUID>>() {
+				@Override
+				public void OnStorageResult(final ArrayList<UUID> results) {
+					final int end = Math.min(results.size(), count);
+					Locator.getUserController().getStorySummaries(new ArrayList<UUID>(results.subList(0, end)),
+							new PageCallback(generation) {
+								@Override
+								void addPage(List<StorySummary> page) {
+									_results = results;
+									_offset = end;
+									_exhausted = end == results.size();
+									replaceRows(page);
+								}
+							});
+				}
+			});
+		} else {
+			Locator.getUserController().getStorySummaries(_filter, _sort, 0, count,
+					new PageCallback(generation) {
+						@Override
+						void addPage(List<StorySummary> page) {
+							_offset = page.size();
+							_exhausted = page.size() < count;
+							replaceRows(page);
+						}
+					});
+		}
+	}
+	/**
+	 * Asks for the next page, if there is one and no page is already on its way
+	 */
+	public void loadNextPage() {
+		if (_exhausted || _loading) return;
+		_loading = true;
+
+		final int generation = _generation;
+		if (_query != null && _results == null) {
+			Locator.getUserController().searchLocal(_query, _filter, new IStorageCallback<ArrayList<UUID>>() {
+				@Override
+				public void OnStorageResult(final ArrayList<UUID> results) {
+					_handler.post(new Runnable() {
+						@Override
+						public void run() {
+							if (generation != _generation) return;
+							_results = results;
+							_loading = false;
+							loadNextPage();
+						}
+					});
+				}
+			});
+		} else if (_query != null) {
+			final int end = Math.min(_results.size(), _offset + PAGE_SIZE);
+			Locator.getUserController().getStorySummaries(new ArrayList<UUID>(_results.subList(_offset, end)),
+					new PageCallback(generation) {
+						@Override
+						void addPage(List<StorySummary> page) {
+							_offset = end;
+							_exhausted = end == _results.size();
+							_adapter.addAll(page);
+						}
+					});
+		} else {
+			Locator.getUserController().getStorySummaries(_filter, _sort, _offset, PAGE_SIZE,
+					new PageCallback(generation) {
+						@Override
+						void addPage(List<StorySummary> page) {
+							_offset += page.size();
+							_exhausted = page.size() < PAGE_SIZE;
+							_adapter.addAll(page);
+						}
+					});
+		}
+	}
+	private void replaceRows(List<StorySummary> rows) {
+		_adapter.setNotifyOnChange(false);
+		_adapter.clear();
+		_adapter.addAll(rows);
+		_adapter.notifyDataSetChanged();
+	}
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS)
+			loadNextPage();
+	}
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {}
+
+	/**
+	 * Hands a page read on the storage reader to the UI thread, unless the pager was reset since
+	 */
+	private abstract class PageCallback implements IStorageCallback<ArrayList<StorySummary>> {
+		private final int _pageGeneration;
+
+		PageCallback(int generation) {
+			_pageGeneration = generation;
+		}
+		abstract void addPage(List<StorySummary> page);
+
+		@Override
+		public void OnStorageResult(final ArrayList<StorySummary> page) {
+			_handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (_pageGeneration != _generation) return;
+					_loading = false;
+					addPage(page);
+				}
+			});
+		}
+	}
+}
@@ -236,15 +236,11 @@ public class CommentsView extends Activity implements ICurrentStoryListener,
 		if (_story == null && forStoryEh) return;
 		if (_fragment == null && !forStoryEh) return;
 
-		runOnUiThread(new Runnable() {
-			public void run() {
-				_adapter = new RowArrayAdapter(getApplicationContext(), 
-						R.layout.comment_single, _comments.toArray(new Comment[_comments.size()]));
-				_listView.setAdapter(_adapter);
-                _bar.setVisibility(View.GONE);
-			}
-		});
-
+		/* Model callbacks already arrive on the UI thread */
+		_adapter = new RowArrayAdapter(getApplicationContext(), 
+				R.layout.comment_single, _comments.toArray(new Comment[_comments.size()]));
+		_listView.setAdapter(_adapter);
+		_bar.setVisibility(View.GONE);
 	}
 
     @Override
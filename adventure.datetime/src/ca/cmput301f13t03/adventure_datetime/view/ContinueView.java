@@ -37,6 +37,7 @@ import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IBookmarkListListen
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStoriesListener;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IOnlineStoriesListener;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
+import ca.cmput301f13t03.adventure_datetime.model.StorySummary;
 import ca.cmput301f13t03.adventure_datetime.serviceLocator.Locator;
 
 import java.util.ArrayList;
@@ -46,6 +47,7 @@ import java.util.UUID;
 
 /**
  * View holding list of bookmarks. Accessed from MainView. Contains bookmarks for online and local.
+ * Bookmarked local stories are paged in from the catalogue.
  *
  * 
  * @author James Finlay
@@ -57,9 +59,10 @@ public class ContinueView extends Activity implements IBookmarkListListener,
 
 	private ListView _listView;
 	private RowArrayAdapter _adapter;
+	private CataloguePager _pager;
 	
 	private Map<UUID, Bookmark> _bookmarks;
-	private Map<UUID, Story> _stories;
+	private Map<UUID, Story> _localStories;
 	private Map<UUID, Story> _onlineStories;
 
 	@Override
@@ -68,13 +71,17 @@ public class ContinueView extends Activity implements IBookmarkListListener,
 		setContentView(R.layout.list_view);
 
 		_listView = (ListView) findViewById(R.id.list_view);
+		_adapter = new RowArrayAdapter(this, R.layout.listviewitem, new ArrayList<StorySummary>());
+		_listView.setAdapter(_adapter);
+		_pager = new CataloguePager(_adapter, StorySummary.Filter.BOOKMARKED, StorySummary.Sort.NEWEST);
+		_listView.setOnScrollListener(_pager);
 		_listView.setOnItemClickListener(new OnItemClickListener() {
 			@Override
 			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
 
 				// Get selected item
 				ListView listView = (ListView) parent;
-				Story item = (Story) listView.getItemAtPosition(position);
+				StorySummary item = (StorySummary) listView.getItemAtPosition(position);
 				
 				Locator.getUserController().ResumeStory(item.getId());
 				
@@ -89,36 +96,29 @@ public class ContinueView extends Activity implements IBookmarkListListener,
 		setUpView();
 	}
 	public void OnLocalStoriesChange(Map<UUID, Story> newStories) {
-		_stories = newStories;
+		_localStories = newStories;
 		setUpView();
 	}
 	public void OnOnlineStoriesChange(Map<UUID, Story> newStories) {
 		_onlineStories = newStories;
-		this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                setUpView();
-            }
-        });
+		setUpView();
 	}
 	private void setUpView() {
 		if (_bookmarks == null) return;
-		if (_stories == null) return;
+		if (_localStories == null) return;
 		if (_onlineStories == null) return;
 		
-		Map<UUID, Story> hStories = _stories;
-		Map<UUID, Story> hOnlineStories = _onlineStories;
+		_pager.reset();
 		
-		List<Story> relevants = new ArrayList<Story>();
+		/* Online stories go first, local ones keep paging in below them.
+		 * Stories that were downloaded are left to the pager. */
+		int position = 0;
 		for (Bookmark bookmark : _bookmarks.values()) {
-			if (hStories.containsKey(bookmark.getStoryID()))
-				relevants.add(hStories.get(bookmark.getStoryID()));
-			if (hOnlineStories.containsKey(bookmark.getStoryID()))
-				relevants.add(hOnlineStories.get(bookmark.getStoryID()));
+			if (_localStories.containsKey(bookmark.getStoryID())) continue;
+			Story online = _onlineStories.get(bookmark.getStoryID());
+			if (online != null)
+				_adapter.insert(new StorySummary(online), position++);
 		}
-		_adapter = new RowArrayAdapter(this, R.layout.listviewitem, 
-				relevants.toArray(new Story[relevants.size()]));
-		_listView.setAdapter(_adapter);
 	}
 	@Override
 	public void onResume() {
@@ -135,18 +135,16 @@ public class ContinueView extends Activity implements IBookmarkListListener,
 		super.onPause();
 	}
 
-	private class RowArrayAdapter extends ArrayAdapter<Story> {
+	private class RowArrayAdapter extends ArrayAdapter<StorySummary> {
 
 		private Context context;
 		private int layoutResourceID;
-		private Story[] values;
 
-		public RowArrayAdapter(Context context, int layoutResourceID, Story[] values) {
+		public RowArrayAdapter(Context context, int layoutResourceID, List<StorySummary> values) {
 			super(context, layoutResourceID, values);
 
 			this.context = context;
 			this.layoutResourceID = layoutResourceID;
-			this.values = values;
 		}
 
 		public View getView(int position, View convertView, ViewGroup parent) {
@@ -154,7 +152,8 @@ public class ContinueView extends Activity implements IBookmarkListListener,
 
 			View rowView = inflater.inflate(R.layout.listviewitem, parent, false);
 
-			Story item = values[position];
+			StorySummary item = getItem(position);
+			Bookmark bookmark = _bookmarks.get(item.getId());
 			
 			/** Layout items **/
 			ImageView thumbnail = (ImageView) rowView.findViewById(R.id.thumbnail);
@@ -165,7 +164,8 @@ public class ContinueView extends Activity implements IBookmarkListListener,
             thumbnail.setImageBitmap(item.decodeThumbnail());
 			title.setText(item.getTitle());
 			author.setText("Author: " + item.getAuthor());
-			lastPlayed.setText("Last played: " + _bookmarks.get(item.getId()).getFormattedTimestamp());
+			if (bookmark != null)
+				lastPlayed.setText("Last played: " + bookmark.getFormattedTimestamp());
 
 			
 			return rowView;
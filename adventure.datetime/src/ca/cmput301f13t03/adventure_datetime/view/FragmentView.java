@@ -90,6 +90,7 @@ public class FragmentView extends Fragment implements ICurrentFragmentListener {
     @Override
     public void onPause() {
         Locator.getPresenter().Unsubscribe(this);
+        Locator.getUserController().flushReadingTrail();
         super.onPause();
     }
     @Override
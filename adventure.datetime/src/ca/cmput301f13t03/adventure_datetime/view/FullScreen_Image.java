@@ -177,7 +177,7 @@ public class FullScreen_Image extends FragmentActivity implements ICurrentFragme
                 try {
                     InputStream is = getContentResolver().openInputStream(imageReturnedIntent.getData());
                     Bitmap bit = BitmapFactory.decodeStream(is);
-                    Image selectedImage = new Image(Image.compressBitmap(bit, 85));
+                    Image selectedImage = new Image(Image.compressBitmapToBytes(bit, 85));
                     _fragment.addMedia(selectedImage);
                     Locator.getAuthorController().saveStory();
                 }
@@ -189,7 +189,7 @@ public class FullScreen_Image extends FragmentActivity implements ICurrentFragme
                 try {
                     InputStream is = getContentResolver().openInputStream(_newImage);
                     Bitmap bit = BitmapFactory.decodeStream(is);
-                    Image selectedImage = new Image(Image.compressBitmap(bit, 85));
+                    Image selectedImage = new Image(Image.compressBitmapToBytes(bit, 85));
                     _fragment.addMedia(selectedImage);
                     Locator.getAuthorController().saveStory();
                 }
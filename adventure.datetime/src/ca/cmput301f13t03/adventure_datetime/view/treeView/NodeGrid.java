@@ -124,7 +124,7 @@ class NodeGrid
 		{
 			m_syncLock.lock();
 
-			int toDelete = 0;
+			int toDelete = -1;
 			int index = 0;
 			UUID originId = origin.getFragmentID();
 			UUID targetId = choice.getTarget();
@@ -141,7 +141,7 @@ class NodeGrid
 				++index;
 			}
 
-			if(toDelete < m_connections.size())
+			if(toDelete >= 0)
 			{
 				m_connections.remove(toDelete);
 			}
@@ -152,6 +152,77 @@ class NodeGrid
 		}
 	}
 
+	/**
+	 * Redraw the contents of a single fragment's node
+	 */
+	public void RefreshNode(UUID fragmentId)
+	{
+		try
+		{
+			m_syncLock.lock();
+
+			FragmentNode node = GetNode(fragmentId);
+			if(node != null)
+			{
+				node.RefreshContents();
+			}
+		}
+		finally
+		{
+			m_syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Replace the connections leaving a fragment with ones matching its current choices.
+	 * Safe to call for choices that were already drawn.
+	 */
+	public void RefreshConnections(StoryFragment origin)
+	{
+		try
+		{
+			m_syncLock.lock();
+
+			// a pending rebuild will connect everything anyway
+			if(m_reloadView || m_connectionPlacer == null)
+			{
+				return;
+			}
+
+			UUID originId = origin.getFragmentID();
+			Iterator<FragmentConnection> connections = m_connections.iterator();
+			while(connections.hasNext())
+			{
+				if(connections.next().GetOrigin().equals(originId))
+				{
+					connections.remove();
+				}
+			}
+
+			FragmentNode originNode = GetNode(originId);
+			if(originNode == null)
+			{
+				return;
+			}
+
+			for(Choice choice : origin.getChoices())
+			{
+				FragmentNode targetNode = GetNode(choice.getTarget());
+				if(targetNode != null)
+				{
+					FragmentConnection connection = 
+							new FragmentConnection(originId, choice.getTarget(), m_res);
+					m_connectionPlacer.PlaceConnection(connection, originNode, targetNode);
+					m_connections.add(connection);
+				}
+			}
+		}
+		finally
+		{
+			m_syncLock.unlock();
+		}
+	}
+
 	private FragmentNode GetNode(UUID fragId)
 	{
 		FragmentNode result = null;
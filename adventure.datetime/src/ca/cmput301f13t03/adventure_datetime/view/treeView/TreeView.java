@@ -12,18 +12,24 @@ import ca.cmput301f13t03.adventure_datetime.model.Choice;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IAllFragmentsListener;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ICurrentFragmentListener;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ICurrentStoryListener;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStoryChangeListener;
 import ca.cmput301f13t03.adventure_datetime.model.Story;
+import ca.cmput301f13t03.adventure_datetime.model.StoryChangeSet;
 import ca.cmput301f13t03.adventure_datetime.model.StoryFragment;
 import ca.cmput301f13t03.adventure_datetime.serviceLocator.Locator;
 import ca.cmput301f13t03.adventure_datetime.view.IFragmentSelected;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public class TreeView extends SurfaceView 
 	implements 	IAllFragmentsListener, 
 				ICurrentFragmentListener,
 				ICurrentStoryListener,
+				IStoryChangeListener,
 				SurfaceHolder.Callback, 
 				Runnable
 {
@@ -92,6 +98,56 @@ public class TreeView extends SurfaceView
 		}
 	}
 	
+	public void OnStoryChange(StoryChangeSet changes)
+	{
+		if(m_fragments == null || m_currentStory == null || 
+				!m_currentStory.getId().equals(changes.getStoryId()))
+		{
+			return;
+		}
+		
+		if(changes.isFragmentSetChanged())
+		{
+			Map<UUID, StoryFragment> fragments = new HashMap<UUID, StoryFragment>(m_fragments);
+			for(UUID removedId : changes.getRemovedFragmentIds())
+			{
+				fragments.remove(removedId);
+			}
+			for(StoryFragment added : changes.getAddedFragments())
+			{
+				fragments.put(added.getFragmentID(), added);
+			}
+			m_fragments = fragments;
+			
+			// nodes coming or going changes the layout, so place everything again
+			AfterDataAvailable();
+			return;
+		}
+		
+		Set<UUID> origins = new HashSet<UUID>();
+		for(StoryChangeSet.ChoiceChange change : changes.getAddedChoices())
+		{
+			origins.add(change.getOrigin());
+		}
+		for(StoryChangeSet.ChoiceChange change : changes.getRemovedChoices())
+		{
+			origins.add(change.getOrigin());
+		}
+		for(UUID origin : origins)
+		{
+			StoryFragment originFragment = m_fragments.get(origin);
+			if(originFragment != null)
+			{
+				m_grid.RefreshConnections(originFragment);
+			}
+		}
+		
+		for(StoryFragment updated : changes.getUpdatedFragments())
+		{
+			m_grid.RefreshNode(updated.getFragmentID());
+		}
+	}
+	
 	public void OnCurrentFragmentChange(StoryFragment newFragment) 
 	{
 		m_grid.SelectFragment(newFragment);
@@ -142,6 +198,7 @@ public class TreeView extends SurfaceView
 	{
 		Locator.getPresenter().Subscribe((ICurrentStoryListener)(this));
 		Locator.getPresenter().Subscribe((IAllFragmentsListener)(this));
+		Locator.getPresenter().Subscribe((IStoryChangeListener)(this));
 		Locator.getPresenter().Subscribe((ICurrentFragmentListener)(this));
 		
 		m_isDrawing = true;
@@ -155,6 +212,7 @@ public class TreeView extends SurfaceView
 	{
 		Locator.getPresenter().Unsubscribe((ICurrentStoryListener)(this));
 		Locator.getPresenter().Unsubscribe((IAllFragmentsListener)(this));
+		Locator.getPresenter().Unsubscribe((IStoryChangeListener)(this));
 		Locator.getPresenter().Unsubscribe((ICurrentFragmentListener)(this));
 		
 		m_isDrawing = false;
@@ -0,0 +1,59 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IStorageCallback;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AsyncLocalStorageTest extends AndroidTestCase {
+
+	private AsyncLocalStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		storage = new AsyncLocalStorage(new StoryDB(new RenamingDelegatingContext(getContext(), "test_")));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		storage.shutdown();
+		super.tearDown();
+	}
+
+	public void testWritesLandInOrder() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		story.setHeadFragmentId(head);
+
+		storage.setStoryWithFragments(story, Arrays.asList(head), null);
+		storage.deleteStory(story.getId(), null);
+		assertTrue(storage.flush().get(5, TimeUnit.SECONDS));
+		assertNull(storage.getStory(story.getId(), null).get(5, TimeUnit.SECONDS));
+	}
+
+	public void testCallbackGetsResult() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		story.setHeadFragmentId(head);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Boolean> saved = new AtomicReference<Boolean>();
+
+		storage.setStoryWithFragments(story, Arrays.asList(head), new IStorageCallback<Boolean>() {
+			@Override
+			public void OnStorageResult(Boolean result) {
+				saved.set(result);
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Boolean.TRUE, saved.get());
+		assertEquals(story.getId(), storage.getStory(story.getId(), null).get(5, TimeUnit.SECONDS).getId());
+		storage.getStorage().deleteStory(story.getId());
+	}
+}
@@ -0,0 +1,68 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+public class CatalogueSnapshotTest extends AndroidTestCase {
+
+	private File directory;
+	private ImageStore store;
+	private CatalogueSnapshot snapshot;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		directory = new File(getContext().getCacheDir(), "test_snapshot");
+		directory.mkdirs();
+		store = new ImageStore(new File(directory, "images"));
+		snapshot = new CatalogueSnapshot(directory, store);
+	}
+
+	protected void tearDown() throws Exception {
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		super.tearDown();
+	}
+
+	public void testStoriesRoundTrip() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", null);
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		story.setHeadFragmentId(head);
+
+		snapshot.writeStories(Arrays.asList(story));
+		Map<UUID, Story> stories = snapshot.readStories();
+
+		assertEquals(1, stories.size());
+		Story read = stories.get(story.getId());
+		assertEquals(story.getTitle(), read.getTitle());
+		assertEquals(story.getAuthor(), read.getAuthor());
+		assertNull(read.getSynopsis());
+		assertEquals(head.getFragmentID(), read.getHeadFragmentId());
+		assertEquals(story.getTimestamp(), read.getTimestamp());
+	}
+
+	public void testBookmarksRoundTrip() throws Exception {
+		Bookmark bookmark = new Bookmark(UUID.randomUUID(), UUID.randomUUID());
+
+		snapshot.writeBookmarks(Arrays.asList(bookmark));
+		Map<UUID, Bookmark> bookmarks = snapshot.readBookmarks();
+
+		assertEquals(1, bookmarks.size());
+		assertEquals(bookmark.getFragmentID(), bookmarks.get(bookmark.getStoryID()).getFragmentID());
+	}
+
+	public void testIgnoresDamagedSnapshot() throws Exception {
+		assertNull(snapshot.readStories());
+
+		FileOutputStream out = new FileOutputStream(new File(directory, "stories.snapshot"));
+		out.write(new byte[] {1, 2, 3});
+		out.close();
+		assertNull(snapshot.readStories());
+	}
+}
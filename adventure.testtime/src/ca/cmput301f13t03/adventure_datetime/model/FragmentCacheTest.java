@@ -0,0 +1,80 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.UUID;
+
+public class FragmentCacheTest extends AndroidTestCase {
+
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		UUID storyId = UUID.randomUUID();
+		StoryFragment first = new StoryFragment(storyId, "first");
+		StoryFragment second = new StoryFragment(storyId, "second");
+		StoryFragment third = new StoryFragment(storyId, "third!");
+		long size = FragmentCache.sizeOf(first) + FragmentCache.sizeOf(second);
+		FragmentCache cache = new FragmentCache(size);
+
+		cache.put(first);
+		cache.put(second);
+		assertSame(first, cache.get(first.getFragmentID()));
+		cache.put(third);
+
+		assertTrue(cache.contains(first.getFragmentID()));
+		assertFalse(cache.contains(second.getFragmentID()));
+		assertTrue(cache.contains(third.getFragmentID()));
+		assertNull(cache.get(second.getFragmentID()));
+		assertTrue(cache.size() <= size);
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.missCount());
+		assertEquals(1, cache.evictionCount());
+	}
+
+	public void testKeepsPinnedStory() throws Exception {
+		UUID pinnedId = UUID.randomUUID();
+		StoryFragment pinned = new StoryFragment(pinnedId, "pinned");
+		StoryFragment other = new StoryFragment(UUID.randomUUID(), "other");
+		FragmentCache cache = new FragmentCache(0);
+		cache.pinStory(pinnedId);
+
+		cache.put(pinned);
+		cache.put(other);
+		assertTrue(cache.contains(pinned.getFragmentID()));
+		assertFalse(cache.contains(other.getFragmentID()));
+
+		cache.pinStory(null);
+		assertFalse(cache.contains(pinned.getFragmentID()));
+		assertEquals(0, cache.size());
+	}
+
+	public void testPinnedStoryOverLimitKeepsOthers() throws Exception {
+		UUID pinnedId = UUID.randomUUID();
+		StoryFragment pinned = new StoryFragment(pinnedId, "a pinned fragment bigger than the limit");
+		StoryFragment other = new StoryFragment(UUID.randomUUID(), "other");
+		FragmentCache cache = new FragmentCache(FragmentCache.sizeOf(other));
+		cache.pinStory(pinnedId);
+
+		cache.put(pinned);
+		cache.put(other);
+		assertTrue(cache.contains(pinned.getFragmentID()));
+		assertTrue(cache.contains(other.getFragmentID()));
+		assertEquals(FragmentCache.sizeOf(pinned), cache.pinnedSize());
+		assertEquals(0, cache.evictionCount());
+
+		cache.remove(pinned.getFragmentID());
+		assertEquals(0, cache.pinnedSize());
+		assertEquals(FragmentCache.sizeOf(other), cache.size());
+	}
+
+	public void testPutIfAbsentKeepsCachedCopy() throws Exception {
+		UUID storyId = UUID.randomUUID();
+		UUID fragmentId = UUID.randomUUID();
+		StoryFragment cached = new StoryFragment(storyId, fragmentId, "cached", null, null);
+		StoryFragment loaded = new StoryFragment(storyId, fragmentId, "loaded", null, null);
+		FragmentCache cache = new FragmentCache(Long.MAX_VALUE);
+
+		assertNull(cache.putIfAbsent(cached));
+		assertSame(cached, cache.putIfAbsent(loaded));
+		assertSame(cached, cache.remove(fragmentId));
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,53 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import java.util.UUID;
+
+public class FragmentPrefetcherTest extends AndroidTestCase {
+
+	private StoryDB database;
+	private FragmentCache cache;
+	private FragmentPrefetcher prefetcher;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		database = new StoryDB(new RenamingDelegatingContext(getContext(), "test_"));
+		cache = new FragmentCache(Long.MAX_VALUE);
+		prefetcher = new FragmentPrefetcher(database, null, cache, 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		prefetcher.shutdown();
+		super.tearDown();
+	}
+
+	public void testLoadsChoiceTargetsToDepth() throws Exception {
+		UUID storyId = UUID.randomUUID();
+		StoryFragment last = new StoryFragment(storyId, "last");
+		StoryFragment third = new StoryFragment(storyId, "third", new Choice("on", last.getFragmentID()));
+		StoryFragment second = new StoryFragment(storyId, "second", new Choice("on", third.getFragmentID()));
+		StoryFragment first = new StoryFragment(storyId, "first", new Choice("on", second.getFragmentID()));
+		for(StoryFragment fragment : new StoryFragment[] {last, third, second, first}) {
+			assertTrue(database.setStoryFragment(fragment));
+		}
+
+		prefetcher.prefetch(first, null);
+		long deadline = System.currentTimeMillis() + 5000;
+		while(cache.peek(third.getFragmentID()) == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+
+		assertNotNull(cache.peek(second.getFragmentID()));
+		assertNotNull(cache.peek(third.getFragmentID()));
+		assertNull(cache.peek(last.getFragmentID()));
+		assertEquals(0, cache.hitCount() + cache.missCount());
+
+		for(StoryFragment fragment : new StoryFragment[] {last, third, second, first}) {
+			database.deleteStoryFragment(fragment.getFragmentID());
+		}
+	}
+}
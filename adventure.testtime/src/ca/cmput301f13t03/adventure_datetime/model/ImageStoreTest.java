@@ -0,0 +1,43 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import ca.cmput301f13t03.adventure_datetime.R;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class ImageStoreTest extends AndroidTestCase {
+
+	private File directory;
+	private ImageStore store;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		directory = new File(getContext().getCacheDir(), "test_images");
+		store = new ImageStore(directory);
+	}
+
+	protected void tearDown() throws Exception {
+		for(String hash : store.list()) {
+			store.delete(hash);
+		}
+		directory.delete();
+		super.tearDown();
+	}
+
+	public void testDeduplicates() throws Exception {
+		byte[] bytes = Image.compressBitmapToBytes(
+				BitmapFactory.decodeResource(getContext().getResources(), R.drawable.grumpy_cat), 85);
+
+		String hash = store.put(bytes);
+		assertEquals(hash, store.put(bytes.clone()));
+		assertEquals(1, store.list().size());
+		assertEquals(bytes.length, store.size(hash));
+		assertTrue(Arrays.equals(bytes, store.read(hash)));
+		assertNotNull(store.decode(hash));
+
+		assertTrue(store.delete(hash));
+		assertFalse(store.contains(hash));
+	}
+}
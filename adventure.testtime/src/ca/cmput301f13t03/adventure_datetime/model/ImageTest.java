@@ -23,6 +23,7 @@ public class ImageTest extends AndroidTestCase {
 		Bitmap bitmap = image.decodeBitmap();
 		assertEquals(bitmap, image.decodeBitmap());
 		
+		image.updateEncodedBitmap();
 		String json = gson.toJson(image);
 		Image image2 = gson.fromJson(json, Image.class);
 		
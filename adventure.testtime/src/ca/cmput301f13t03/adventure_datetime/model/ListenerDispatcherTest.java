@@ -0,0 +1,139 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ListenerDispatcherTest extends AndroidTestCase {
+
+	private HandlerThread thread;
+	private ListenerDispatcher dispatcher;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		thread = new HandlerThread("ListenerDispatcherTest");
+		thread.start();
+		dispatcher = new ListenerDispatcher(thread.getLooper());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		thread.quit();
+		super.tearDown();
+	}
+
+	private static class Recorder {
+		final List<Integer> values = new ArrayList<Integer>();
+		final CountDownLatch delivered = new CountDownLatch(1);
+	}
+
+	private static ListenerDispatcher.Event<Recorder> value(final int value) {
+		return new ListenerDispatcher.Event<Recorder>() {
+			@Override
+			protected void deliver(Recorder listener) {
+				listener.values.add(value);
+				listener.delivered.countDown();
+			}
+		};
+	}
+
+	/**
+	 * Holds the looper so everything dispatched lands before the frame
+	 */
+	private CountDownLatch blockLooper() {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		new Handler(thread.getLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					blocked.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return blocked;
+	}
+
+	public void testMergesEventsOfAKind() throws Exception {
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		CountDownLatch blocked = blockLooper();
+
+		List<Recorder> listeners = Arrays.asList(first, second);
+		dispatcher.dispatch(listeners, "kind", value(1));
+		dispatcher.dispatch(listeners, "kind", value(2));
+		dispatcher.dispatch(first, "kind", value(3));
+		blocked.countDown();
+
+		assertTrue(first.delivered.await(5, TimeUnit.SECONDS));
+		assertTrue(second.delivered.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(3), first.values);
+		assertEquals(Arrays.asList(2), second.values);
+	}
+
+	public void testCancelDropsPending() throws Exception {
+		Recorder cancelled = new Recorder();
+		Recorder kept = new Recorder();
+		CountDownLatch blocked = blockLooper();
+
+		dispatcher.dispatch(cancelled, "kind", value(1));
+		dispatcher.cancel(cancelled);
+		dispatcher.dispatch(kept, "kind", value(2));
+		blocked.countDown();
+
+		assertTrue(kept.delivered.await(5, TimeUnit.SECONDS));
+		assertTrue(cancelled.values.isEmpty());
+	}
+
+	public void testCancelDuringFrameSkipsListener() throws Exception {
+		final Recorder cancelled = new Recorder();
+		Recorder kept = new Recorder();
+		CountDownLatch blocked = blockLooper();
+
+		dispatcher.dispatch(kept, "kind", new ListenerDispatcher.Event<Recorder>() {
+			@Override
+			protected void deliver(Recorder listener) {
+				dispatcher.cancel(cancelled);
+			}
+		});
+		dispatcher.dispatch(cancelled, "kind", value(1));
+		dispatcher.dispatch(kept, "other", value(2));
+		blocked.countDown();
+
+		assertTrue(kept.delivered.await(5, TimeUnit.SECONDS));
+		assertTrue(cancelled.values.isEmpty());
+	}
+
+	public void testListenersKeyedByIdentity() throws Exception {
+		Recorder first = new Recorder() {
+			@Override
+			public boolean equals(Object other) {
+				return other instanceof Recorder;
+			}
+
+			@Override
+			public int hashCode() {
+				return 0;
+			}
+		};
+		Recorder second = new Recorder();
+		CountDownLatch blocked = blockLooper();
+
+		dispatcher.dispatch(first, "kind", value(1));
+		dispatcher.dispatch(second, "kind", value(2));
+		blocked.countDown();
+
+		assertTrue(first.delivered.await(5, TimeUnit.SECONDS));
+		assertTrue(second.delivered.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1), first.values);
+		assertEquals(Arrays.asList(2), second.values);
+	}
+}
@@ -0,0 +1,80 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class OnlineCatalogueTest extends AndroidTestCase {
+
+	public void testLoadsOnePageAtATime() throws Exception {
+		List<Story> stories = createStories(25);
+		OnlineCatalogue catalogue = new OnlineCatalogue(new ListWebStorage(stories), null);
+		assertNull(catalogue.getStories());
+
+		assertTrue(catalogue.loadNextPage());
+		Map<UUID, Story> first = catalogue.getStories();
+		assertEquals(OnlineCatalogue.INITIAL_PAGE_SIZE, first.size());
+		assertFalse(catalogue.isExhausted());
+
+		assertTrue(catalogue.loadNextPage());
+		assertEquals(OnlineCatalogue.INITIAL_PAGE_SIZE, first.size());
+		assertEquals(stories.size(), catalogue.getStories().size());
+		assertTrue(catalogue.isExhausted());
+		assertFalse(catalogue.loadNextPage());
+
+		int i = 0;
+		for(UUID id : catalogue.getStories().keySet()) {
+			assertEquals(stories.get(i++).getId(), id);
+		}
+	}
+
+	public void testFailedFirstPageLeavesEmptyCatalogue() throws Exception {
+		OnlineCatalogue catalogue = new OnlineCatalogue(new ListWebStorage(null), null);
+		try {
+			catalogue.loadNextPage();
+			fail();
+		} catch(Exception e) {
+			// expected
+		}
+		assertTrue(catalogue.getStories().isEmpty());
+		assertFalse(catalogue.isExhausted());
+		assertFalse(catalogue.isLoading());
+	}
+
+	public void testPageSizeFollowsLatency() {
+		int size = OnlineCatalogue.INITIAL_PAGE_SIZE;
+		assertEquals(size * 2, OnlineCatalogue.adaptPageSize(size, 0));
+		assertEquals(size, OnlineCatalogue.adaptPageSize(size, OnlineCatalogue.TARGET_PAGE_MILLIS));
+		assertEquals(size / 2, OnlineCatalogue.adaptPageSize(size, OnlineCatalogue.TARGET_PAGE_MILLIS * 2));
+		assertEquals(OnlineCatalogue.MAX_PAGE_SIZE, OnlineCatalogue.adaptPageSize(OnlineCatalogue.MAX_PAGE_SIZE, 0));
+		assertEquals(OnlineCatalogue.MIN_PAGE_SIZE,
+				OnlineCatalogue.adaptPageSize(OnlineCatalogue.MIN_PAGE_SIZE, OnlineCatalogue.TARGET_PAGE_MILLIS * 2));
+	}
+
+	private List<Story> createStories(int count) {
+		List<Story> stories = new ArrayList<Story>();
+		for(int i = 0; i < count; i++) {
+			stories.add(new Story("story " + i, "author", "synopsis"));
+		}
+		return stories;
+	}
+
+	private static class ListWebStorage extends WebStorage {
+		private final List<Story> stories;
+
+		ListWebStorage(List<Story> stories) {
+			this.stories = stories;
+		}
+
+		@Override
+		public List<Story> getStories(int from, int size) throws Exception {
+			if(stories == null)
+				throw new Exception("Offline");
+			int to = Math.min(from + size, stories.size());
+			return new ArrayList<Story>(stories.subList(Math.min(from, to), to));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.UUID;
+
+public class StoryChangeSetTest extends AndroidTestCase {
+
+	private UUID storyId;
+	private StoryChangeSet changes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		storyId = UUID.randomUUID();
+		changes = new StoryChangeSet(storyId);
+	}
+
+	public void testAddedThenRemovedCancels() throws Exception {
+		StoryFragment fragment = new StoryFragment(storyId, "new");
+		changes.fragmentAdded(fragment);
+		changes.fragmentUpdated(fragment);
+		changes.choiceAdded(fragment.getFragmentID(), new Choice("go", UUID.randomUUID()));
+		changes.fragmentRemoved(fragment.getFragmentID());
+
+		assertTrue(changes.isEmpty());
+	}
+
+	public void testAddedThenUpdatedStaysAdded() throws Exception {
+		StoryFragment fragment = new StoryFragment(storyId, "new");
+		changes.fragmentAdded(fragment);
+		changes.fragmentUpdated(fragment);
+
+		assertEquals(1, changes.getAddedFragments().size());
+		assertTrue(changes.getUpdatedFragments().isEmpty());
+		assertTrue(changes.isFragmentSetChanged());
+	}
+
+	public void testUpdatedThenRemovedIsRemoved() throws Exception {
+		StoryFragment fragment = new StoryFragment(storyId, "old");
+		changes.fragmentUpdated(fragment);
+		changes.fragmentRemoved(fragment.getFragmentID());
+
+		assertTrue(changes.getUpdatedFragments().isEmpty());
+		assertTrue(changes.getRemovedFragmentIds().contains(fragment.getFragmentID()));
+	}
+
+	public void testChoiceAddedThenRemovedCancels() throws Exception {
+		UUID origin = UUID.randomUUID();
+		UUID target = UUID.randomUUID();
+		Choice choice = new Choice("go", target);
+		changes.choiceAdded(origin, choice);
+		changes.choiceRemoved(origin, new Choice("go", target));
+
+		assertTrue(changes.isEmpty());
+	}
+
+	public void testMergeKeepsBothSetsIntact() throws Exception {
+		StoryFragment fragment = new StoryFragment(storyId, "new");
+		changes.fragmentAdded(fragment);
+		StoryChangeSet newer = new StoryChangeSet(storyId);
+		newer.fragmentUpdated(fragment);
+		newer.choiceAdded(fragment.getFragmentID(), new Choice("go", UUID.randomUUID()));
+
+		StoryChangeSet merged = changes.merge(newer);
+
+		assertEquals(1, merged.getAddedFragments().size());
+		assertTrue(merged.getUpdatedFragments().isEmpty());
+		assertEquals(1, merged.getAddedChoices().size());
+		assertTrue(changes.getAddedChoices().isEmpty());
+		assertEquals(1, newer.getUpdatedFragments().size());
+	}
+
+	public void testMergeWithOtherStoryKeepsNewer() throws Exception {
+		changes.storyChanged();
+		StoryChangeSet newer = new StoryChangeSet(UUID.randomUUID());
+
+		assertSame(newer, changes.merge(newer));
+	}
+
+	public void testChoicesAreCopied() throws Exception {
+		UUID origin = UUID.randomUUID();
+		UUID target = UUID.randomUUID();
+		Choice choice = new Choice("go", target);
+		changes.choiceAdded(origin, choice);
+		choice.setTarget(UUID.randomUUID());
+
+		assertEquals(target, changes.getAddedChoices().get(0).getChoice().getTarget());
+		assertEquals(origin, changes.getAddedChoices().get(0).getOrigin());
+	}
+}
@@ -20,6 +20,8 @@ package ca.cmput301f13t03.adventure_datetime.model;/*
  * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.BitmapFactory;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
@@ -27,6 +29,10 @@ import ca.cmput301f13t03.adventure_datetime.R;
 import ca.cmput301f13t03.adventure_datetime.model.Interfaces.ILocalStorage;
 import junit.framework.Assert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -106,6 +112,137 @@ public class StoryDBTest extends AndroidTestCase {
         Assert.assertNull("Story not null", story2);
 	}
 
+	public void testSetStoryWithFragments() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		story.setThumbnail(BitmapFactory.decodeResource(getContext().getResources(), R.drawable.grumpy_cat));
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		StoryFragment next = new StoryFragment(story.getId(), "next");
+		head.addChoice(new Choice("next", next.getFragmentID()));
+		story.setHeadFragmentId(head);
+		story.addFragment(next);
+
+		Assert.assertTrue("Error inserting story", database.setStoryWithFragments(story, Arrays.asList(head, next)));
+		Story story2 = database.getStory(story.getId());
+
+		Assert.assertEquals("Not equivalent story ids", story.getId(), story2.getId());
+		Assert.assertEquals("Not all fragments inserted", 2, database.getStoryFragments(story.getId()).size());
+		Assert.assertNotNull("Thumbnail not inserted", story2.getThumbnail());
+
+		database.deleteStory(story.getId());
+
+		Assert.assertNull("Story not null", database.getStory(story.getId()));
+	}
+
+	public void testGetStorySummaries() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		story.setHeadFragmentId(head);
+		story.setTimestamp(Long.MAX_VALUE / 1000);
+		Assert.assertTrue("Error inserting story", database.setStoryWithFragments(story, Arrays.asList(head)));
+
+		List<StorySummary> page = database.getStorySummaries(StorySummary.Filter.ALL, StorySummary.Sort.NEWEST, 0, 1);
+		Assert.assertEquals("Page not limited", 1, page.size());
+		Assert.assertEquals("Newest story not first", story.getId(), page.get(0).getId());
+		Assert.assertEquals("Fragments not counted", 1, page.get(0).getFragmentCount());
+
+		int count = database.getStorySummaryCount(StorySummary.Filter.ALL);
+		Assert.assertTrue("Page past the end not empty",
+				database.getStorySummaries(StorySummary.Filter.ALL, StorySummary.Sort.TITLE, count, 10).isEmpty());
+
+		database.deleteStory(story.getId());
+	}
+
+	public void testSearchStories() throws Exception {
+		Story story = new Story("TestAuthor", "Quixotic voyage", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "A zeppelin drifts overhead");
+		story.setHeadFragmentId(head);
+		Assert.assertTrue("Error inserting story", database.setStoryWithFragments(story, Arrays.asList(head)));
+
+		List<UUID> results = database.searchStories("quixot", StorySummary.Filter.ALL);
+		Assert.assertEquals("Title prefix not found", 1, results.size());
+		Assert.assertEquals("Wrong story found", story.getId(), results.get(0));
+		Assert.assertEquals("No summary for result", 1, database.getStorySummaries(results).size());
+		results = database.searchStories("zeppelin", StorySummary.Filter.ALL);
+		Assert.assertEquals("Fragment content not found", 1, results.size());
+
+		Assert.assertTrue("Error marking story authored", database.setAuthoredStory(story));
+		Assert.assertTrue("Filter ignored", database.searchStories("quixot", StorySummary.Filter.NOT_AUTHORED).isEmpty());
+		Assert.assertEquals("Authored story not found", 1,
+				database.searchStories("quixot", StorySummary.Filter.AUTHORED).size());
+
+		head.setStoryText("An empty sky");
+		Assert.assertTrue("Error updating story", database.setStoryWithFragments(story, Arrays.asList(head)));
+		Assert.assertTrue("Old content still indexed", database.searchStories("zeppelin", StorySummary.Filter.ALL).isEmpty());
+		Assert.assertTrue("Query syntax not ignored", database.searchStories("\"*", StorySummary.Filter.ALL).isEmpty());
+
+		database.deleteStory(story.getId());
+		Assert.assertTrue("Deleted story still indexed", database.searchStories("quixot", StorySummary.Filter.ALL).isEmpty());
+	}
+
+	public void testDeleteStoryCascades() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		story.setHeadFragmentId(head);
+		Image image = new Image(BitmapFactory.decodeResource(getContext().getResources(), R.drawable.grumpy_cat));
+		head.addMedia(image);
+		Assert.assertTrue("Error inserting story", database.setStoryWithFragments(story, Arrays.asList(head)));
+		Assert.assertTrue("Error inserting bookmark", database.setBookmark(new Bookmark(story.getId(), head.getFragmentID())));
+		Assert.assertTrue("Error inserting authored story", database.setAuthoredStory(story));
+
+		Assert.assertTrue("Story not deleted", database.deleteStory(story.getId()));
+
+		Assert.assertNull("Fragment not deleted", database.getStoryFragment(head.getFragmentID()));
+		Assert.assertNull("Bookmark not deleted", database.getBookmark(story.getId()));
+		Assert.assertFalse("Authored story not deleted", database.getAuthoredStory(story.getId()));
+		Assert.assertNull("Image not deleted", ((StoryDB) database).getImage(image.getId()));
+	}
+
+	public void testCollectGarbage() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		story.setHeadFragmentId(head);
+		Image image = new Image(BitmapFactory.decodeResource(getContext().getResources(), R.drawable.grumpy_cat));
+		head.addMedia(image);
+		Assert.assertTrue("Error inserting story", database.setStoryWithFragments(story, Arrays.asList(head)));
+		head.removeMedia(image);
+		Assert.assertTrue("Error updating story", database.setStoryWithFragments(story, Arrays.asList(head)));
+
+		MaintenanceReport report = database.collectGarbage(60000);
+		Assert.assertTrue("Collection did not finish", report.isComplete());
+		Assert.assertTrue("Orphaned image not counted", report.getImagesDeleted() >= 1);
+		Assert.assertNull("Orphaned image not deleted", ((StoryDB) database).getImage(image.getId()));
+		Assert.assertNotNull("Referenced story lost", database.getStory(story.getId()));
+
+		database.deleteStory(story.getId());
+	}
+
+	public void testUpgradeKeepsStories() throws Exception {
+		SQLiteDatabase db = SQLiteDatabase.create(null);
+		db.execSQL("CREATE TABLE Story (_id INTEGER PRIMARY KEY, GUID TEXT, Title TEXT, Author TEXT, "
+				+ "Synopsis TEXT, HeadFragment INTEGER, Timestamp INTEGER, Thumbnail TEXT)");
+		db.execSQL("CREATE TABLE StoryFragment (_id INTEGER PRIMARY KEY, GUID TEXT, StoryID INTEGER, "
+				+ "Content TEXT, Choices BLOB, Images BLOB)");
+		db.execSQL("CREATE TABLE Bookmark (_id INTEGER PRIMARY KEY, FragmentID INTEGER, StoryID INTEGER, Date INTEGER)");
+		db.execSQL("CREATE TABLE AuthoredStory (_id INTEGER PRIMARY KEY, GUID TEXT)");
+		db.execSQL("CREATE TABLE StoryImage (_id INTEGER PRIMARY KEY, GUID TEXT, Image TEXT)");
+		String storyId = UUID.randomUUID().toString();
+		db.execSQL("INSERT INTO Story (GUID, Title, Author, Synopsis, Timestamp) VALUES (?, 'Kept', 'TestAuthor', 'TestSynop', 0)",
+				new Object[] {storyId});
+		db.execSQL("INSERT INTO AuthoredStory (GUID) VALUES (?)", new Object[] {storyId});
+
+		StoryDB.StoryDBHelper helper = ((StoryDB) database).new StoryDBHelper(getContext());
+		helper.onUpgrade(db, 7, StoryDB.StoryDBHelper.DATABASE_VERSION);
+
+		Assert.assertEquals("Story lost on upgrade", 1,
+				DatabaseUtils.queryNumEntries(db, StoryDB.STORY_TABLE_NAME, "GUID = ?", new String[] {storyId}));
+		Assert.assertEquals("Authored story lost on upgrade", 1,
+				DatabaseUtils.queryNumEntries(db, StoryDB.AUTHORED_STORY_TABLE_NAME));
+		Assert.assertEquals("Story not indexed on upgrade", 1,
+				DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + StoryDB.SEARCH_TABLE_NAME
+						+ " WHERE " + StoryDB.SEARCH_TABLE_NAME + " MATCH 'kept'", null));
+		db.close();
+	}
+
 	public void testSetBookmark() throws Exception {
 		UUID sUuid, sFUuid;
 		sUuid = UUID.randomUUID();
@@ -130,6 +267,57 @@ public class StoryDBTest extends AndroidTestCase {
         Assert.assertNull("Bookmark not null", bookmark2);
 	}
 
+	public void testExportImportStory() throws Exception {
+		Story story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		StoryFragment head = new StoryFragment(story.getId(), "head");
+		StoryFragment next = new StoryFragment(story.getId(), "next");
+		head.addChoice(new Choice("go", next.getFragmentID()));
+		story.setHeadFragmentId(head);
+		Image image = new Image(BitmapFactory.decodeResource(getContext().getResources(), R.drawable.grumpy_cat));
+		head.addMedia(image);
+		next.addMedia(image);
+		Assert.assertTrue("Error inserting story", database.setStoryWithFragments(story, Arrays.asList(head, next)));
+
+		ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+		Assert.assertTrue("Error exporting story", database.exportStory(story.getId(), bundle));
+		Assert.assertTrue("Story not deleted", database.deleteStory(story.getId()));
+
+		Story imported = database.importStory(new ByteArrayInputStream(bundle.toByteArray()));
+		Assert.assertNotNull("Error importing story", imported);
+		Assert.assertEquals("Fragments missing from imported story", 2, imported.getFragmentIds().size());
+		Assert.assertEquals("Not equivalent titles", story.getTitle(), database.getStory(story.getId()).getTitle());
+
+		List<StoryFragment> fragments = database.getStoryFragments(story.getId());
+		Assert.assertEquals("Wrong fragment count", 2, fragments.size());
+		StoryFragment importedHead = database.getStoryFragment(head.getFragmentID());
+		Assert.assertEquals("Choices not imported", next.getFragmentID(), importedHead.getChoice(0).getTarget());
+		Assert.assertEquals("Image not imported", image.getId(), importedHead.getMedia(0).getId());
+		Assert.assertTrue("Image bytes differ", Arrays.equals(image.getBytes(), importedHead.getMedia(0).getBytes()));
+
+		database.deleteStory(story.getId());
+	}
+
+	public void testImportRejectsOtherStreams() throws Exception {
+		Assert.assertNull("Imported garbage", database.importStory(new ByteArrayInputStream(new byte[] {1, 2, 3})));
+	}
+
+	public void testAppendReadingTrail() throws Exception {
+		UUID storyId = UUID.randomUUID();
+		UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+		List<Bookmark> entries = Arrays.asList(new Bookmark(storyId, first), new Bookmark(storyId, second));
+
+		Assert.assertTrue("Error appending trail", database.appendReadingTrail(entries));
+
+		List<Bookmark> trail = database.getReadingTrail(storyId);
+		Assert.assertEquals("Wrong trail length", 2, trail.size());
+		Assert.assertEquals("Trail out of order", first, trail.get(0).getFragmentID());
+		Assert.assertEquals("Trail out of order", second, trail.get(1).getFragmentID());
+		Assert.assertEquals("Bookmark not the latest entry", second, database.getBookmark(storyId).getFragmentID());
+
+		database.deleteStory(storyId);
+		Assert.assertTrue("Trail not deleted", database.getReadingTrail(storyId).isEmpty());
+	}
+
 
 	@Override
 	public void tearDown() throws Exception {
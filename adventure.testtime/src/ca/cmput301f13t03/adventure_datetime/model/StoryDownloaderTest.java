@@ -0,0 +1,109 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import ca.cmput301f13t03.adventure_datetime.model.Interfaces.IDownloadListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StoryDownloaderTest extends AndroidTestCase {
+
+	private StoryDB database;
+	private AsyncLocalStorage storage;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		database = new StoryDB(new RenamingDelegatingContext(getContext(), "test_"));
+		storage = new AsyncLocalStorage(database);
+	}
+
+	public void testSavesEveryPage() throws Exception {
+		Story story = new Story("Downloaded", "author", "synopsis");
+		List<StoryFragment> fragments = createFragments(story, StoryDownloader.PAGE_SIZE * 2 + 50);
+		RecordingListener listener = new RecordingListener();
+
+		assertTrue(new StoryDownloader(new PagedWebStorage(fragments, false), storage, 2).download(story, listener));
+
+		assertEquals(3, listener.progressCount.get());
+		assertEquals(fragments.size(), listener.lastSaved.get());
+		assertEquals(fragments.size(), listener.lastTotal.get());
+		assertEquals(1, listener.completeCount.get());
+		assertTrue(listener.succeeded);
+		assertNotNull(database.getStory(story.getId()));
+		for(StoryFragment fragment : fragments) {
+			assertNotNull(database.getStoryFragment(fragment.getFragmentID()));
+		}
+
+		database.deleteStory(story.getId());
+	}
+
+	public void testFailedImagesFailDownload() throws Exception {
+		Story story = new Story("Broken", "author", "synopsis");
+		List<StoryFragment> fragments = createFragments(story, StoryDownloader.PAGE_SIZE + 1);
+		RecordingListener listener = new RecordingListener();
+
+		assertFalse(new StoryDownloader(new PagedWebStorage(fragments, true), storage, 2).download(story, listener));
+
+		assertEquals(1, listener.completeCount.get());
+		assertFalse(listener.succeeded);
+
+		database.deleteStory(story.getId());
+	}
+
+	private List<StoryFragment> createFragments(Story story, int count) {
+		List<StoryFragment> fragments = new ArrayList<StoryFragment>();
+		for(int i = 0; i < count; i++) {
+			StoryFragment fragment = new StoryFragment(story.getId(), "fragment " + i);
+			story.addFragment(fragment);
+			fragments.add(fragment);
+		}
+		return fragments;
+	}
+
+	private static class PagedWebStorage extends WebStorage {
+		private final List<StoryFragment> fragments;
+		private final boolean failImages;
+
+		PagedWebStorage(List<StoryFragment> fragments, boolean failImages) {
+			this.fragments = fragments;
+			this.failImages = failImages;
+		}
+
+		@Override
+		public List<StoryFragment> getFragmentPage(UUID storyId, int from, int size) {
+			int to = Math.min(from + size, fragments.size());
+			return new ArrayList<StoryFragment>(fragments.subList(Math.min(from, to), to));
+		}
+
+		@Override
+		public void loadFragmentImages(List<StoryFragment> page) throws Exception {
+			if(failImages)
+				throw new Exception("No images");
+		}
+	}
+
+	private static class RecordingListener implements IDownloadListener {
+		final AtomicInteger progressCount = new AtomicInteger();
+		final AtomicInteger lastSaved = new AtomicInteger();
+		final AtomicInteger lastTotal = new AtomicInteger();
+		final AtomicInteger completeCount = new AtomicInteger();
+		volatile boolean succeeded;
+
+		@Override
+		public void OnDownloadProgress(UUID storyId, int saved, int total) {
+			progressCount.incrementAndGet();
+			lastSaved.set(Math.max(lastSaved.get(), saved));
+			lastTotal.set(total);
+		}
+
+		@Override
+		public void OnDownloadComplete(UUID storyId, boolean succeeded) {
+			this.succeeded = succeeded;
+			completeCount.incrementAndGet();
+		}
+	}
+}
@@ -74,6 +74,47 @@ public class StoryFragmentTest extends TestCase {
 		Assert.assertFalse("JSON still matches up", frag.getChoicesInJson().contains(jsonchoice));
 	}
 
+	public void testChangeTracking() throws Exception {
+		StoryFragment frag = new StoryFragment(UUID.randomUUID(), "test",
+				new Choice("test", UUID.randomUUID()));
+		Assert.assertTrue("New fragment is not dirty", frag.isDirty());
+
+		frag.markSaved();
+		Assert.assertFalse("Saved fragment is dirty", frag.isDirty());
+
+		frag.setStoryText("test");
+		Assert.assertEquals("Unchanged text counted as change", 0, frag.getChanges());
+
+		frag.getChoice(0).setText("changed");
+		Assert.assertEquals("Choice edit not tracked", StoryFragment.CHANGED_CHOICES, frag.getChanges());
+
+		frag.setStoryText("changed");
+		Assert.assertTrue("Text edit not tracked", (frag.getChanges() & StoryFragment.CHANGED_TEXT) != 0);
+
+		frag.markSaved();
+		Assert.assertEquals("Changes not cleared on save", 0, frag.getChanges());
+	}
+
+	public void testMarkSavedFromCopy() throws Exception {
+		StoryFragment frag = new StoryFragment(UUID.randomUUID(), "test",
+				new Choice("test", UUID.randomUUID()));
+		frag.markSaved();
+		frag.setStoryText("changed");
+		frag.getChoice(0).setText("changed");
+
+		StoryFragment copy = frag.copyForSave();
+		Assert.assertEquals("Copy lost the changes", frag.getChanges(), copy.getChanges());
+		frag.setStoryText("edited while saving");
+		copy.getChoice(0).setText("copy only");
+		Assert.assertEquals("Copy shares choices", "changed", frag.getChoice(0).getText());
+
+		copy.getChoice(0).setText("changed");
+		copy.markSaved();
+		frag.markSaved(copy);
+		Assert.assertTrue("Fragment not marked saved", frag.isSaved());
+		Assert.assertEquals("Edit made while saving was cleared", StoryFragment.CHANGED_TEXT, frag.getChanges());
+	}
+
 	public void testGson() throws Exception {
 		Gson gson = new Gson();
 		StoryFragment frag = new StoryFragment(UUID.randomUUID(), "test");
@@ -0,0 +1,60 @@
+package ca.cmput301f13t03.adventure_datetime.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+
+public class StoryGraphTest extends AndroidTestCase {
+
+	private Story story;
+	private StoryFragment head;
+	private StoryFragment next;
+	private StoryGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		story = new Story("TestAuthor", "TestTitle", "TestSynop");
+		next = new StoryFragment(story.getId(), "next");
+		head = new StoryFragment(story.getId(), "head", new Choice("on", next.getFragmentID()));
+		story.setHeadFragmentId(head);
+		graph = StoryGraph.of(story, Arrays.asList(head, next));
+	}
+
+	public void testSnapshotIgnoresLaterEdits() throws Exception {
+		head.setStoryText("changed");
+		head.addChoice(new Choice("back", head.getFragmentID()));
+
+		StoryGraph.Node node = graph.getNode(head.getFragmentID());
+		assertEquals("head", node.getText());
+		assertEquals(1, node.getChoices().size());
+		assertEquals(next.getFragmentID(), node.getChoices().get(0).getTarget());
+	}
+
+	public void testUpdatesShareUnchangedNodes() throws Exception {
+		head.setStoryText("changed");
+		StoryGraph updated = graph.withFragment(head);
+
+		assertNotSame(graph, updated);
+		assertEquals(graph.getVersion() + 1, updated.getVersion());
+		assertSame(graph.getNode(next.getFragmentID()), updated.getNode(next.getFragmentID()));
+		assertEquals("changed", updated.getNode(head.getFragmentID()).getText());
+		assertEquals("head", graph.getNode(head.getFragmentID()).getText());
+	}
+
+	public void testUnchangedFragmentKeepsGraph() throws Exception {
+		assertSame(graph, graph.withFragment(next));
+		assertSame(graph, graph.withStory(story));
+		assertSame(graph, graph.withoutFragment(story.getId()));
+	}
+
+	public void testRemovingFragment() throws Exception {
+		assertEquals(Arrays.asList(head.getFragmentID()), graph.getReferrers(next.getFragmentID()));
+
+		StoryGraph updated = graph.withoutFragment(next.getFragmentID());
+
+		assertNull(updated.getNode(next.getFragmentID()));
+		assertEquals(1, updated.getFragmentIds().size());
+		assertEquals(2, graph.getFragmentIds().size());
+	}
+}